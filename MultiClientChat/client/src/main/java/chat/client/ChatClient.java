@@ -7,10 +7,19 @@ import javafx.stage.Stage;
 import java.net.Socket;
 import java.io.ObjectOutputStream;
 import java.io.ObjectInputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
 import chat.client.views.LoginView;
+import chat.client.logic.AckTracker;
+import chat.client.logic.CoalescingDispatcher;
+import chat.client.logic.OutboundQueue;
 import chat.common.model.Message;
 import chat.common.model.User;
 import chat.common.model.CallSignal;
+import chat.common.model.MessageBatch;
+import chat.common.model.AudioChunk;
 import chat.client.views.ChatView;
 
 /**
@@ -25,9 +34,17 @@ import chat.client.views.ChatView;
 public class ChatClient extends Application {
     private ViewManager viewManager;
     private User user;
-    private Socket socket;
-    private ObjectOutputStream out;
-    private ObjectInputStream in;
+    private volatile Socket socket;
+    private volatile ObjectOutputStream out;
+    private volatile ObjectInputStream in;
+    private AckTracker ackTracker;
+    private OutboundQueue outbound;
+    private ChatView chatView;
+    private CoalescingDispatcher<Object> uiEvents;
+    /** Número de la conexión actual; cambia al perderla. */
+    private final AtomicInteger generation = new AtomicInteger();
+    private static final long RECONNECT_BASE_MS = 500;
+    private static final long RECONNECT_MAX_MS = 30_000;
 
     @Override
     public void start(Stage primaryStage) {
@@ -50,43 +67,65 @@ public class ChatClient extends Application {
     private void showChatView() {
 
         try {
-            socket = new Socket("localhost", 12345);
-            out = new ObjectOutputStream(socket.getOutputStream());
-            in = new ObjectInputStream(socket.getInputStream());
-            out.writeObject(user);
-            out.flush();
+            connect();
+        } catch (UsernameTakenException ex) {
+            showAlertAndReturnToLogin("Usuario ya conectado en otra instancia.");
+            return;
         } catch (Exception ex) {
             showAlertAndReturnToLogin("No se pudo conectar al servidor: " + ex.getMessage());
             return;
         }
 
+        // Todo lo que se envía pasa por el hilo escritor; la interfaz no espera al socket.
+        // La cola sigue aceptando envíos sin conexión y los manda al reconectar.
+        outbound = new OutboundQueue(ex -> connectionLost(generation.get(), ex));
+        outbound.attach(out);
+        outbound.start();
+        chatView = new ChatView(user, outbound);
+        viewManager.showChatView(chatView);
+
+        ackTracker = new AckTracker(outbound::send);
+        ackTracker.start();
+
+        // Mensajes y señales van a la interfaz por lotes, una tarea de JavaFX por tanda
+        uiEvents = new CoalescingDispatcher<>("Entrantes", Platform::runLater,
+            batch -> deliverToView(chatView, batch));
+
+        startReceiver(in, generation.get());
+    }
+
+    /**
+     * Abre el socket y hace el saludo: envía el usuario y espera la respuesta del servidor,
+     * que a continuación reenvía los mensajes que este cliente aún no confirmó.
+     */
+    private void connect() throws Exception {
+        Socket s = new Socket("localhost", 12345);
         try {
-            Object resp = in.readObject();
+            ObjectOutputStream o = new ObjectOutputStream(s.getOutputStream());
+            ObjectInputStream i = new ObjectInputStream(s.getInputStream());
+            o.writeObject(user);
+            o.flush();
+            Object resp = i.readObject();
             if (resp instanceof String && ((String) resp).startsWith("ERROR:USERNAME_TAKEN")) {
-                showAlertAndReturnToLogin("Usuario ya conectado en otra instancia.");
-                socket.close();
-                return;
+                throw new UsernameTakenException();
             }
-           
+            socket = s;
+            out = o;
+            in = i;
         } catch (Exception ex) {
-            showAlertAndReturnToLogin("No se pudo autenticar la sesión: " + ex.getMessage());
-            return;
+            s.close();
+            throw ex;
         }
+    }
 
-        ChatView chatView = new ChatView(
-            user, socket, out, in,
-            (to, payload) -> {
-                try {
-                    out.writeObject(payload);
-                    out.flush();
-                } catch (Exception ex) {
-                    showAlertAndReturnToLogin("Error al enviar mensaje: " + ex.getMessage());
-                }
-            }
-        );
-        viewManager.showChatView(chatView);
+    /** El servidor aún tiene una sesión abierta con este usuario. */
+    private static class UsernameTakenException extends Exception {
+        UsernameTakenException() {
+            super("Usuario ya conectado en otra instancia");
+        }
+    }
 
-    
+    private void startReceiver(ObjectInputStream in, int connection) {
         new Thread(() -> {
             try {
                 System.out.println("[DEBUG] Hilo receptor de mensajes iniciado");
@@ -94,24 +133,125 @@ public class ChatClient extends Application {
                     Object obj = in.readObject();
                     if (obj instanceof Message) {
                         Message msg = (Message) obj;
-                        Platform.runLater(() -> {
-                            chatView.receiveMessage(msg);
-                        });
+                        // Una nota de voz reenviada porque no llegó entera ya se está mostrando
+                        boolean resumed = ackTracker.isIncomplete(msg);
+                        if (!ackTracker.onReceived(msg)) continue;
+                        chatView.getVoiceNoteTransfer().expect(msg);
+                        if (!resumed) uiEvents.post(msg);
+                    } else if (obj instanceof MessageBatch) {
+                        // Mensajes recibidos mientras el usuario estaba desconectado
+                        MessageBatch batch = (MessageBatch) obj;
+                        java.util.List<Message> fresh = new java.util.ArrayList<>();
+                        for (Message msg : batch.getMessages()) {
+                            boolean resumed = ackTracker.isIncomplete(msg);
+                            if (ackTracker.onReceived(msg)) {
+                                chatView.getVoiceNoteTransfer().expect(msg);
+                                if (!resumed) fresh.add(msg);
+                            }
+                        }
+                        // Una confirmación por lote
+                        ackTracker.flush();
+                        for (Message msg : fresh) {
+                            uiEvents.post(msg);
+                        }
+                    } else if (obj instanceof AudioChunk) {
+                        // Se escribe en disco desde este hilo, sin pasar por la interfaz; la nota
+                        // solo se confirma al servidor cuando está entera
+                        Message completed = chatView.getVoiceNoteTransfer().append((AudioChunk) obj);
+                        if (completed != null) ackTracker.onCompleted(completed);
                     } else if (obj instanceof CallSignal) {
                         System.out.println("[CALL] Llamada recibida: " + obj);
-                        CallSignal signal = (CallSignal) obj;
-                        Platform.runLater(() -> {
-                            chatView.receiveCallSignal(signal);
-                        });
+                        uiEvents.post(obj);
                     } else {
                         System.out.println("[DEBUG] Objeto recibido no es Message ni CallSignal: " + obj);
                     }
                 }
             } catch (Exception e) {
                 System.out.println("[ERROR] Hilo receptor finalizado: " + e.getMessage());
-                e.printStackTrace();
+                System.out.println("[UI] " + uiEvents);
+                connectionLost(connection, e);
+            }
+        }, "ChatClient-Receiver").start();
+    }
+
+    /**
+     * Da por perdida la conexión y empieza a reconectar. Lo llaman el hilo receptor y la
+     * cola de salida; solo la primera llamada de cada conexión hace algo.
+     * @param connection Número de la conexión que falló
+     */
+    private void connectionLost(int connection, Exception cause) {
+        if (!generation.compareAndSet(connection, connection + 1)) return;
+        System.out.println("[RECONNECT] Conexión perdida: " + cause.getMessage());
+        outbound.detach();
+        try {
+            socket.close();
+        } catch (Exception ignored) {
+        }
+        chatView.getVoiceNoteTransfer().abortAll();
+        Platform.runLater(() -> chatView.setConnectionStatus("Sin conexión, reconectando..."));
+        int next = connection + 1;
+        Thread reconnect = new Thread(() -> reconnect(next), "ChatClient-Reconnect");
+        reconnect.setDaemon(true);
+        reconnect.start();
+    }
+
+    /**
+     * Reintenta la conexión con espera exponencial y jitter hasta conseguirla. Al
+     * conectar, la cola de salida manda en orden lo escrito sin conexión y se vuelven a
+     * confirmar las secuencias recibidas; los mensajes que el servidor reenvía y ya se
+     * tenían los descarta {@link AckTracker} por su secuencia.
+     */
+    private void reconnect(int connection) {
+        for (int attempt = 0; generation.get() == connection; attempt++) {
+            long delay = reconnectDelayMillis(attempt);
+            System.out.println("[RECONNECT] Intento " + (attempt + 1) + " en " + delay + " ms");
+            try {
+                Thread.sleep(delay);
+                connect();
+            } catch (InterruptedException e) {
+                return;
+            } catch (Exception e) {
+                // Incluye USERNAME_TAKEN: el servidor aún no cerró la sesión anterior
+                System.out.println("[RECONNECT] Falló: " + e.getMessage());
+                continue;
+            }
+            startReceiver(in, connection);
+            outbound.attach(out);
+            ackTracker.resend();
+            System.out.println("[RECONNECT] Conectado tras " + (attempt + 1) + " intentos; " + outbound.getPending() + " envíos en cola");
+            Platform.runLater(() -> chatView.setConnectionStatus(null));
+            return;
+        }
+    }
+
+    /**
+     * Espera antes de un intento: {@value #RECONNECT_BASE_MS} ms que se duplican en cada
+     * fallo, hasta {@value #RECONNECT_MAX_MS} ms, con jitter aleatorio en la mitad superior
+     * del intervalo para que los clientes no reconecten todos a la vez al volver el servidor.
+     */
+    static long reconnectDelayMillis(int attempt) {
+        long ceiling = Math.min(RECONNECT_MAX_MS, RECONNECT_BASE_MS << Math.min(attempt, 16));
+        return ceiling / 2 + ThreadLocalRandom.current().nextLong(ceiling / 2 + 1);
+    }
+
+    /**
+     * Entrega a la vista un lote de eventos entrantes en orden. Los mensajes seguidos se
+     * agregan juntos; las señales de llamada se entregan una a una entre ellos.
+     */
+    private static void deliverToView(ChatView chatView, List<Object> batch) {
+        List<Message> pending = new ArrayList<>();
+        for (Object event : batch) {
+            if (event instanceof Message) {
+                pending.add((Message) event);
+            } else if (event instanceof CallSignal) {
+                if (!pending.isEmpty()) {
+                    chatView.receiveMessages(pending);
+                    pending = new ArrayList<>();
+                }
+                chatView.receiveCallSignal((CallSignal) event);
             }
-        }).start();
+        }
+        if (!pending.isEmpty()) chatView.receiveMessages(pending);
     }
 
     private void showAlertAndReturnToLogin(String msg) {
@@ -0,0 +1,184 @@
+package chat.client.logic;
+
+import chat.common.model.DeliveryAck;
+import chat.common.model.Message;
+import chat.common.util.ChatUtils;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Lleva la cuenta de las secuencias recibidas por conversación y envía confirmaciones
+ * acumulativas al servidor.
+ * <p>
+ * Las confirmaciones se agrupan: se envía una por lote recibido, cada
+ * {@value #MAX_UNACKED} mensajes o, como máximo, cada {@value #FLUSH_INTERVAL_MS} ms,
+ * y solo con las conversaciones que cambiaron. También descarta los mensajes ya vistos,
+ * que el servidor puede reenviar tras una reconexión.
+ * <p>
+ * Una nota de voz por fragmentos no se confirma hasta que se escribe su último fragmento
+ * ({@link #onCompleted}): mientras tanto la confirmación de su conversación se queda en la
+ * secuencia anterior, para que el servidor la conserve en el buzón, y si el servidor la
+ * reenvía tras una reconexión se acepta de nuevo aunque ya se hayan visto mensajes
+ * posteriores.
+ */
+public class AckTracker {
+    private static final int MAX_UNACKED = 32;
+    private static final long FLUSH_INTERVAL_MS = 500;
+
+    private final Map<String, Long> lastSeen = new HashMap<>();
+    private final Set<String> dirty = new HashSet<>();
+    /** Cabeceras de notas de voz por fragmentos sin terminar de recibir, por messageId. */
+    private final Map<String, Message> incomplete = new HashMap<>();
+    private int unackedCount = 0;
+    private final Consumer<DeliveryAck> sender;
+    private ScheduledExecutorService timer;
+
+    /**
+     * @param sender Función que envía la confirmación al servidor
+     */
+    public AckTracker(Consumer<DeliveryAck> sender) {
+        this.sender = sender;
+    }
+
+    /** Inicia el envío periódico de confirmaciones pendientes. */
+    public synchronized void start() {
+        if (timer != null) return;
+        timer = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "AckTracker");
+            t.setDaemon(true);
+            return t;
+        });
+        timer.scheduleWithFixedDelay(this::flush, FLUSH_INTERVAL_MS, FLUSH_INTERVAL_MS, TimeUnit.MILLISECONDS);
+    }
+
+    /** Detiene el envío periódico de confirmaciones. */
+    public synchronized void stop() {
+        if (timer == null) return;
+        timer.shutdownNow();
+        timer = null;
+    }
+
+    /**
+     * Registra un mensaje recibido.
+     * @param msg Mensaje recibido del servidor
+     * @return false si el mensaje ya se había recibido (duplicado) y debe descartarse
+     */
+    public boolean onReceived(Message msg) {
+        if (msg.getSequence() <= 0 || msg.getFrom() == null || msg.getTo() == null) return true;
+        String key = ChatUtils.conversationKey(msg.getFrom(), msg.getTo());
+        boolean flushNow;
+        synchronized (this) {
+            if (incomplete.containsKey(msg.getMessageId())) {
+                // Reenvío de una nota de voz que no llegó a completarse
+                return true;
+            }
+            Long seen = lastSeen.get(key);
+            if (seen != null && msg.getSequence() <= seen) {
+                return false;
+            }
+            lastSeen.put(key, msg.getSequence());
+            if (msg.isStreamedAudio()) {
+                incomplete.put(msg.getMessageId(), msg);
+            }
+            dirty.add(key);
+            unackedCount++;
+            flushNow = unackedCount >= MAX_UNACKED;
+        }
+        if (flushNow) flush();
+        return true;
+    }
+
+    /**
+     * Indica si un mensaje es una nota de voz por fragmentos ya recibida cuyo último
+     * fragmento no llegó, es decir, si {@link #onReceived} lo aceptaría como reenvío.
+     */
+    public synchronized boolean isIncomplete(Message msg) {
+        return incomplete.containsKey(msg.getMessageId());
+    }
+
+    /**
+     * Registra que se escribió el último fragmento de una nota de voz, lo que permite
+     * confirmarla.
+     * @param header Cabecera de la nota de voz
+     */
+    public void onCompleted(Message header) {
+        boolean flushNow;
+        synchronized (this) {
+            if (incomplete.remove(header.getMessageId()) == null) return;
+            dirty.add(ChatUtils.conversationKey(header.getFrom(), header.getTo()));
+            unackedCount++;
+            flushNow = unackedCount >= MAX_UNACKED;
+        }
+        if (flushNow) flush();
+    }
+
+    /**
+     * Devuelve la última secuencia recibida de cada conversación.
+     */
+    public synchronized Map<String, Long> getLastSeen() {
+        return new HashMap<>(lastSeen);
+    }
+
+    /**
+     * Vuelve a confirmar la última secuencia de todas las conversaciones. Tras reconectar,
+     * repara las confirmaciones que se perdieron con la conexión anterior, y el servidor
+     * libera del buzón lo que el cliente ya tenía.
+     */
+    public void resend() {
+        DeliveryAck ack;
+        synchronized (this) {
+            ack = ackFor(lastSeen.keySet());
+            dirty.clear();
+            unackedCount = 0;
+        }
+        if (ack == null) return;
+        try {
+            sender.accept(ack);
+        } catch (Exception e) {
+            System.err.println("[ERROR] No se pudo enviar la confirmación de entrega: " + e.getMessage());
+        }
+    }
+
+    /** Envía una confirmación con las conversaciones que cambiaron desde la última. */
+    public void flush() {
+        DeliveryAck ack;
+        synchronized (this) {
+            ack = ackFor(dirty);
+            dirty.clear();
+            unackedCount = 0;
+        }
+        if (ack == null) return;
+        try {
+            sender.accept(ack);
+        } catch (Exception e) {
+            System.err.println("[ERROR] No se pudo enviar la confirmación de entrega: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Confirmación de las conversaciones indicadas, sin pasar de la secuencia anterior a la
+     * primera nota de voz incompleta de cada una. Debe llamarse con el objeto bloqueado.
+     * @return la confirmación, o null si no hay nada que confirmar
+     */
+    private DeliveryAck ackFor(Set<String> keys) {
+        Map<String, Long> acked = new HashMap<>();
+        for (String key : keys) {
+            Long seen = lastSeen.get(key);
+            if (seen != null) acked.put(key, seen);
+        }
+        for (Message note : incomplete.values()) {
+            String key = ChatUtils.conversationKey(note.getFrom(), note.getTo());
+            Long seen = acked.get(key);
+            if (seen != null && note.getSequence() <= seen) acked.put(key, note.getSequence() - 1);
+        }
+        acked.values().removeIf(seq -> seq <= 0);
+        return acked.isEmpty() ? null : new DeliveryAck(acked);
+    }
+}
@@ -0,0 +1,211 @@
+package chat.client.logic;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import chat.common.util.VoicePacket;
+
+/**
+ * Ajusta el formato de envío de una llamada según los informes del receptor.
+ * <p>
+ * Los formatos forman una escalera, de más a menos calidad:
+ * <ol>
+ *   <li>PCM 16 bits a 16 kHz, una trama por paquete (256 kbps de carga);</li>
+ *   <li>μ-law a 16 kHz (128 kbps);</li>
+ *   <li>μ-law a 8 kHz (64 kbps);</li>
+ *   <li>μ-law a 8 kHz con varias tramas por paquete, hasta {@value #MAX_PACKET_MILLIS} ms,
+ *       que ahorra cabeceras y paquetes por segundo.</li>
+ * </ol>
+ * Cada informe trae la fracción de tramas perdidas y la fluctuación medidas por el otro
+ * extremo; se acumulan hasta reunir {@value #MIN_WINDOW_FRAMES} tramas para que un informe
+ * con pocas tramas (por ejemplo, durante silencios) no decida por sí solo. Si alguna
+ * supera su umbral alto se baja un escalón; solo se vuelve a subir tras
+ * {@value #UPGRADE_REPORTS} informes seguidos por debajo de los umbrales bajos. Si una
+ * subida obliga a bajar enseguida (el enlace no aguanta el formato superior), la espera
+ * para volver a intentarlo se duplica, hasta {@value #MAX_UPGRADE_REPORTS} informes, y
+ * vuelve al mínimo cuando una subida se mantiene. Después de cada cambio se ignoran
+ * {@value #HOLD_REPORTS} informes, que todavía describen el formato anterior. Cada
+ * decisión se registra con las medidas que la motivaron, para poder ajustar los umbrales,
+ * y al terminar se resume el tiempo pasado en cada formato.
+ * <p>
+ * Con la propiedad {@code voicecall.adaptive=false} se envía siempre en el primer formato.
+ */
+public class BitrateController {
+    private static final double LOSS_DOWN = 0.05;
+    private static final double LOSS_UP = 0.01;
+    private static final int JITTER_DOWN_MILLIS = 60;
+    private static final int JITTER_UP_MILLIS = 30;
+    private static final int UPGRADE_REPORTS = 5;
+    private static final int MAX_UPGRADE_REPORTS = 80;
+    private static final int HOLD_REPORTS = 2;
+    /** Tramas mínimas para decidir; los informes con menos (silencios) se acumulan. */
+    private static final int MIN_WINDOW_FRAMES = 40;
+    /** Duración máxima del audio de un paquete al agrupar tramas. */
+    public static final int MAX_PACKET_MILLIS = 40;
+
+    /** Un escalón de la escalera: códec, frecuencia y tramas por paquete. */
+    public static final class Profile {
+        private final boolean muLaw;
+        private final boolean halfRate;
+        private final int framesPerPacket;
+        private final int format;
+
+        private Profile(boolean muLaw, boolean halfRate, int framesPerPacket) {
+            this.muLaw = muLaw;
+            this.halfRate = halfRate;
+            this.framesPerPacket = framesPerPacket;
+            this.format = VoicePacket.format(muLaw, halfRate, framesPerPacket);
+        }
+
+        /** Byte de formato de los paquetes con {@link #getFramesPerPacket()} tramas. */
+        public int getFormat() { return format; }
+        public int getFramesPerPacket() { return framesPerPacket; }
+
+        /** Byte de formato de un paquete que sale con menos tramas (por ejemplo, antes de un silencio). */
+        public int formatFor(int frames) {
+            return VoicePacket.format(muLaw, halfRate, frames);
+        }
+
+        /** Kilobits por segundo de la carga de audio, sin cabeceras. */
+        public int payloadKbps(float sampleRate) {
+            return (int) (sampleRate / (halfRate ? 2 : 1) * (muLaw ? 8 : 16) / 1000);
+        }
+
+        @Override
+        public String toString() {
+            return (muLaw ? "μ-law" : "PCM") + " " + (halfRate ? "8" : "16") + " kHz x" + framesPerPacket;
+        }
+    }
+
+    private final int frameMillis;
+    private final float sampleRate;
+    private final boolean adaptive;
+    private final List<Profile> ladder = new ArrayList<>();
+    private final long[] nanosAtLevel;
+    private volatile int level = 0;
+    private long levelSince = System.nanoTime();
+    private int goodReports = 0;
+    private int upgradeReports = UPGRADE_REPORTS;
+    /** Informes desde la última subida, o -1 si ya se dio por buena. */
+    private int sinceUpgrade = -1;
+    private int holdReports = 0;
+    private long reports = 0;
+    private int windowFrames = 0;
+    private double windowLost = 0;
+    private int windowJitter = 0;
+    private long downgrades = 0;
+    private long upgrades = 0;
+
+    /**
+     * @param frameMillis Duración de trama de la llamada
+     * @param sampleRate Frecuencia de muestreo de la llamada
+     */
+    public BitrateController(int frameMillis, float sampleRate) {
+        this.frameMillis = frameMillis;
+        this.sampleRate = sampleRate;
+        this.adaptive = !"false".equalsIgnoreCase(System.getProperty("voicecall.adaptive"));
+        ladder.add(new Profile(false, false, 1));
+        ladder.add(new Profile(true, false, 1));
+        ladder.add(new Profile(true, true, 1));
+        int packed = Math.min(VoicePacket.MAX_FRAMES_PER_PACKET, MAX_PACKET_MILLIS / frameMillis);
+        if (packed > 1) ladder.add(new Profile(true, true, packed));
+        nanosAtLevel = new long[ladder.size()];
+    }
+
+    /** Formato con el que se deben enviar las próximas tramas. */
+    public Profile current() {
+        return ladder.get(level);
+    }
+
+    /** Tramas por paquete más alta de la escalera, para reservar los buffers. */
+    public int maxFramesPerPacket() {
+        return ladder.get(ladder.size() - 1).framesPerPacket;
+    }
+
+    /**
+     * Procesa un informe del receptor.
+     * Las ventanas, esperas y contadores se cuentan en grupos de al menos
+     * {@value #MIN_WINDOW_FRAMES} tramas, no en informes sueltos.
+     * @param loss Fracción de tramas perdidas en el intervalo (0 a 1)
+     * @param jitterMillis Fluctuación estimada por el receptor
+     * @param frames Tramas que observó el receptor en el intervalo
+     * @return true si cambió el formato
+     */
+    public synchronized boolean onFeedback(double loss, int jitterMillis, int frames) {
+        reports++;
+        if (!adaptive || frames <= 0) return false;
+        windowFrames += frames;
+        windowLost += loss * frames;
+        windowJitter = Math.max(windowJitter, jitterMillis);
+        if (windowFrames < MIN_WINDOW_FRAMES) return false;
+        frames = windowFrames;
+        loss = windowLost / windowFrames;
+        jitterMillis = windowJitter;
+        windowFrames = 0;
+        windowLost = 0;
+        windowJitter = 0;
+        if (sinceUpgrade >= 0 && ++sinceUpgrade > HOLD_REPORTS + UPGRADE_REPORTS) {
+            // La última subida se mantuvo
+            sinceUpgrade = -1;
+            upgradeReports = UPGRADE_REPORTS;
+        }
+        if (holdReports > 0) {
+            holdReports--;
+            return false;
+        }
+        if (loss > LOSS_DOWN || jitterMillis > JITTER_DOWN_MILLIS) {
+            goodReports = 0;
+            if (level < ladder.size() - 1) {
+                if (sinceUpgrade >= 0) {
+                    upgradeReports = Math.min(MAX_UPGRADE_REPORTS, upgradeReports * 2);
+                    sinceUpgrade = -1;
+                }
+                downgrades++;
+                change(level + 1, "bajada", loss, jitterMillis, frames);
+                return true;
+            }
+        } else if (loss < LOSS_UP && jitterMillis < JITTER_UP_MILLIS) {
+            if (++goodReports >= upgradeReports && level > 0) {
+                goodReports = 0;
+                sinceUpgrade = 0;
+                upgrades++;
+                change(level - 1, "subida", loss, jitterMillis, frames);
+                return true;
+            }
+        } else {
+            goodReports = 0;
+        }
+        return false;
+    }
+
+    private void change(int newLevel, String decision, double loss, int jitterMillis, int frames) {
+        long now = System.nanoTime();
+        nanosAtLevel[level] += now - levelSince;
+        levelSince = now;
+        Profile from = ladder.get(level);
+        Profile to = ladder.get(newLevel);
+        level = newLevel;
+        holdReports = HOLD_REPORTS;
+        System.out.println(String.format("[BITRATE] %s: %s (%d kbps) -> %s (%d kbps) | pérdida=%.1f%% jitter=%d ms tramas=%d espera=%d",
+            decision, from, from.payloadKbps(sampleRate), to, to.payloadKbps(sampleRate),
+            loss * 100, jitterMillis, frames, upgradeReports));
+    }
+
+    public synchronized long getDowngrades() { return downgrades; }
+    public synchronized long getUpgrades() { return upgrades; }
+    public synchronized long getReports() { return reports; }
+
+    /** Informes recibidos, cambios y segundos pasados en cada formato. */
+    @Override
+    public synchronized String toString() {
+        StringBuilder sb = new StringBuilder("BitrateController{informes=").append(reports)
+            .append(", bajadas=").append(downgrades).append(", subidas=").append(upgrades)
+            .append(", actual=").append(current()).append(" (").append(frameMillis).append(" ms/trama)");
+        long now = System.nanoTime();
+        for (int i = 0; i < ladder.size(); i++) {
+            long nanos = nanosAtLevel[i] + (i == level ? now - levelSince : 0);
+            if (nanos > 0) sb.append(", ").append(ladder.get(i)).append('=').append(String.format("%.1f s", nanos / 1e9));
+        }
+        return sb.append('}').toString();
+    }
+}
@@ -0,0 +1,160 @@
+package chat.client.logic;
+
+import chat.client.model.ChatListItem;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Índice de la lista de chats: orden por actividad y búsqueda por nombre.
+ * <p>
+ * Los chats se guardan en un {@link TreeSet} ordenado por {@link #RECENCY} (el último
+ * mensaje primero), así que mover un chat al llegar un mensaje cuesta O(log n). Para buscar
+ * se indexan los n-gramas de 1 a {@value #MAX_GRAM} letras del nombre visible en
+ * minúsculas: una búsqueda corta es una sola consulta y una larga cruza los trigramas de
+ * la consulta y solo comprueba {@code contains} en los candidatos, en lugar de recorrer
+ * todos los chats en cada tecla.
+ * <p>
+ * La fecha y la vista previa de un chat indexado solo deben cambiarse con
+ * {@link #touch}, que lo saca y lo vuelve a poner en el orden. No es seguro entre hilos: se
+ * usa desde el hilo de la interfaz.
+ */
+public class ChatListIndex {
+    private static final int MAX_GRAM = 3;
+    /** Con más de 1/N de los chats como candidatos, se filtra el orden en vez de ordenar. */
+    private static final int SORT_FRACTION = 16;
+
+    /** Último mensaje más reciente primero; los chats sin mensajes al final, por nombre. */
+    public static final Comparator<ChatListItem> RECENCY = (a, b) -> {
+        LocalDateTime ta = a.getLastTimestamp();
+        LocalDateTime tb = b.getLastTimestamp();
+        if (ta != null && tb != null) {
+            int c = tb.compareTo(ta);
+            if (c != 0) return c;
+        } else if (ta != null) {
+            return -1;
+        } else if (tb != null) {
+            return 1;
+        }
+        int c = a.getDisplayName().compareToIgnoreCase(b.getDisplayName());
+        return c != 0 ? c : a.getUsername().compareTo(b.getUsername());
+    };
+
+    private final TreeSet<ChatListItem> ordered = new TreeSet<>(RECENCY);
+    private final Map<String, ChatListItem> byUsername = new HashMap<>();
+    private final Map<String, Set<ChatListItem>> grams = new HashMap<>();
+
+    /**
+     * Agrega un chat.
+     * @return false si ya había un chat con ese usuario o grupo
+     */
+    public boolean add(ChatListItem item) {
+        if (byUsername.containsKey(item.getUsername())) return false;
+        byUsername.put(item.getUsername(), item);
+        ordered.add(item);
+        for (String gram : gramsOf(item.getDisplayName().toLowerCase())) {
+            grams.computeIfAbsent(gram, k -> new HashSet<>()).add(item);
+        }
+        return true;
+    }
+
+    /**
+     * Quita un chat.
+     * @return false si no estaba en el índice
+     */
+    public boolean remove(ChatListItem item) {
+        if (byUsername.get(item.getUsername()) != item) return false;
+        byUsername.remove(item.getUsername());
+        ordered.remove(item);
+        for (String gram : gramsOf(item.getDisplayName().toLowerCase())) {
+            Set<ChatListItem> set = grams.get(gram);
+            if (set != null && set.remove(item) && set.isEmpty()) grams.remove(gram);
+        }
+        return true;
+    }
+
+    /** Chat de un usuario o grupo, o null. */
+    public ChatListItem get(String username) {
+        return byUsername.get(username);
+    }
+
+    public int size() {
+        return byUsername.size();
+    }
+
+    /**
+     * Registra un mensaje en un chat y lo recoloca en el orden. Un mensaje más antiguo que
+     * el último conocido no cambia nada.
+     * @return true si cambiaron la fecha o la vista previa
+     */
+    public boolean touch(ChatListItem item, LocalDateTime timestamp, String preview) {
+        LocalDateTime last = item.getLastTimestamp();
+        if (timestamp == null || (last != null && timestamp.isBefore(last))) return false;
+        boolean indexed = ordered.remove(item);
+        item.setLastTimestamp(timestamp);
+        item.setLastPreview(preview);
+        if (indexed) ordered.add(item);
+        return true;
+    }
+
+    /** Todos los chats, el más reciente primero. */
+    public List<ChatListItem> ordered() {
+        return new ArrayList<>(ordered);
+    }
+
+    /**
+     * Chats cuyo nombre visible contiene el texto, sin distinguir mayúsculas, el más
+     * reciente primero.
+     */
+    public List<ChatListItem> search(String query) {
+        String q = query.toLowerCase();
+        if (q.isEmpty()) return ordered();
+        Set<ChatListItem> candidates;
+        if (q.length() <= MAX_GRAM) {
+            candidates = grams.getOrDefault(q, Collections.emptySet());
+        } else {
+            // El conjunto más pequeño de los trigramas de la consulta
+            candidates = null;
+            for (int i = 0; i + MAX_GRAM <= q.length(); i++) {
+                Set<ChatListItem> set = grams.getOrDefault(q.substring(i, i + MAX_GRAM), Collections.emptySet());
+                if (candidates == null || set.size() < candidates.size()) candidates = set;
+                if (candidates.isEmpty()) break;
+            }
+        }
+        List<ChatListItem> result = new ArrayList<>();
+        if (candidates.size() > ordered.size() / SORT_FRACTION) {
+            // Muchos candidatos: recorrer el orden sale más barato que ordenarlos
+            for (ChatListItem item : ordered) {
+                if (candidates.contains(item) && matches(item, q)) result.add(item);
+            }
+            return result;
+        }
+        for (ChatListItem item : candidates) {
+            if (matches(item, q)) result.add(item);
+        }
+        result.sort(RECENCY);
+        return result;
+    }
+
+    private static boolean matches(ChatListItem item, String q) {
+        return q.length() <= MAX_GRAM || item.getDisplayName().toLowerCase().contains(q);
+    }
+
+    private static Set<String> gramsOf(String name) {
+        Set<String> result = new HashSet<>();
+        for (int n = 1; n <= MAX_GRAM; n++) {
+            for (int i = 0; i + n <= name.length(); i++) {
+                result.add(name.substring(i, i + n));
+            }
+        }
+        return result;
+    }
+}
@@ -0,0 +1,109 @@
+package chat.client.logic;
+
+import chat.common.model.Group;
+import chat.common.model.Message;
+import chat.common.util.MessageHistoryUtil;
+
+import java.io.File;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/**
+ * Calcula en segundo plano el resumen de cada chat de la lista (último mensaje y si es un
+ * grupo) a partir de los archivos de historial.
+ * <p>
+ * Listar la carpeta es barato y se hace al momento con {@link #listChats}, para mostrar la
+ * lista enseguida con entradas provisionales. Los resúmenes se leen después en paralelo en
+ * un grupo de como mucho {@value #MAX_THREADS} hilos, leyendo solo el último mensaje de
+ * cada archivo ({@link MessageHistoryUtil#readLastMessage}), y se entregan uno a uno a
+ * medida que terminan, en cualquier orden. Un archivo que no se pueda leer da un resumen
+ * vacío, igual que un chat sin mensajes.
+ */
+public class ChatSummaryLoader {
+    private static final int MAX_THREADS = 4;
+
+    /** Resumen de un chat. */
+    public static final class Summary {
+        private final String chatName;
+        private final Group group;
+        private final LocalDateTime lastTimestamp;
+        private final String lastPreview;
+
+        Summary(String chatName, Group group, LocalDateTime lastTimestamp, String lastPreview) {
+            this.chatName = chatName;
+            this.group = group;
+            this.lastTimestamp = lastTimestamp;
+            this.lastPreview = lastPreview;
+        }
+
+        /** Nombre del archivo de historial sin {@code .json}. */
+        public String getChatName() { return chatName; }
+        /** Grupo del chat, o null si es un chat con un usuario. */
+        public Group getGroup() { return group; }
+        /** Fecha del último mensaje, o null si no hay mensajes. */
+        public LocalDateTime getLastTimestamp() { return lastTimestamp; }
+        /** Vista previa del último mensaje, o null si no hay mensajes. */
+        public String getLastPreview() { return lastPreview; }
+    }
+
+    private final File historyDir;
+    private final ExecutorService executor;
+    private final AtomicInteger threadCount = new AtomicInteger();
+
+    /**
+     * @param historyDir Carpeta {@code history} del usuario
+     */
+    public ChatSummaryLoader(File historyDir) {
+        this(historyDir, Math.min(MAX_THREADS, Runtime.getRuntime().availableProcessors()));
+    }
+
+    public ChatSummaryLoader(File historyDir, int threads) {
+        this.historyDir = historyDir;
+        this.executor = Executors.newFixedThreadPool(Math.max(1, threads), r -> {
+            Thread t = new Thread(r, "ChatSummaryLoader-" + threadCount.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    /** Nombres de los chats con historial, sin leer los archivos. */
+    public List<String> listChats() {
+        List<String> chats = new ArrayList<>();
+        String[] files = historyDir.list((dir, name) -> name.endsWith(".json"));
+        if (files == null) return chats;
+        for (String file : files) {
+            chats.add(file.substring(0, file.length() - 5)); // quitar .json
+        }
+        return chats;
+    }
+
+    /**
+     * Encola la lectura del resumen de cada chat.
+     * @param chatNames Chats a resumir
+     * @param onSummary Recibe cada resumen desde un hilo del grupo
+     */
+    public void load(List<String> chatNames, Consumer<Summary> onSummary) {
+        for (String chatName : chatNames) {
+            executor.execute(() -> onSummary.accept(summarize(chatName)));
+        }
+    }
+
+    /** Lee el resumen de un chat en el hilo actual. */
+    public Summary summarize(String chatName) {
+        Message last = MessageHistoryUtil.readLastMessage(new File(historyDir, chatName + ".json").getPath());
+        if (last == null) return new Summary(chatName, null, null, null);
+        Group group = last.getTo() instanceof Group ? (Group) last.getTo() : null;
+        String preview = last.getType() == Message.Type.AUDIO ? "[Mensaje de voz]" : last.getContent();
+        return new Summary(chatName, group, last.getTimestamp(), preview);
+    }
+
+    /** Detiene los hilos; los resúmenes pendientes no se entregan. */
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+}
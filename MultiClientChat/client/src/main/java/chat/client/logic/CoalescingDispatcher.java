@@ -0,0 +1,113 @@
+package chat.client.logic;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/**
+ * Junta los eventos que llegan de otros hilos y los entrega a la interfaz por lotes.
+ * <p>
+ * {@link #post} deja el evento en una cola concurrente y, si no hay ya una entrega
+ * pendiente, programa una sola en el hilo de la interfaz (con {@code Platform.runLater}).
+ * Esa entrega vacía la cola y pasa los eventos juntos al manejador, de modo que una
+ * ráfaga de mensajes en un grupo ocupa una tarea de la cola de JavaFX en lugar de una por
+ * mensaje y la entrada del usuario no queda detrás. Cada entrega toma como mucho
+ * {@value #MAX_BATCH} eventos; si quedan más, programa otra para no acaparar el hilo.
+ * <p>
+ * Lleva la profundidad máxima que alcanzó la cola y el tiempo de las entregas, para ver
+ * si la interfaz va por detrás de la red.
+ *
+ * @param <E> Tipo de evento
+ */
+public class CoalescingDispatcher<E> {
+    private static final int MAX_BATCH = 500;
+    /** Profundidad a partir de la cual se registra cada nuevo máximo. */
+    private static final int LOG_DEPTH = 64;
+
+    private final String name;
+    private final Consumer<Runnable> scheduler;
+    private final Consumer<List<E>> handler;
+    private final Queue<E> queue = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger depth = new AtomicInteger();
+    private final AtomicInteger maxDepth = new AtomicInteger();
+    private final AtomicBoolean scheduled = new AtomicBoolean();
+    // Solo los escribe el hilo de la interfaz
+    private volatile long events = 0;
+    private volatile long drains = 0;
+    private volatile long drainNanos = 0;
+    private volatile long maxDrainNanos = 0;
+
+    /**
+     * @param name Nombre para los registros
+     * @param scheduler Ejecuta una tarea en el hilo de la interfaz (por ejemplo {@code Platform::runLater})
+     * @param handler Recibe cada lote, en orden de llegada, en el hilo de la interfaz
+     */
+    public CoalescingDispatcher(String name, Consumer<Runnable> scheduler, Consumer<List<E>> handler) {
+        this.name = name;
+        this.scheduler = scheduler;
+        this.handler = handler;
+    }
+
+    /** Encola un evento; se puede llamar desde cualquier hilo. */
+    public void post(E event) {
+        queue.add(event);
+        int d = depth.incrementAndGet();
+        int previousMax = maxDepth.getAndAccumulate(d, Math::max);
+        if (d > previousMax && d >= LOG_DEPTH && Integer.bitCount(d) == 1) {
+            // Solo en potencias de dos para no llenar el registro durante una ráfaga
+            System.out.println("[UI] " + name + ": cola en " + d + " eventos");
+        }
+        if (scheduled.compareAndSet(false, true)) {
+            scheduler.accept(this::drain);
+        }
+    }
+
+    private void drain() {
+        // Lo que llegue desde aquí programa otra entrega
+        scheduled.set(false);
+        long start = System.nanoTime();
+        List<E> batch = new ArrayList<>(Math.min(MAX_BATCH, Math.max(1, depth.get())));
+        E event;
+        while (batch.size() < MAX_BATCH && (event = queue.poll()) != null) {
+            batch.add(event);
+            depth.decrementAndGet();
+        }
+        if (batch.isEmpty()) return;
+        try {
+            handler.accept(batch);
+        } catch (RuntimeException e) {
+            System.out.println("[UI] " + name + ": error al procesar " + batch.size() + " eventos: " + e);
+            e.printStackTrace();
+        }
+        long elapsed = System.nanoTime() - start;
+        events += batch.size();
+        drains++;
+        drainNanos += elapsed;
+        if (elapsed > maxDrainNanos) maxDrainNanos = elapsed;
+        if (!queue.isEmpty() && scheduled.compareAndSet(false, true)) {
+            scheduler.accept(this::drain);
+        }
+    }
+
+    /** Eventos en cola ahora mismo. */
+    public int getDepth() { return depth.get(); }
+    /** Máximo de eventos que llegó a tener la cola. */
+    public int getMaxDepth() { return maxDepth.get(); }
+    public long getEvents() { return events; }
+    public long getDrains() { return drains; }
+    /** Tiempo máximo de una entrega, en milisegundos. */
+    public double getMaxDrainMillis() { return maxDrainNanos / 1e6; }
+
+    /** Eventos, entregas, profundidad máxima y tiempos de entrega. */
+    @Override
+    public String toString() {
+        long d = drains;
+        return String.format("%s{eventos=%d, entregas=%d, eventos/entrega=%.1f, cola=%d, colaMax=%d, entregaMedia=%.2f ms, entregaMax=%.2f ms}",
+            name, events, d, d > 0 ? events / (double) d : 0.0, depth.get(), maxDepth.get(),
+            d > 0 ? drainNanos / 1e6 / d : 0.0, maxDrainNanos / 1e6);
+    }
+}
@@ -0,0 +1,102 @@
+package chat.client.logic;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.Consumer;
+import java.util.function.ToIntFunction;
+
+/**
+ * Guarda las últimas conversaciones abiertas para volver a ellas sin leer de nuevo el
+ * historial.
+ * <p>
+ * Es un LRU por orden de acceso con dos límites: número de conversaciones y peso total
+ * (por ejemplo, mensajes en memoria). Como las conversaciones guardadas siguen creciendo
+ * con los mensajes que llegan, el peso se vuelve a sumar en cada {@link #put} y
+ * {@link #get}; con pocas entradas es barato. La conversación usada más recientemente no se
+ * descarta nunca, aunque sola supere el peso máximo.
+ * <p>
+ * No es seguro entre hilos: se usa desde el hilo de la interfaz.
+ *
+ * @param <K> Clave de la conversación
+ * @param <V> Estado guardado de la conversación
+ */
+public class ConversationCache<K, V> {
+    private final LinkedHashMap<K, V> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private final int maxEntries;
+    private final long maxWeight;
+    private final ToIntFunction<V> weigher;
+    private final Consumer<V> onEvict;
+    private long hits = 0;
+    private long misses = 0;
+
+    /**
+     * @param maxEntries Conversaciones guardadas como máximo
+     * @param maxWeight Peso total máximo
+     * @param weigher Peso de una conversación
+     * @param onEvict Se llama con cada conversación descartada (por ejemplo, para cancelar su carga)
+     */
+    public ConversationCache(int maxEntries, long maxWeight, ToIntFunction<V> weigher, Consumer<V> onEvict) {
+        this.maxEntries = maxEntries;
+        this.maxWeight = maxWeight;
+        this.weigher = weigher;
+        this.onEvict = onEvict;
+    }
+
+    /**
+     * Devuelve una conversación guardada y la marca como la más reciente.
+     * @return La conversación, o null si no está
+     */
+    public V get(K key) {
+        V value = entries.get(key);
+        if (value != null) {
+            hits++;
+            trim();
+        } else {
+            misses++;
+        }
+        return value;
+    }
+
+    /** Devuelve una conversación guardada sin cambiar su orden. */
+    public V peek(K key) {
+        for (Map.Entry<K, V> entry : entries.entrySet()) {
+            if (entry.getKey().equals(key)) return entry.getValue();
+        }
+        return null;
+    }
+
+    /** Guarda una conversación como la más reciente. */
+    public void put(K key, V value) {
+        V previous = entries.put(key, value);
+        if (previous != null && previous != value) onEvict.accept(previous);
+        trim();
+    }
+
+    /** Quita una conversación; no llama a la función de descarte. */
+    public V remove(K key) {
+        return entries.remove(key);
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    private void trim() {
+        long weight = 0;
+        for (V value : entries.values()) weight += weigher.applyAsInt(value);
+        Iterator<V> eldest = entries.values().iterator();
+        while (entries.size() > 1 && (entries.size() > maxEntries || weight > maxWeight)) {
+            V evicted = eldest.next();
+            weight -= weigher.applyAsInt(evicted);
+            eldest.remove();
+            onEvict.accept(evicted);
+        }
+    }
+
+    /** Conversaciones, aciertos y fallos. */
+    @Override
+    public String toString() {
+        return "ConversationCache{conversaciones=" + entries.size() + ", aciertos=" + hits + ", fallos=" + misses + "}";
+    }
+}
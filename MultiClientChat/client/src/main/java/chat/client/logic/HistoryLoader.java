@@ -0,0 +1,205 @@
+package chat.client.logic;
+
+import chat.common.model.Message;
+import chat.common.util.MessageHistoryUtil;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Function;
+
+/**
+ * Carga el historial de una conversación en segundo plano y lo entrega por páginas.
+ * <p>
+ * Un único hilo lee la página más reciente desde el final del archivo
+ * ({@link MessageHistoryUtil.ReverseReader}), la convierte con la función indicada y la
+ * entrega; las páginas anteriores se leen y convierten solo cuando se piden con
+ * {@link Session#loadOlder()} (al desplazarse hacia arriba), así abrir un chat largo no
+ * espera a analizar todo su historial. Si el archivo tiene otro formato se lee entero una
+ * vez, mensaje a mensaje. Cada conversación abierta es una {@link Session}: al cambiar de
+ * conversación se cancela la anterior, que no entrega nada más. Como el hilo es uno solo,
+ * cambiar rápido de conversación no pone varias lecturas en paralelo.
+ *
+ * @param <T> Elemento que se muestra por cada mensaje
+ */
+public class HistoryLoader<T> {
+    /** Mensajes por página. */
+    public static final int PAGE_SIZE = 50;
+
+    /** Recibe las páginas; se llama desde el hilo del cargador. */
+    public interface PageListener<T> {
+        /**
+         * @param session Sesión que entrega la página
+         * @param items Elementos en orden cronológico
+         * @param newest true para la primera página (la más reciente)
+         * @param hasOlder true si quedan mensajes anteriores por pedir
+         */
+        void onPage(HistoryLoader<T>.Session session, List<T> items, boolean newest, boolean hasOlder);
+    }
+
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "HistoryLoader");
+        t.setDaemon(true);
+        return t;
+    });
+    private final Function<Message, T> mapper;
+    private final int pageSize;
+    private volatile Runnable beforeRead;
+
+    /**
+     * @param mapper Conversión de cada mensaje al elemento que se muestra (se ejecuta en el
+     *               hilo del cargador)
+     */
+    public HistoryLoader(Function<Message, T> mapper) {
+        this(mapper, PAGE_SIZE);
+    }
+
+    public HistoryLoader(Function<Message, T> mapper, int pageSize) {
+        this.mapper = mapper;
+        this.pageSize = pageSize;
+    }
+
+    /**
+     * Indica algo que se ejecuta en el hilo del cargador antes de leer cada archivo, por
+     * ejemplo esperar a que se escriba lo pendiente.
+     */
+    public void setBeforeRead(Runnable beforeRead) {
+        this.beforeRead = beforeRead;
+    }
+
+    /**
+     * Empieza a cargar un historial. La primera página llega al listener cuando termina la
+     * lectura del archivo.
+     * @param filePath Archivo de historial
+     * @param listener Destino de las páginas
+     * @return Sesión, para pedir páginas anteriores o cancelar
+     */
+    public Session open(String filePath, PageListener<T> listener) {
+        Session session = new Session(filePath, listener);
+        executor.execute(session::loadNewest);
+        return session;
+    }
+
+    /** Detiene el hilo del cargador. */
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    /** Historial de una conversación abierta. */
+    public final class Session {
+        private final String filePath;
+        private final PageListener<T> listener;
+        private volatile boolean cancelled = false;
+        // Solo los usa el hilo del cargador
+        private MessageHistoryUtil.ReverseReader reader;
+        /** Mensajes ya entregados. */
+        private int delivered = 0;
+        /** El archivo no se pudo leer desde el final y se leyó entero en {@link #history}. */
+        private boolean fullRead = false;
+        private List<Message> history = Collections.emptyList();
+        /** Con {@link #fullRead}, índice del mensaje más antiguo ya entregado; también los que quedan por entregar. */
+        private volatile int loadedFrom;
+        /** Hay una página anterior pedida y aún no entregada. */
+        private volatile boolean loadingOlder = false;
+        private volatile boolean hasOlder = false;
+
+        private Session(String filePath, PageListener<T> listener) {
+            this.filePath = filePath;
+            this.listener = listener;
+        }
+
+        /** Abandona la carga; no se entregan más páginas. */
+        public void cancel() {
+            cancelled = true;
+        }
+
+        public boolean isCancelled() {
+            return cancelled;
+        }
+
+        /** Indica si quedan mensajes anteriores a los entregados. */
+        public boolean hasOlder() {
+            return hasOlder;
+        }
+
+        /** Mensajes leídos del archivo que aún no se han entregado. */
+        public int getPendingCount() {
+            return fullRead ? loadedFrom : 0;
+        }
+
+        /**
+         * Pide la página anterior a la más antigua entregada. Si ya hay una pedida o no
+         * quedan mensajes, no hace nada.
+         */
+        public void loadOlder() {
+            if (cancelled || !hasOlder || loadingOlder) return;
+            loadingOlder = true;
+            executor.execute(this::deliverOlder);
+        }
+
+        private void loadNewest() {
+            if (cancelled) return;
+            long start = System.nanoTime();
+            Runnable hook = beforeRead;
+            if (hook != null) hook.run();
+            if (cancelled) return;
+            reader = new MessageHistoryUtil.ReverseReader(filePath);
+            deliver(true);
+            System.out.println("[HISTORY] " + filePath + ": primera página en "
+                + (System.nanoTime() - start) / 1_000_000 + " ms" + (fullRead ? " (leído entero)" : ""));
+        }
+
+        private void deliverOlder() {
+            try {
+                if (!cancelled) deliver(false);
+            } finally {
+                loadingOlder = false;
+            }
+        }
+
+        private void deliver(boolean newest) {
+            List<Message> page = nextPage();
+            if (page == null) return;
+            List<T> items = new ArrayList<>(page.size());
+            for (Message msg : page) {
+                if (cancelled) return;
+                items.add(mapper.apply(msg));
+            }
+            delivered += page.size();
+            // Desde aquí se puede pedir la siguiente, aunque esta aún no se haya mostrado
+            loadingOlder = false;
+            if (!cancelled) listener.onPage(this, items, newest, hasOlder);
+        }
+
+        /**
+         * Lee la página anterior a lo entregado, desde el final del archivo. Si el archivo
+         * tiene otro formato, lo lee entero una vez y sigue por donde iba.
+         * @return Mensajes en orden cronológico, o null si se canceló
+         */
+        private List<Message> nextPage() {
+            if (!fullRead) {
+                try {
+                    List<Message> page = reader.readPage(pageSize);
+                    hasOlder = reader.hasOlder();
+                    return page;
+                } catch (IOException e) {
+                    System.out.println("[HISTORY] " + filePath + ": " + e.getMessage() + ", se lee entero");
+                    List<Message> read = MessageHistoryUtil.readHistory(filePath, this::isCancelled);
+                    if (read == null || cancelled) return null;
+                    fullRead = true;
+                    history = read;
+                    loadedFrom = Math.max(0, read.size() - delivered);
+                }
+            }
+            int from = Math.max(0, loadedFrom - pageSize);
+            List<Message> page = new ArrayList<>(history.subList(from, loadedFrom));
+            loadedFrom = from;
+            hasOlder = from > 0;
+            if (!hasOlder) history = Collections.emptyList();
+            return page;
+        }
+    }
+}
@@ -0,0 +1,357 @@
+package chat.client.logic;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Buffer de fluctuación (jitter buffer) adaptativo para las llamadas de voz.
+ * <p>
+ * El hilo receptor entrega las tramas con {@link #offer} en el orden en que llegan y el
+ * hilo de reproducción pide una trama por intervalo con {@link #poll}. Las tramas se
+ * guardan por número de secuencia, de modo que:
+ * <ul>
+ *   <li>los paquetes desordenados se reproducen en su orden original;</li>
+ *   <li>los que llegan después de su turno se descartan;</li>
+ *   <li>los perdidos se ocultan repitiendo la última trama atenuada y luego con silencio;</li>
+ *   <li>durante los silencios suprimidos por el emisor se genera ruido de confort.</li>
+ * </ul>
+ * Cuando el buffer está vacío y en espera, la primera trama que llega marca el nuevo punto
+ * de reproducción: así cada tramo de voz empieza con la profundidad objetivo y no arrastra
+ * el hueco del silencio anterior.
+ * La profundidad objetivo se ajusta con una estimación de la fluctuación (como en RTP,
+ * RFC 3550) y queda acotada entre un mínimo y un máximo; si se acumulan más tramas de
+ * las necesarias se descartan las más antiguas para que el retardo no crezca.
+ * <p>
+ * Todas las ranuras se reservan al crear el buffer y se reutilizan en anillo, así que
+ * en régimen estable no se crea ningún objeto por paquete.
+ */
+public class JitterBuffer {
+    /** Resultado de cada llamada a {@link #poll}. */
+    public enum Result { PLAYED, CONCEALED, COMFORT_NOISE, SILENCE }
+
+    /** Tramas que se toleran por encima del objetivo antes de descartar. */
+    private static final int DRIFT_MARGIN = 2;
+    /** Pérdidas seguidas que se ocultan repitiendo la última trama. */
+    private static final int MAX_REPEATS = 3;
+
+    private final int frameBytes;
+    private final int frameMillis;
+    private final int samplesPerFrame;
+    private final int minDepth;
+    private final int maxDepth;
+
+    private final byte[][] slots;
+    private final int[] slotSequence;
+    private final boolean[] filled;
+    private final byte[] lastFrame;
+
+    private boolean started = false;
+    private boolean playing = false;
+    private int nextSequence;
+    private int highestSequence;
+    private int buffered = 0;
+    private int lossRun = 0;
+    private int targetDepth;
+
+    private double jitterMillis = 0;
+    private long lastArrivalMillis;
+    private int lastTimestamp;
+    private boolean hasTransit = false;
+    private boolean hasArrival = false;
+    private int lastArrivalSequence;
+    private boolean lastArrivalComfortNoise;
+
+    private long received = 0;
+    private long lost = 0;
+    private long late = 0;
+    private long concealed = 0;
+    private long dropped = 0;
+    private long comfortNoise = 0;
+
+    private boolean comfortNoiseActive = false;
+    private int comfortNoiseLevel = 0;
+    private int noiseSeed = 0x2545F491;
+
+    /**
+     * @param frameBytes Bytes de cada trama PCM
+     * @param frameMillis Duración de cada trama, en milisegundos
+     * @param samplesPerFrame Muestras por trama (avance de la marca de tiempo)
+     * @param minDepth Tramas mínimas acumuladas antes de reproducir
+     * @param maxDepth Tramas máximas que puede llegar a retener el buffer
+     */
+    public JitterBuffer(int frameBytes, int frameMillis, int samplesPerFrame, int minDepth, int maxDepth) {
+        this.frameBytes = frameBytes;
+        this.frameMillis = frameMillis;
+        this.samplesPerFrame = samplesPerFrame;
+        this.minDepth = minDepth;
+        this.maxDepth = maxDepth;
+        int capacity = maxDepth * 2;
+        this.slots = new byte[capacity][frameBytes];
+        this.slotSequence = new int[capacity];
+        this.filled = new boolean[capacity];
+        this.lastFrame = new byte[frameBytes];
+        this.targetDepth = minDepth;
+    }
+
+    /**
+     * Guarda una trama recibida.
+     * @param sequence Número de secuencia del paquete
+     * @param timestamp Marca de tiempo del paquete, en muestras
+     * @param data Buffer con la trama
+     * @param offset Inicio de la trama en {@code data}
+     * @param length Bytes de la trama
+     * @return false si se descartó por tardía o duplicada
+     */
+    public synchronized boolean offer(int sequence, int timestamp, byte[] data, int offset, int length) {
+        received++;
+        updateJitter(timestamp);
+        countArrival(sequence, false);
+        int idx = prepareSlot(sequence);
+        if (idx < 0) return false;
+        int n = Math.min(length, frameBytes);
+        System.arraycopy(data, offset, slots[idx], 0, n);
+        storeSlot(idx, sequence, n);
+        return true;
+    }
+
+    /**
+     * Guarda una trama recibida leyendo de {@code data} desde su posición hasta su límite.
+     * @return false si se descartó por tardía o duplicada
+     */
+    public synchronized boolean offer(int sequence, int timestamp, ByteBuffer data) {
+        received++;
+        updateJitter(timestamp);
+        countArrival(sequence, false);
+        int idx = prepareSlot(sequence);
+        if (idx < 0) return false;
+        int n = Math.min(data.remaining(), frameBytes);
+        data.get(slots[idx], 0, n);
+        storeSlot(idx, sequence, n);
+        return true;
+    }
+
+    /**
+     * Guarda varias tramas consecutivas que llegaron en un mismo paquete. La fluctuación se
+     * mide solo con la primera, ya que las demás llegan a la vez por construcción.
+     * @param sequence Número de secuencia de la primera trama
+     * @param timestamp Marca de tiempo de la primera trama
+     * @param data Tramas PCM seguidas, de {@code frameBytes} cada una
+     * @param frames Cantidad de tramas
+     * @return Tramas guardadas
+     */
+    public synchronized int offerFrames(int sequence, int timestamp, byte[] data, int offset, int frames) {
+        updateJitter(timestamp);
+        int stored = 0;
+        for (int i = 0; i < frames; i++) {
+            received++;
+            countArrival(sequence + i, false);
+            int idx = prepareSlot(sequence + i);
+            if (idx < 0) continue;
+            System.arraycopy(data, offset + i * frameBytes, slots[idx], 0, frameBytes);
+            storeSlot(idx, sequence + i, frameBytes);
+            stored++;
+        }
+        return stored;
+    }
+
+    /** Devuelve la ranura donde guardar la trama, o -1 si se descarta. */
+    private int prepareSlot(int sequence) {
+        if (!started) {
+            started = true;
+            nextSequence = sequence;
+            highestSequence = sequence;
+        }
+        if (!playing && buffered == 0 && sequence - nextSequence > 0) {
+            // Empieza un tramo de voz después de un silencio o de un corte
+            nextSequence = sequence;
+            highestSequence = sequence;
+        }
+        if (sequence - nextSequence < 0) {
+            late++;
+            return -1;
+        }
+        if (sequence - nextSequence >= slots.length) {
+            // Salto demasiado grande (p. ej. tras un corte largo): se resincroniza
+            clear();
+            nextSequence = sequence;
+            highestSequence = sequence;
+            playing = false;
+        }
+        int idx = index(sequence);
+        if (filled[idx] && slotSequence[idx] == sequence) {
+            return -1;
+        }
+        return idx;
+    }
+
+    private void storeSlot(int idx, int sequence, int length) {
+        if (length < frameBytes) Arrays.fill(slots[idx], length, frameBytes, (byte) 0);
+        slotSequence[idx] = sequence;
+        filled[idx] = true;
+        buffered++;
+        if (sequence - highestSequence > 0) highestSequence = sequence;
+    }
+
+    /**
+     * Registra un paquete de ruido de confort: el emisor dejó de enviar voz.
+     * @param sequence Trama a partir de la cual hay silencio
+     * @param level Nivel RMS del ruido de fondo del emisor
+     */
+    public synchronized void offerComfortNoise(int sequence, int level) {
+        comfortNoise++;
+        countArrival(sequence, true);
+        if (started && sequence - highestSequence < 0) return; // llegó después de la voz siguiente
+        comfortNoiseActive = true;
+        comfortNoiseLevel = level;
+    }
+
+    /**
+     * Entrega la siguiente trama a reproducir.
+     * @param out Destino de {@code frameBytes} bytes PCM
+     * @return Si la trama es real, ocultada o silencio (buffer llenándose)
+     */
+    public synchronized Result poll(byte[] out) {
+        if (!playing) {
+            if (!started || depth() < targetDepth) {
+                return fillIdle(out);
+            }
+            playing = true;
+        }
+        // Mantiene el retardo acotado: si sobran tramas se descarta la más antigua
+        if (depth() > targetDepth + DRIFT_MARGIN) {
+            int idx = index(nextSequence);
+            if (filled[idx] && slotSequence[idx] == nextSequence) {
+                filled[idx] = false;
+                buffered--;
+            }
+            nextSequence++;
+            dropped++;
+        }
+        int idx = index(nextSequence);
+        if (filled[idx] && slotSequence[idx] == nextSequence) {
+            System.arraycopy(slots[idx], 0, out, 0, frameBytes);
+            System.arraycopy(slots[idx], 0, lastFrame, 0, frameBytes);
+            filled[idx] = false;
+            buffered--;
+            nextSequence++;
+            lossRun = 0;
+            comfortNoiseActive = false;
+            return Result.PLAYED;
+        }
+        if (buffered == 0) {
+            // No llegó nada más: se vuelve a acumular antes de seguir reproduciendo
+            playing = false;
+            return fillIdle(out);
+        }
+        conceal(out);
+        nextSequence++;
+        concealed++;
+        return Result.CONCEALED;
+    }
+
+    /** Rellena la trama cuando no hay voz: ruido de confort si el emisor lo indicó, o silencio. */
+    private Result fillIdle(byte[] out) {
+        if (!comfortNoiseActive || comfortNoiseLevel == 0) {
+            Arrays.fill(out, 0, frameBytes, (byte) 0);
+            return Result.SILENCE;
+        }
+        // Ruido blanco uniforme: amplitud = nivel RMS * raíz de 3
+        int amplitude = (int) Math.min(Short.MAX_VALUE, comfortNoiseLevel * 1.732);
+        for (int i = 0; i + 1 < frameBytes; i += 2) {
+            noiseSeed ^= noiseSeed << 13;
+            noiseSeed ^= noiseSeed >>> 17;
+            noiseSeed ^= noiseSeed << 5;
+            int sample = (int) (((long) noiseSeed * amplitude) >> 31);
+            out[i] = (byte) sample;
+            out[i + 1] = (byte) (sample >> 8);
+        }
+        return Result.COMFORT_NOISE;
+    }
+
+    /** Repite la última trama, atenuándola a la mitad en cada pérdida seguida. */
+    private void conceal(byte[] out) {
+        lossRun++;
+        if (lossRun > MAX_REPEATS) {
+            Arrays.fill(out, 0, frameBytes, (byte) 0);
+            return;
+        }
+        for (int i = 0; i + 1 < frameBytes; i += 2) {
+            int sample = (short) ((lastFrame[i] & 0xff) | (lastFrame[i + 1] << 8));
+            sample >>= lossRun;
+            out[i] = (byte) sample;
+            out[i + 1] = (byte) (sample >> 8);
+        }
+    }
+
+    /**
+     * Estima las tramas perdidas por el camino a partir de los huecos en la secuencia, como
+     * RTCP. Solo cuenta los huecos entre dos tramas de voz: alrededor de un paquete de ruido
+     * de confort los números que faltan son silencios que el emisor no envió, y si se pierde
+     * uno de esos paquetes el hueco sería un silencio entero. Los huecos más largos que el
+     * buffer se toman también como silencio, y una trama que llega desordenada descuenta su
+     * pérdida.
+     */
+    private void countArrival(int sequence, boolean comfortNoisePacket) {
+        if (hasArrival) {
+            int gap = sequence - lastArrivalSequence - 1;
+            if (gap < 0) {
+                if (lost > 0) lost--;
+                return;
+            }
+            if (gap > 0 && !comfortNoisePacket && !lastArrivalComfortNoise && gap < slots.length) {
+                lost += gap;
+            }
+        }
+        hasArrival = true;
+        lastArrivalSequence = sequence;
+        lastArrivalComfortNoise = comfortNoisePacket;
+    }
+
+    /**
+     * Estima la fluctuación a partir de la diferencia entre el tiempo de llegada y la
+     * marca de tiempo del emisor, y recalcula la profundidad objetivo.
+     */
+    private void updateJitter(int timestamp) {
+        long now = System.nanoTime() / 1_000_000;
+        if (hasTransit) {
+            double sentDelta = (timestamp - lastTimestamp) * (double) frameMillis / samplesPerFrame;
+            double d = Math.abs((now - lastArrivalMillis) - sentDelta);
+            jitterMillis += (d - jitterMillis) / 16.0;
+            int depth = (int) Math.ceil(3 * jitterMillis / frameMillis) + 1;
+            targetDepth = Math.max(minDepth, Math.min(maxDepth, depth));
+        }
+        hasTransit = true;
+        lastArrivalMillis = now;
+        lastTimestamp = timestamp;
+    }
+
+    /** Tramas entre la próxima a reproducir y la más reciente recibida. */
+    private int depth() {
+        return buffered == 0 ? 0 : highestSequence - nextSequence + 1;
+    }
+
+    private int index(int sequence) {
+        return Math.floorMod(sequence, slots.length);
+    }
+
+    private void clear() {
+        Arrays.fill(filled, false);
+        buffered = 0;
+    }
+
+    public synchronized int getTargetDepth() { return targetDepth; }
+    public synchronized double getJitterMillis() { return jitterMillis; }
+    public synchronized long getReceived() { return received; }
+    public synchronized long getLost() { return lost; }
+    public synchronized long getLate() { return late; }
+    public synchronized long getConcealed() { return concealed; }
+    public synchronized long getDropped() { return dropped; }
+    public synchronized long getComfortNoise() { return comfortNoise; }
+
+    @Override
+    public synchronized String toString() {
+        return "JitterBuffer{recibidas=" + received + ", perdidas=" + lost + ", tardías=" + late + ", ocultadas=" + concealed
+            + ", descartadas=" + dropped + ", ruido de confort=" + comfortNoise + ", objetivo=" + targetDepth + " tramas, jitter="
+            + String.format("%.1f", jitterMillis) + " ms}";
+    }
+}
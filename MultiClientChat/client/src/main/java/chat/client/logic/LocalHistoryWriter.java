@@ -0,0 +1,151 @@
+package chat.client.logic;
+
+import chat.common.model.Message;
+import chat.common.util.MessageHistoryUtil;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Escribe en segundo plano lo que el cliente guarda en disco: los archivos de audio
+ * recibidos completos y los mensajes que se agregan al historial local.
+ * <p>
+ * La interfaz solo encola y sigue mostrando el mensaje desde memoria. Un único hilo saca
+ * todo lo pendiente de una vez, escribe los audios y agrega los mensajes de cada historial
+ * con una sola escritura por archivo ({@link MessageHistoryUtil#appendMessagesToHistory}),
+ * de modo que una ráfaga de notas de voz no reescribe el historial una vez por nota.
+ * <p>
+ * Quien vaya a leer un historial puede llamar a {@link #awaitPending()} para no perder lo
+ * que aún esté en la cola.
+ */
+public class LocalHistoryWriter {
+    private static final long AWAIT_TIMEOUT_MS = 2000;
+
+    /** Una tarea de la cola: un audio, un mensaje o una marca de espera. */
+    private static final class Task {
+        final String historyPath;
+        final Message message;
+        final File audioFile;
+        final byte[] audioData;
+        final CountDownLatch marker;
+
+        Task(String historyPath, Message message, File audioFile, byte[] audioData, CountDownLatch marker) {
+            this.historyPath = historyPath;
+            this.message = message;
+            this.audioFile = audioFile;
+            this.audioData = audioData;
+            this.marker = marker;
+        }
+    }
+
+    private final BlockingQueue<Task> queue = new LinkedBlockingQueue<>();
+    private volatile long written = 0;
+    private volatile long batches = 0;
+
+    public LocalHistoryWriter() {
+        Thread writer = new Thread(this::writeLoop, "LocalHistoryWriter");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    /**
+     * Encola un mensaje para agregarlo al historial.
+     * @param historyPath Archivo de historial de la conversación
+     * @param message Mensaje (los de audio se guardan sin sus datos)
+     */
+    public void append(String historyPath, Message message) {
+        queue.add(new Task(historyPath, message, null, null, null));
+    }
+
+    /**
+     * Encola la escritura de un archivo de audio recibido completo. Si el archivo ya existe
+     * no se toca.
+     */
+    public void saveAudio(File audioFile, byte[] data) {
+        queue.add(new Task(null, null, audioFile, data, null));
+    }
+
+    /**
+     * Espera a que se escriba todo lo encolado hasta ahora, como mucho
+     * {@value #AWAIT_TIMEOUT_MS} ms. No debe llamarse desde el hilo de la interfaz.
+     */
+    public void awaitPending() {
+        CountDownLatch marker = new CountDownLatch(1);
+        queue.add(new Task(null, null, null, null, marker));
+        try {
+            marker.await(AWAIT_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void writeLoop() {
+        List<Task> batch = new ArrayList<>();
+        while (true) {
+            try {
+                batch.add(queue.take());
+            } catch (InterruptedException e) {
+                return;
+            }
+            queue.drainTo(batch);
+            write(batch);
+            batch.clear();
+        }
+    }
+
+    private void write(List<Task> batch) {
+        try {
+            // Los mensajes de cada historial, en orden, para una sola escritura por archivo
+            Map<String, List<Message>> appends = new LinkedHashMap<>();
+            for (Task task : batch) {
+                if (task.audioFile != null) {
+                    writeAudio(task.audioFile, task.audioData);
+                } else if (task.marker == null) {
+                    appends.computeIfAbsent(task.historyPath, k -> new ArrayList<>()).add(task.message);
+                }
+            }
+            for (Map.Entry<String, List<Message>> entry : appends.entrySet()) {
+                try {
+                    MessageHistoryUtil.appendMessagesToHistory(entry.getKey(), entry.getValue());
+                    written += entry.getValue().size();
+                } catch (IOException | RuntimeException e) {
+                    System.err.println("[ERROR] No se pudo guardar en el historial " + entry.getKey() + ": " + e);
+                }
+            }
+            batches++;
+        } catch (RuntimeException e) {
+            // Un fallo inesperado pierde esta tanda, pero no el hilo escritor
+            System.err.println("[ERROR] No se pudo escribir una tanda del historial: " + e);
+        } finally {
+            // Quien espera en awaitPending no debe quedarse colgado por un error
+            for (Task task : batch) {
+                if (task.marker != null) task.marker.countDown();
+            }
+        }
+    }
+
+    private static void writeAudio(File audioFile, byte[] data) {
+        if (audioFile.exists()) return;
+        audioFile.getParentFile().mkdirs();
+        try (FileOutputStream fos = new FileOutputStream(audioFile)) {
+            fos.write(data);
+        } catch (IOException | RuntimeException e) {
+            System.err.println("[ERROR] No se pudo guardar el archivo de audio recibido: " + e);
+        }
+    }
+
+    /** Mensajes guardados y escrituras hechas. */
+    @Override
+    public String toString() {
+        return "LocalHistoryWriter{mensajes=" + written + ", tandas=" + batches + ", pendientes=" + queue.size() + "}";
+    }
+}
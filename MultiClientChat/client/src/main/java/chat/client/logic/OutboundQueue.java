@@ -0,0 +1,285 @@
+package chat.client.logic;
+
+import chat.common.model.CallSignal;
+
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamException;
+import java.io.Serializable;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.BlockingDeque;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/**
+ * Cola de salida hacia el servidor con un hilo escritor propio.
+ * <p>
+ * {@link #send} solo deja el objeto en la cola y vuelve enseguida, de modo que los botones
+ * de la interfaz no esperan al socket ni a la serialización de un audio grande. El hilo
+ * escritor es el único que usa el {@link ObjectOutputStream}: escribe los objetos en orden
+ * de llegada y hace un solo {@code flush} cuando la cola se queda vacía (o cada
+ * {@value #MAX_UNFLUSHED} objetos), así una ráfaga de fragmentos o confirmaciones sale en
+ * pocos paquetes. Tras cada objeto hace {@code reset} para que el servidor no retenga lo
+ * ya recibido.
+ * <p>
+ * La cola sobrevive a la conexión. Si la escritura falla, vuelve al principio de la cola
+ * lo escrito desde el último {@code flush} y también lo enviado en los últimos
+ * {@value #RESEND_WINDOW_MS} ms: un {@code flush} correcto solo indica que los datos
+ * llegaron al búfer del sistema, y el corte suele notarse unos envíos después. El flujo se
+ * suelta y se avisa con la función indicada al crearla; lo que se envíe mientras tanto se
+ * acumula y sale en orden al conectar otro flujo con {@link #attach}. Reenviar algo que sí
+ * llegó es seguro: el servidor descarta los mensajes repetidos por su {@code messageId} y
+ * las confirmaciones son acumulativas. Las señales de llamada no se repiten, porque fuera
+ * de tiempo ya no sirven: si su escritura falla se dan por fallidas. Fuera de eso, solo
+ * {@link #stop()} da por fallidos los envíos pendientes.
+ */
+public class OutboundQueue {
+    private static final int MAX_UNFLUSHED = 32;
+    private static final long RESEND_WINDOW_MS = 10_000;
+    private static final int MAX_RESEND = 1000;
+
+    /**
+     * Resultado de un envío, una sola vez por objeto aunque luego se repita tras una
+     * reconexión. Se llama desde el hilo escritor (o desde quien envía, si la cola ya está cerrada).
+     */
+    public interface SendCallback {
+        /** El objeto se escribió en el socket. */
+        void onSent();
+
+        /** El objeto no se pudo enviar. */
+        void onFailed(Exception error);
+    }
+
+    /**
+     * Envío de varios objetos que se repite entero si la conexión se corta a medias (por
+     * ejemplo, una nota de voz: cabecera y fragmentos). Se escribe desde el hilo escritor.
+     */
+    public interface Transfer {
+        void writeTo(ObjectOutputStream out) throws IOException;
+    }
+
+    private static final class Pending {
+        final Object payload;
+        final SendCallback callback;
+        long flushedAt;
+        boolean reported;
+
+        Pending(Object payload, SendCallback callback) {
+            this.payload = payload;
+            this.callback = callback;
+        }
+    }
+
+    private final Consumer<Exception> onBroken;
+    private final BlockingDeque<Pending> queue = new LinkedBlockingDeque<>();
+    private final AtomicInteger maxPending = new AtomicInteger();
+    private final Object streamLock = new Object();
+    private ObjectOutputStream out;
+    private volatile boolean closed = false;
+    private volatile long sent = 0;
+    private volatile long flushes = 0;
+    private volatile long requeued = 0;
+    private Thread writer;
+
+    /**
+     * @param onBroken Se llama desde el hilo escritor cuando falla la escritura en el flujo
+     *                 conectado (no si ya se había soltado con {@link #detach()})
+     */
+    public OutboundQueue(Consumer<Exception> onBroken) {
+        this.onBroken = onBroken;
+    }
+
+    /** Inicia el hilo escritor. Hasta que haya un flujo conectado, los envíos esperan en la cola. */
+    public synchronized void start() {
+        if (writer != null) return;
+        writer = new Thread(this::writeLoop, "OutboundQueue");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    /**
+     * Conecta el flujo hacia el servidor; a partir de aquí solo lo usa esta cola. Lo que se
+     * acumuló sin conexión sale primero, en orden.
+     */
+    public void attach(ObjectOutputStream stream) {
+        synchronized (streamLock) {
+            out = stream;
+            streamLock.notifyAll();
+        }
+    }
+
+    /** Suelta el flujo actual; los envíos se acumulan hasta el próximo {@link #attach}. */
+    public void detach() {
+        synchronized (streamLock) {
+            out = null;
+        }
+    }
+
+    /**
+     * Detiene el hilo escritor. Lo que quede en la cola se da por fallido.
+     */
+    public synchronized void stop() {
+        closed = true;
+        if (writer != null) {
+            writer.interrupt();
+            writer = null;
+        }
+        failPending(new IOException("Conexión cerrada"));
+    }
+
+    /** Encola un objeto sin esperar el resultado. */
+    public void send(Serializable payload) {
+        send(payload, null);
+    }
+
+    /**
+     * Encola un objeto para el servidor; vuelve sin esperar al socket.
+     * @param payload Objeto a enviar
+     * @param callback Recibe el resultado, o null
+     */
+    public void send(Serializable payload, SendCallback callback) {
+        enqueue(payload, callback);
+    }
+
+    /**
+     * Encola un envío de varios objetos que se repite entero tras una reconexión.
+     * @param transfer Envío
+     * @param callback Recibe el resultado, o null
+     */
+    public void send(Transfer transfer, SendCallback callback) {
+        enqueue(transfer, callback);
+    }
+
+    private void enqueue(Object payload, SendCallback callback) {
+        if (closed) {
+            if (callback != null) callback.onFailed(new IOException("Conexión cerrada"));
+            return;
+        }
+        queue.add(new Pending(payload, callback));
+        maxPending.accumulateAndGet(queue.size(), Math::max);
+        // Si se cerró mientras tanto, el escritor ya no lo va a sacar
+        if (closed) failPending(new IOException("Conexión cerrada"));
+    }
+
+    /** Objetos esperando al hilo escritor. */
+    public int getPending() { return queue.size(); }
+    /** Máximo de objetos que llegó a tener la cola. */
+    public int getMaxPending() { return maxPending.get(); }
+    public boolean isClosed() { return closed; }
+
+    private void writeLoop() {
+        List<Pending> unflushed = new ArrayList<>(MAX_UNFLUSHED);
+        // Enviado hace poco, por si la conexión ya estaba cortada; el más antiguo primero
+        Deque<Pending> recent = new ArrayDeque<>();
+        try {
+            while (!closed) {
+                ObjectOutputStream stream = awaitStream();
+                Pending next = queue.take();
+                try {
+                    while (next != null) {
+                        unflushed.add(next);
+                        if (next.payload instanceof Transfer) {
+                            ((Transfer) next.payload).writeTo(stream);
+                        } else {
+                            stream.writeObject(next.payload);
+                        }
+                        stream.reset();
+                        if (unflushed.size() >= MAX_UNFLUSHED) break;
+                        next = queue.poll();
+                    }
+                    stream.flush();
+                } catch (IOException | RuntimeException e) {
+                    if (e instanceof ObjectStreamException && next != null) {
+                        // El problema es el objeto (no serializable), no la conexión: no se reintenta
+                        unflushed.remove(next);
+                        report(next, e);
+                    }
+                    // No se sabe qué llegó: vuelve todo a la cabeza de la cola, en orden, salvo
+                    // las señales de llamada, que se dan por fallidas
+                    for (int i = unflushed.size() - 1; i >= 0; i--) {
+                        Pending p = unflushed.get(i);
+                        if (p.payload instanceof CallSignal) {
+                            report(p, e);
+                        } else {
+                            queue.addFirst(p);
+                            requeued++;
+                        }
+                    }
+                    unflushed.clear();
+                    long cutoff = System.currentTimeMillis() - RESEND_WINDOW_MS;
+                    for (Iterator<Pending> it = recent.descendingIterator(); it.hasNext(); ) {
+                        Pending p = it.next();
+                        if (p.flushedAt < cutoff) break;
+                        queue.addFirst(p);
+                        requeued++;
+                    }
+                    recent.clear();
+                    boolean attached;
+                    synchronized (streamLock) {
+                        attached = out == stream;
+                        if (attached) out = null;
+                    }
+                    System.out.println("[ERROR] Falló el envío al servidor: " + e.getMessage() + " (" + queue.size() + " en cola)");
+                    // Si ya se soltó (la conexión se dio por perdida en otro lado), no se avisa otra vez
+                    if (attached) onBroken.accept(e);
+                    continue;
+                }
+                flushes++;
+                sent += unflushed.size();
+                long now = System.currentTimeMillis();
+                for (Pending p : unflushed) {
+                    report(p, null);
+                    if (!(p.payload instanceof CallSignal)) {
+                        p.flushedAt = now;
+                        recent.addLast(p);
+                    }
+                }
+                unflushed.clear();
+                while (!recent.isEmpty() && (recent.size() > MAX_RESEND
+                        || recent.peekFirst().flushedAt < now - RESEND_WINDOW_MS)) {
+                    recent.pollFirst();
+                }
+            }
+        } catch (InterruptedException e) {
+            // stop()
+        }
+    }
+
+    private ObjectOutputStream awaitStream() throws InterruptedException {
+        synchronized (streamLock) {
+            while (out == null) streamLock.wait();
+            return out;
+        }
+    }
+
+    private void failPending(Exception error) {
+        Pending p;
+        while ((p = queue.poll()) != null) {
+            report(p, error);
+        }
+    }
+
+    /** Avisa el resultado; un error del callback no debe romper la cola. */
+    private static void report(Pending p, Exception error) {
+        if (p.callback == null || p.reported) return;
+        p.reported = true;
+        try {
+            if (error == null) p.callback.onSent();
+            else p.callback.onFailed(error);
+        } catch (RuntimeException e) {
+            System.out.println("[ERROR] Error en el aviso de envío: " + e.getMessage());
+        }
+    }
+
+    /** Enviados, flushes, reenvíos y cola máxima. */
+    @Override
+    public String toString() {
+        return "OutboundQueue{enviados=" + sent + ", flushes=" + flushes + ", reencolados=" + requeued
+            + ", pendientes=" + queue.size() + ", colaMax=" + maxPending.get() + "}";
+    }
+}
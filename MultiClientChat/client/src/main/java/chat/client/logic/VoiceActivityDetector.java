@@ -0,0 +1,69 @@
+package chat.client.logic;
+
+/**
+ * Detector de actividad de voz (VAD) por energía para las llamadas.
+ * <p>
+ * Calcula el nivel RMS de cada trama PCM de 16 bits y lo compara con un nivel de ruido de
+ * fondo que se adapta solo: baja rápido cuando el ambiente se calma y sube despacio, de
+ * modo que un ruido constante (ventilador, tráfico) no se tome como voz. Tras la última
+ * trama con voz se siguen marcando tramas como voz durante un tiempo de gracia
+ * (hangover) para no cortar los finales de palabra.
+ */
+public class VoiceActivityDetector {
+    /** Nivel RMS mínimo para considerar voz (~ -44 dBFS). */
+    private static final double MIN_SPEECH_RMS = 200;
+    /** La voz debe superar el ruido de fondo en este factor (~ +9.5 dB). */
+    private static final double SPEECH_FACTOR = 3.0;
+    private static final int HANGOVER_MILLIS = 200;
+
+    private final int hangoverFrames;
+    private double noiseFloor = 100;
+    private double lastRms = 0;
+    private int hangover = 0;
+
+    /**
+     * @param frameMillis Duración de cada trama analizada
+     */
+    public VoiceActivityDetector(int frameMillis) {
+        this.hangoverFrames = Math.max(1, HANGOVER_MILLIS / frameMillis);
+    }
+
+    /**
+     * Analiza una trama PCM 16 bits little-endian.
+     * @return true si la trama debe enviarse como voz
+     */
+    public boolean isSpeech(byte[] pcm, int offset, int length) {
+        int samples = length / 2;
+        if (samples == 0) return false;
+        double sum = 0;
+        for (int i = 0; i < samples; i++) {
+            int p = offset + i * 2;
+            int sample = (short) ((pcm[p] & 0xff) | (pcm[p + 1] << 8));
+            sum += (double) sample * sample;
+        }
+        lastRms = Math.sqrt(sum / samples);
+
+        boolean active = lastRms > Math.max(MIN_SPEECH_RMS, noiseFloor * SPEECH_FACTOR);
+        if (lastRms < noiseFloor) {
+            noiseFloor = noiseFloor * 0.8 + lastRms * 0.2;
+        } else if (!active) {
+            noiseFloor = noiseFloor * 0.98 + lastRms * 0.02;
+        } else {
+            noiseFloor *= 1.0005;
+        }
+        if (active) {
+            hangover = hangoverFrames;
+            return true;
+        }
+        if (hangover > 0) {
+            hangover--;
+            return true;
+        }
+        return false;
+    }
+
+    /** Nivel RMS de la última trama analizada, para el ruido de confort. */
+    public int getLevel() {
+        return (int) Math.min(Short.MAX_VALUE, Math.round(lastRms));
+    }
+}
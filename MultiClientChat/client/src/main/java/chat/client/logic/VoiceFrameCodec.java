@@ -0,0 +1,98 @@
+package chat.client.logic;
+
+import chat.common.util.MuLawCodec;
+import chat.common.util.VoicePacket;
+
+/**
+ * Codifica y decodifica las tramas de las llamadas según el byte de formato de
+ * {@link VoicePacket}.
+ * <p>
+ * Las tramas de entrada y salida son siempre PCM 16 bits little-endian a la frecuencia de
+ * la llamada. A media frecuencia se promedian las muestras de dos en dos (un filtro paso
+ * bajo simple antes de diezmar) y al decodificar se interpola linealmente. En μ-law cada
+ * muestra ocupa un byte. Trabaja sobre arrays del llamante y no reserva memoria.
+ */
+public final class VoiceFrameCodec {
+    private VoiceFrameCodec() {}
+
+    /**
+     * Bytes que ocupa una trama PCM de {@code pcmBytes} una vez codificada.
+     */
+    public static int encodedBytes(int format, int pcmBytes) {
+        int samples = pcmBytes / 2;
+        if ((format & VoicePacket.FORMAT_HALF_RATE) != 0) samples = (samples + 1) / 2;
+        return (format & VoicePacket.FORMAT_MULAW) != 0 ? samples : samples * 2;
+    }
+
+    /**
+     * Codifica una trama.
+     * @param format Byte de formato (se ignoran las tramas por paquete)
+     * @param pcm Trama PCM 16 bits little-endian
+     * @param offset Inicio de la trama
+     * @param length Bytes de la trama
+     * @param out Destino
+     * @param outOffset Posición en {@code out}
+     * @return Bytes escritos
+     */
+    public static int encode(int format, byte[] pcm, int offset, int length, byte[] out, int outOffset) {
+        boolean muLaw = (format & VoicePacket.FORMAT_MULAW) != 0;
+        int step = (format & VoicePacket.FORMAT_HALF_RATE) != 0 ? 2 : 1;
+        int samples = length / 2;
+        int o = outOffset;
+        for (int i = 0; i < samples; i += step) {
+            int sample = sampleAt(pcm, offset, i);
+            if (step == 2 && i + 1 < samples) {
+                sample = (sample + sampleAt(pcm, offset, i + 1)) >> 1;
+            }
+            if (muLaw) {
+                out[o++] = MuLawCodec.encode((short) sample);
+            } else {
+                out[o++] = (byte) sample;
+                out[o++] = (byte) (sample >> 8);
+            }
+        }
+        return o - outOffset;
+    }
+
+    /**
+     * Decodifica una trama a PCM 16 bits little-endian a la frecuencia de la llamada.
+     * @param format Byte de formato (se ignoran las tramas por paquete)
+     * @param in Trama codificada
+     * @param offset Inicio de la trama
+     * @param length Bytes de la trama
+     * @param pcm Destino
+     * @param pcmOffset Posición en {@code pcm}
+     * @return Bytes PCM escritos
+     */
+    public static int decode(int format, byte[] in, int offset, int length, byte[] pcm, int pcmOffset) {
+        boolean muLaw = (format & VoicePacket.FORMAT_MULAW) != 0;
+        boolean halfRate = (format & VoicePacket.FORMAT_HALF_RATE) != 0;
+        int samples = muLaw ? length : length / 2;
+        int o = pcmOffset;
+        int sample = samples > 0 ? codedAt(in, offset, 0, muLaw) : 0;
+        for (int i = 0; i < samples; i++) {
+            o = put(pcm, o, sample);
+            int next = i + 1 < samples ? codedAt(in, offset, i + 1, muLaw) : sample;
+            if (halfRate) {
+                o = put(pcm, o, (sample + next) >> 1);
+            }
+            sample = next;
+        }
+        return o - pcmOffset;
+    }
+
+    private static int sampleAt(byte[] pcm, int offset, int index) {
+        int p = offset + index * 2;
+        return (short) ((pcm[p] & 0xff) | (pcm[p + 1] << 8));
+    }
+
+    private static int codedAt(byte[] in, int offset, int index, boolean muLaw) {
+        return muLaw ? MuLawCodec.decode(in[offset + index]) : sampleAt(in, offset, index);
+    }
+
+    private static int put(byte[] pcm, int o, int sample) {
+        pcm[o] = (byte) sample;
+        pcm[o + 1] = (byte) (sample >> 8);
+        return o + 2;
+    }
+}
@@ -0,0 +1,145 @@
+package chat.client.logic;
+
+import chat.common.model.AudioChunk;
+import chat.common.model.Message;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Transferencia de notas de voz por fragmentos en el cliente.
+ * <p>
+ * Al enviar, lee el archivo grabado en bloques de {@link AudioChunk#CHUNK_SIZE} bytes
+ * después de la cabecera. Al recibir, escribe cada fragmento en un archivo temporal
+ * que se renombra al llegar el último, para que nunca se reproduzca una nota a medias.
+ */
+public class VoiceNoteTransfer {
+    private final File userDir;
+    private final Map<String, Incoming> incoming = new ConcurrentHashMap<>();
+
+    /**
+     * @param userDir Carpeta de datos del usuario actual (contiene history/audio)
+     */
+    public VoiceNoteTransfer(File userDir) {
+        this.userDir = userDir;
+    }
+
+    /**
+     * Prepara el envío de una nota de voz: primero la cabecera y luego el archivo por
+     * fragmentos, leído al escribirse. Va a la cola de salida como un solo envío, así que si
+     * la conexión se corta a medias se repite entero tras reconectar (el servidor descarta
+     * la subida incompleta al perder la conexión).
+     * @param header Mensaje de audio sin datos, con {@code audioSize} y {@code audioFilePath}
+     * @param file Archivo de audio a enviar
+     */
+    public static OutboundQueue.Transfer upload(Message header, File file) {
+        return out -> writeUpload(header, file, out);
+    }
+
+    private static void writeUpload(Message header, File file, ObjectOutputStream out) throws IOException {
+        out.writeObject(header);
+        out.reset();
+        try (InputStream in = new FileInputStream(file)) {
+            byte[] buffer = new byte[AudioChunk.CHUNK_SIZE];
+            long remaining = header.getAudioSize();
+            int index = 0;
+            while (remaining > 0) {
+                int read = in.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+                if (read < 0) throw new IOException("El archivo de audio terminó antes de lo esperado: " + file);
+                remaining -= read;
+                AudioChunk chunk = new AudioChunk(header.getMessageId(), header.getFrom(), header.getTo(), index++, Arrays.copyOf(buffer, read), remaining == 0);
+                out.writeObject(chunk);
+                // Evita que el servidor retenga cada fragmento
+                out.reset();
+            }
+        }
+    }
+
+    /**
+     * Prepara la recepción de los fragmentos de una nota de voz.
+     * Debe llamarse desde el hilo receptor al leer la cabecera, antes que sus fragmentos.
+     * @param header Mensaje cabecera recibido
+     */
+    public void expect(Message header) {
+        if (!header.isStreamedAudio() || header.getAudioFilePath() == null) return;
+        File target = new File(userDir, "history/audio/" + new File(header.getAudioFilePath()).getName());
+        File part = new File(target.getPath() + ".part");
+        // Una recepción anterior del mismo mensaje usa el mismo .part: se descarta antes de abrirlo
+        Incoming previous = incoming.remove(header.getMessageId());
+        if (previous != null) previous.discard();
+        try {
+            target.getParentFile().mkdirs();
+            OutputStream out = new BufferedOutputStream(new FileOutputStream(part));
+            incoming.put(header.getMessageId(), new Incoming(header, target, part, out));
+        } catch (IOException e) {
+            System.err.println("[ERROR] No se pudo preparar la recepción de la nota de voz: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Escribe un fragmento recibido. Los fragmentos de notas no esperadas se ignoran
+     * (por ejemplo, los de un mensaje duplicado).
+     * @param chunk Fragmento recibido
+     * @return la cabecera de la nota si este era su último fragmento y quedó guardada, o null
+     */
+    public Message append(AudioChunk chunk) {
+        Incoming in = incoming.get(chunk.getMessageId());
+        if (in == null) return null;
+        try {
+            if (chunk.getData() != null) in.out.write(chunk.getData());
+            if (chunk.isLast()) {
+                incoming.remove(chunk.getMessageId());
+                in.out.close();
+                if (in.target.exists()) in.target.delete();
+                if (!in.part.renameTo(in.target)) {
+                    throw new IOException("No se pudo renombrar " + in.part);
+                }
+                return in.header;
+            }
+        } catch (IOException e) {
+            incoming.remove(chunk.getMessageId());
+            in.discard();
+            System.err.println("[ERROR] No se pudo guardar la nota de voz recibida: " + e.getMessage());
+        }
+        return null;
+    }
+
+    /** Descarta las recepciones incompletas (por ejemplo, al perder la conexión). */
+    public void abortAll() {
+        for (String id : incoming.keySet()) {
+            Incoming in = incoming.remove(id);
+            if (in != null) in.discard();
+        }
+    }
+
+    private static class Incoming {
+        private final Message header;
+        private final File target;
+        private final File part;
+        private final OutputStream out;
+
+        private Incoming(Message header, File target, File part, OutputStream out) {
+            this.header = header;
+            this.target = target;
+            this.part = part;
+            this.out = out;
+        }
+
+        private void discard() {
+            try {
+                out.close();
+            } catch (IOException ignored) {
+            }
+            part.delete();
+        }
+    }
+}
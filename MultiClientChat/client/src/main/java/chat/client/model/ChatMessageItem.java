@@ -0,0 +1,93 @@
+package chat.client.model;
+
+import chat.common.model.Message;
+
+import java.io.File;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+
+/**
+ * Representa un mensaje de la conversación abierta en la UI del cliente.
+ * <p>
+ * Se construye una vez a partir del {@link Message} con todo lo que necesita la celda ya
+ * resuelto: si es propio, la hora formateada, el archivo local de una nota de voz y su
+ * duración y forma de onda. Así la celda solo copia valores al dibujarse, sin analizar
+ * texto ni fechas en cada desplazamiento de la lista.
+ */
+public class ChatMessageItem {
+    private static final DateTimeFormatter TIME_FORMAT = DateTimeFormatter.ofPattern("HH:mm");
+
+    /** Cómo se dibuja el elemento. */
+    public enum Kind {
+        TEXT,
+        VOICE_NOTE,
+        /** Aviso de la aplicación (por ejemplo, un error al leer el historial). */
+        NOTICE
+    }
+
+    private final Kind kind;
+    private final String messageId;
+    private final String sender;
+    private final boolean own;
+    private final String text;
+    private final String time;
+    private final File audioFile;
+    private final long durationMillis;
+    private final byte[] peaks;
+    /** Ancho del texto medido por la celda la primera vez que lo dibuja; -1 si aún no. */
+    private double textWidth = -1;
+
+    private ChatMessageItem(Kind kind, String messageId, String sender, boolean own, String text, String time,
+                            File audioFile, long durationMillis, byte[] peaks) {
+        this.kind = kind;
+        this.messageId = messageId;
+        this.sender = sender;
+        this.own = own;
+        this.text = text;
+        this.time = time;
+        this.audioFile = audioFile;
+        this.durationMillis = durationMillis;
+        this.peaks = peaks != null ? peaks : new byte[0];
+    }
+
+    /**
+     * Crea el elemento de un mensaje de texto o de audio.
+     * @param msg Mensaje
+     * @param currentUsername Usuario de la sesión, para saber si el mensaje es propio
+     * @param audioFile Archivo local de la nota de voz, o null si no es de audio o no se conoce
+     */
+    public static ChatMessageItem of(Message msg, String currentUsername, File audioFile) {
+        String sender = msg.getFrom() != null ? msg.getFrom().getUsername() : "";
+        boolean own = currentUsername != null && currentUsername.equals(sender);
+        if (msg.getType() == Message.Type.AUDIO) {
+            return new ChatMessageItem(Kind.VOICE_NOTE, msg.getMessageId(), sender, own, "[Mensaje de voz]",
+                formatTime(msg.getTimestamp()), audioFile, msg.getAudioDurationMillis(), msg.getAudioPeaks());
+        }
+        return new ChatMessageItem(Kind.TEXT, msg.getMessageId(), sender, own, msg.getContent(),
+            formatTime(msg.getTimestamp()), null, 0, null);
+    }
+
+    /** Crea un aviso que se muestra en la conversación sin remitente. */
+    public static ChatMessageItem notice(String text) {
+        return new ChatMessageItem(Kind.NOTICE, null, "", false, text, "", null, 0, null);
+    }
+
+    private static String formatTime(LocalDateTime timestamp) {
+        return timestamp != null ? timestamp.format(TIME_FORMAT) : "";
+    }
+
+    public Kind getKind() { return kind; }
+    public String getMessageId() { return messageId; }
+    public String getSender() { return sender; }
+    public boolean isOwn() { return own; }
+    public String getText() { return text; }
+    /** Hora del mensaje ya formateada ("HH:mm"). */
+    public String getTime() { return time; }
+    public File getAudioFile() { return audioFile; }
+    /** Duración de la nota de voz, o 0 si no se conoce. */
+    public long getDurationMillis() { return durationMillis; }
+    /** Picos de la forma de onda de la nota de voz; vacío si no se conocen. */
+    public byte[] getPeaks() { return peaks; }
+    public double getTextWidth() { return textWidth; }
+    public void setTextWidth(double textWidth) { this.textWidth = textWidth; }
+}
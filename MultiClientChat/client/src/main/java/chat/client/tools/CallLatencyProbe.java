@@ -0,0 +1,381 @@
+package chat.client.tools;
+
+import chat.client.views.VoiceCallManager;
+import chat.common.model.CallSignal;
+import chat.common.model.User;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.net.Socket;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Mide la latencia boca-oído de las llamadas de voz sin hardware de audio.
+ *
+ * Levanta dos {@link VoiceCallManager} conectados por UDP en localhost. El origen sintético
+ * del emisor entrega tramas al ritmo real de un micrófono y mete un pulso cada 500 ms; el
+ * destino sintético del receptor simula el buffer de unos altavoces y anota el momento en
+ * que cada pulso sonaría. La diferencia incluye la captura de la trama, la red, el jitter
+ * buffer y el buffer de salida.
+ *
+ * Uso:
+ *   java chat.client.tools.CallLatencyProbe [--frame=10|20|40|all] [--seconds=5] [--vad=on|off]
+ *        [--server=localhost:12345] [--loss=5] [--bandwidth=100]
+ *
+ * Con {@code --server} la llamada se negocia a través de un servidor en marcha, con dos
+ * usuarios de prueba: si el servidor tiene el relé activo ({@code -Drelay.port=...}) el
+ * audio pasa por él, y si no, va directo.
+ *
+ * Con la supresión de silencios activa cada pulso empieza un tramo de voz, así que la
+ * medida incluye el llenado del jitter buffer al inicio de cada tramo.
+ *
+ * Con {@code --loss} (porcentaje de paquetes descartados al azar) o {@code --bandwidth}
+ * (kbps que deja pasar cada sentido) el audio de la llamada directa atraviesa un enlace
+ * degradado, para ver cómo reacciona el control de tasa ({@code [BITRATE]}) y ajustar
+ * sus umbrales.
+ */
+public class CallLatencyProbe {
+    private static final int PULSE_INTERVAL_MILLIS = 500;
+    private static final short PULSE_AMPLITUDE = 20000;
+    private static final int PULSE_THRESHOLD = 15000;
+    private static final int SINK_BUFFER_MILLIS = 40;
+
+    public static void main(String[] args) throws Exception {
+        String frames = "all";
+        int seconds = 5;
+        boolean vad = true;
+        String server = null;
+        double loss = 0;
+        int bandwidthKbps = 0;
+        for (String arg : args) {
+            if (arg.startsWith("--frame=")) frames = arg.substring(8);
+            else if (arg.startsWith("--seconds=")) seconds = Integer.parseInt(arg.substring(10));
+            else if (arg.startsWith("--vad=")) vad = !"off".equals(arg.substring(6));
+            else if (arg.startsWith("--server=")) server = arg.substring(9);
+            else if (arg.startsWith("--loss=")) loss = Double.parseDouble(arg.substring(7)) / 100;
+            else if (arg.startsWith("--bandwidth=")) bandwidthKbps = Integer.parseInt(arg.substring(12));
+        }
+        List<Integer> frameSizes = new ArrayList<>();
+        if ("all".equals(frames)) {
+            for (int f : VoiceCallManager.SUPPORTED_FRAME_MILLIS) frameSizes.add(f);
+        } else {
+            frameSizes.add(Integer.parseInt(frames));
+        }
+        for (int frameMillis : frameSizes) {
+            run(frameMillis, seconds, vad, server, loss, bandwidthKbps);
+        }
+    }
+
+    private static void run(int frameMillis, int seconds, boolean vad, String server, double loss, int bandwidthKbps) throws Exception {
+        InetAddress localhost = InetAddress.getLoopbackAddress();
+        int portA = freePort();
+        int portB = freePort();
+        CallSignal acceptForA = new CallSignal(CallSignal.Type.ACCEPT, "b", "a", null, LocalDateTime.now(), localhost.getHostAddress(), portB);
+        CallSignal acceptForB = new CallSignal(CallSignal.Type.ACCEPT, "a", "b", null, LocalDateTime.now(), localhost.getHostAddress(), portA);
+        SignalingClient clientA = null;
+        SignalingClient clientB = null;
+        if (server != null) {
+            String suffix = Long.toHexString(System.nanoTime());
+            clientA = new SignalingClient(server, "probe-a-" + suffix);
+            clientB = new SignalingClient(server, "probe-b-" + suffix);
+            CallSignal request = new CallSignal(CallSignal.Type.REQUEST, clientA.username, clientB.username, null, LocalDateTime.now());
+            request.setFrameMillis(frameMillis);
+            clientA.send(request);
+            clientB.await(CallSignal.Type.REQUEST);
+            clientB.send(new CallSignal(CallSignal.Type.ACCEPT, clientB.username, clientA.username, null, LocalDateTime.now(), localhost.getHostAddress(), portB));
+            acceptForA = clientA.await(CallSignal.Type.ACCEPT);
+            clientA.send(new CallSignal(CallSignal.Type.ACCEPT, clientA.username, clientB.username, null, LocalDateTime.now(), localhost.getHostAddress(), portA));
+            acceptForB = clientB.await(CallSignal.Type.ACCEPT);
+            System.out.println("[PROBE] Negociado por " + server + ": A -> " + acceptForA.getUdpHost() + ":" + acceptForA.getUdpPort()
+                + (acceptForA.getRelayToken() != 0 ? " (relé)" : " (directo)"));
+        }
+        ImpairedLink toA = null;
+        ImpairedLink toB = null;
+        if (server == null && (loss > 0 || bandwidthKbps > 0)) {
+            toA = new ImpairedLink(new InetSocketAddress(localhost, portA), loss, bandwidthKbps);
+            toB = new ImpairedLink(new InetSocketAddress(localhost, portB), loss, bandwidthKbps);
+            acceptForA.setUdpPort(toB.getPort());
+            acceptForB.setUdpPort(toA.getPort());
+        }
+        ConcurrentLinkedQueue<Long> pulses = new ConcurrentLinkedQueue<>();
+        List<Long> latencies = Collections.synchronizedList(new ArrayList<>());
+
+        SyntheticSource source = new SyntheticSource(frameMillis, pulses);
+        MeasuringSink sink = new MeasuringSink(pulses, latencies);
+        // A solo habla y B solo escucha; los otros extremos quedan en silencio
+        VoiceCallManager a = new VoiceCallManager(InetAddress.getByName(acceptForA.getUdpHost()), acceptForA.getUdpPort(), portA,
+            frameMillis, source, new MeasuringSink(null, null));
+        VoiceCallManager b = new VoiceCallManager(InetAddress.getByName(acceptForB.getUdpHost()), acceptForB.getUdpPort(), portB,
+            frameMillis, new SyntheticSource(frameMillis, null), sink);
+        a.setRelayToken(acceptForA.getRelayToken());
+        b.setRelayToken(acceptForB.getRelayToken());
+        a.setVoiceActivityDetection(vad);
+        b.setVoiceActivityDetection(vad);
+        b.start();
+        a.start();
+        Thread.sleep(seconds * 1000L);
+        a.stop();
+        b.stop();
+        if (toA != null) {
+            toA.close();
+            toB.close();
+            System.out.println("[PROBE] Enlace A -> B: " + toB);
+        }
+        if (clientA != null) {
+            // Colgar cierra la sesión en el relé, que muestra sus contadores
+            clientA.send(new CallSignal(CallSignal.Type.CANCEL, clientA.username, clientB.username, "Fin de la prueba", LocalDateTime.now()));
+            clientA.close();
+            clientB.close();
+        }
+
+        List<Long> sorted;
+        synchronized (latencies) {
+            sorted = new ArrayList<>(latencies);
+        }
+        // El primer pulso incluye el llenado inicial del jitter buffer
+        if (sorted.size() > 1) sorted.remove(0);
+        Collections.sort(sorted);
+        if (sorted.isEmpty()) {
+            System.out.println("[PROBE] " + frameMillis + " ms/trama: no se detectaron pulsos");
+            return;
+        }
+        long sum = 0;
+        for (long l : sorted) sum += l;
+        System.out.println(String.format("[PROBE] %d ms/trama (VAD %s): pulsos=%d min=%.1f ms media=%.1f ms p95=%.1f ms max=%.1f ms, envío %.1f kbps | %s",
+            frameMillis, vad ? "sí" : "no", sorted.size(),
+            sorted.get(0) / 1e6, sum / (double) sorted.size() / 1e6,
+            sorted.get(Math.min(sorted.size() - 1, (int) Math.ceil(sorted.size() * 0.95) - 1)) / 1e6,
+            sorted.get(sorted.size() - 1) / 1e6,
+            a.getBytesSent() * 8 / (seconds * 1000.0),
+            b.getJitterBuffer()));
+        System.out.println("[PROBE] Control de tasa de A: " + a.getBitrateController());
+    }
+
+    /**
+     * Reenvía los datagramas de un sentido de la llamada hacia su destino descartando una
+     * fracción al azar y, si se indica, los que excedan un ancho de banda (cubo de fichas
+     * con 100 ms de ráfaga).
+     */
+    private static class ImpairedLink {
+        private final DatagramChannel channel;
+        private final Thread thread;
+        private volatile long forwarded = 0;
+        private volatile long lost = 0;
+        private volatile long policed = 0;
+
+        private ImpairedLink(InetSocketAddress target, double loss, int bandwidthKbps) throws IOException {
+            channel = DatagramChannel.open();
+            channel.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+            Random random = new Random();
+            double bytesPerNano = bandwidthKbps * 1000 / 8 / 1e9;
+            double burst = bandwidthKbps * 1000 / 8 * 0.1;
+            thread = new Thread(() -> {
+                ByteBuffer packet = ByteBuffer.allocateDirect(2048);
+                double tokens = burst;
+                long last = System.nanoTime();
+                while (channel.isOpen()) {
+                    try {
+                        packet.clear();
+                        channel.receive(packet);
+                        packet.flip();
+                        if (random.nextDouble() < loss) {
+                            lost++;
+                            continue;
+                        }
+                        if (bandwidthKbps > 0) {
+                            long now = System.nanoTime();
+                            tokens = Math.min(burst, tokens + (now - last) * bytesPerNano);
+                            last = now;
+                            if (tokens < packet.limit()) {
+                                policed++;
+                                continue;
+                            }
+                            tokens -= packet.limit();
+                        }
+                        channel.send(packet, target);
+                        forwarded++;
+                    } catch (IOException e) {
+                        break;
+                    }
+                }
+            }, "ImpairedLink");
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        private int getPort() {
+            return channel.socket().getLocalPort();
+        }
+
+        private void close() throws IOException {
+            channel.close();
+        }
+
+        @Override
+        public String toString() {
+            return "reenviados=" + forwarded + ", perdidos=" + lost + ", sobre el ancho de banda=" + policed;
+        }
+    }
+
+    /**
+     * Usuario de prueba conectado al servidor por TCP, solo para intercambiar señales.
+     */
+    private static class SignalingClient {
+        private final String username;
+        private final Socket socket;
+        private final ObjectOutputStream out;
+        private final ObjectInputStream in;
+
+        private SignalingClient(String server, String username) throws IOException, ClassNotFoundException {
+            String[] hostPort = server.split(":");
+            this.username = username;
+            this.socket = new Socket(hostPort[0], hostPort.length > 1 ? Integer.parseInt(hostPort[1]) : 12345);
+            socket.setSoTimeout(5000);
+            this.out = new ObjectOutputStream(socket.getOutputStream());
+            this.in = new ObjectInputStream(socket.getInputStream());
+            out.writeObject(new User(username, username));
+            out.flush();
+            Object resp = in.readObject();
+            if (!"OK".equals(resp)) throw new IOException("El servidor rechazó a " + username + ": " + resp);
+        }
+
+        private void send(CallSignal signal) throws IOException {
+            out.writeObject(signal);
+            out.flush();
+        }
+
+        /** Lee objetos del servidor hasta recibir una señal del tipo dado. */
+        private CallSignal await(CallSignal.Type type) throws IOException, ClassNotFoundException {
+            while (true) {
+                Object obj = in.readObject();
+                if (obj instanceof CallSignal && ((CallSignal) obj).getType() == type) {
+                    return (CallSignal) obj;
+                }
+            }
+        }
+
+        private void close() throws IOException {
+            socket.close();
+        }
+    }
+
+    private static int freePort() throws Exception {
+        try (DatagramSocket socket = new DatagramSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+
+    /**
+     * Entrega tramas al ritmo de un micrófono: cada lectura espera a que termine la
+     * trama. Los pulsos se ponen en la primera muestra y se anota cuándo se "dijeron".
+     */
+    private static class SyntheticSource implements VoiceCallManager.AudioSource {
+        private final long frameNanos;
+        private final int framesPerPulse;
+        private final ConcurrentLinkedQueue<Long> pulses;
+        private long nextFrameStart = -1;
+        private long frameCount = 0;
+        private volatile boolean closed = false;
+
+        private SyntheticSource(int frameMillis, ConcurrentLinkedQueue<Long> pulses) {
+            this.frameNanos = frameMillis * 1_000_000L;
+            this.framesPerPulse = PULSE_INTERVAL_MILLIS / frameMillis;
+            this.pulses = pulses;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) {
+            if (closed) return 0;
+            if (nextFrameStart < 0) nextFrameStart = System.nanoTime();
+            long frameStart = nextFrameStart;
+            nextFrameStart += frameNanos;
+            sleepUntil(nextFrameStart);
+            Arrays.fill(buffer, offset, offset + length, (byte) 0);
+            if (pulses != null && frameCount++ % framesPerPulse == 0) {
+                for (int i = 0; i < 8 && i * 2 + 1 < length; i++) {
+                    buffer[offset + i * 2] = (byte) PULSE_AMPLITUDE;
+                    buffer[offset + i * 2 + 1] = (byte) (PULSE_AMPLITUDE >> 8);
+                }
+                pulses.add(frameStart);
+            }
+            return length;
+        }
+
+        @Override
+        public void close() {
+            closed = true;
+        }
+    }
+
+    /**
+     * Simula unos altavoces con un buffer de {@value #SINK_BUFFER_MILLIS} ms: la escritura
+     * bloquea mientras el buffer está lleno y cada muestra suena cuando le llega su turno.
+     */
+    private static class MeasuringSink implements VoiceCallManager.AudioSink {
+        private final ConcurrentLinkedQueue<Long> pulses;
+        private final List<Long> latencies;
+        private long playhead = -1;
+        private volatile boolean closed = false;
+
+        private MeasuringSink(ConcurrentLinkedQueue<Long> pulses, List<Long> latencies) {
+            this.pulses = pulses;
+            this.latencies = latencies;
+        }
+
+        @Override
+        public void write(byte[] buffer, int offset, int length) {
+            if (closed) return;
+            long now = System.nanoTime();
+            if (playhead < now) playhead = now;
+            int samples = length / 2;
+            if (pulses != null) {
+                for (int i = 0; i < samples; i++) {
+                    int sample = (short) ((buffer[offset + i * 2] & 0xff) | (buffer[offset + i * 2 + 1] << 8));
+                    if (sample > PULSE_THRESHOLD) {
+                        long heard = playhead + (long) (i * 1e9 / VoiceCallManager.SAMPLE_RATE);
+                        Long spoken = pulses.poll();
+                        // Se saltan los pulsos que se perdieron por el camino
+                        while (spoken != null && heard - spoken > PULSE_INTERVAL_MILLIS * 1_000_000L) {
+                            spoken = pulses.poll();
+                        }
+                        if (spoken != null) {
+                            latencies.add(heard - spoken);
+                        }
+                        break;
+                    }
+                }
+            }
+            playhead += (long) (samples * 1e9 / VoiceCallManager.SAMPLE_RATE);
+            sleepUntil(playhead - SINK_BUFFER_MILLIS * 1_000_000L);
+        }
+
+        @Override
+        public void close() {
+            closed = true;
+        }
+    }
+
+    private static void sleepUntil(long nanoTime) {
+        long wait;
+        while ((wait = nanoTime - System.nanoTime()) > 0) {
+            try {
+                Thread.sleep(wait / 1_000_000, (int) (wait % 1_000_000));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+}
@@ -0,0 +1,190 @@
+package chat.client.tools;
+
+import chat.client.logic.ChatSummaryLoader;
+import chat.common.model.ChatTarget;
+import chat.common.model.Group;
+import chat.common.model.Message;
+import chat.common.model.User;
+import chat.common.util.MessageHistoryUtil;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.stream.Stream;
+
+/**
+ * Mide lo que tarda en llenarse la lista de chats al abrir el cliente, sin interfaz.
+ *
+ * Crea una carpeta {@code userdata} sintética con un usuario y sus historiales (uno de
+ * cada diez chats es un grupo, algunos mensajes son notas de voz con sus picos) y compara:
+ * <ul>
+ *   <li>antes: leer cada historial entero, uno tras otro, como hacía el constructor de
+ *       {@code ChatView} en el hilo de la interfaz antes de mostrar la ventana;</li>
+ *   <li>ahora: listar la carpeta (lo que se hace antes de mostrar la ventana, con entradas
+ *       provisionales) y leer los resúmenes con {@link ChatSummaryLoader}.</li>
+ * </ul>
+ * También comprueba que los resúmenes coincidan con el último mensaje de cada historial.
+ *
+ * Uso:
+ *   java chat.client.tools.StartupBenchmark [--chats=500] [--messages=200] [--threads=4]
+ *        [--rounds=3] [--dir=ruta]
+ *
+ * Sin {@code --dir} la carpeta se crea en un directorio temporal y se borra al terminar;
+ * con {@code --dir} se usa la indicada y, si ya tiene historiales, no se genera nada.
+ */
+public class StartupBenchmark {
+    private static final String USERNAME = "bench";
+
+    public static void main(String[] args) throws Exception {
+        int chats = 500;
+        int messages = 200;
+        int threads = Math.min(4, Runtime.getRuntime().availableProcessors());
+        int rounds = 3;
+        String dir = null;
+        for (String arg : args) {
+            if (arg.startsWith("--chats=")) chats = Integer.parseInt(arg.substring(8));
+            else if (arg.startsWith("--messages=")) messages = Integer.parseInt(arg.substring(11));
+            else if (arg.startsWith("--threads=")) threads = Integer.parseInt(arg.substring(10));
+            else if (arg.startsWith("--rounds=")) rounds = Integer.parseInt(arg.substring(9));
+            else if (arg.startsWith("--dir=")) dir = arg.substring(6);
+        }
+        File userdata = dir != null ? new File(dir) : Files.createTempDirectory("userdata-bench").toFile();
+        File historyDir = new File(userdata, USERNAME + "/history");
+        try {
+            String[] existing = historyDir.list((d, name) -> name.endsWith(".json"));
+            if (existing == null || existing.length == 0) {
+                long start = System.nanoTime();
+                generate(historyDir, chats, messages);
+                System.out.println("[STARTUP] Generados " + chats + " chats de " + messages + " mensajes en "
+                    + (long) millis(start) + " ms (" + folderSize(historyDir) / 1024 + " KB) en " + historyDir);
+            } else {
+                System.out.println("[STARTUP] Usando " + existing.length + " historiales de " + historyDir);
+            }
+            for (int round = 1; round <= rounds; round++) {
+                run(round, historyDir, threads);
+            }
+        } finally {
+            if (dir == null) delete(userdata);
+        }
+    }
+
+    private static void run(int round, File historyDir, int threads) throws InterruptedException {
+        // Antes: cada historial entero, en orden, antes de mostrar la ventana
+        long start = System.nanoTime();
+        Map<String, Message> expected = new ConcurrentHashMap<>();
+        String[] files = historyDir.list((d, name) -> name.endsWith(".json"));
+        for (String file : files) {
+            List<Message> history = MessageHistoryUtil.readHistory(new File(historyDir, file).getPath(), () -> false);
+            if (!history.isEmpty()) expected.put(file.substring(0, file.length() - 5), history.get(history.size() - 1));
+        }
+        double before = millis(start);
+
+        // Ahora: la ventana sale tras listar la carpeta; los resúmenes llegan después
+        start = System.nanoTime();
+        ChatSummaryLoader loader = new ChatSummaryLoader(historyDir, threads);
+        List<String> names = loader.listChats();
+        double window = millis(start);
+        CountDownLatch done = new CountDownLatch(names.size());
+        List<ChatSummaryLoader.Summary> summaries = new ArrayList<>();
+        loader.load(names, summary -> {
+            synchronized (summaries) {
+                summaries.add(summary);
+            }
+            done.countDown();
+        });
+        done.await();
+        double after = millis(start);
+        loader.shutdown();
+
+        int mismatches = 0;
+        for (ChatSummaryLoader.Summary summary : summaries) {
+            Message last = expected.get(summary.getChatName());
+            boolean group = last != null && last.getTo() instanceof Group;
+            if (last == null ? summary.getLastTimestamp() != null
+                    : !last.getTimestamp().equals(summary.getLastTimestamp()) || group != (summary.getGroup() != null)) {
+                mismatches++;
+            }
+        }
+        System.out.printf("[STARTUP] Ronda %d: antes %.1f ms hasta la ventana | ahora %.1f ms hasta la ventana, "
+                + "%.1f ms hasta los %d resúmenes (%d hilos, %.1fx) | %d diferencias%n",
+            round, before, window, after, summaries.size(), threads, before / after, mismatches);
+    }
+
+    private static void generate(File historyDir, int chats, int messages) throws IOException {
+        Random random = new Random(42);
+        User me = new User(USERNAME, USERNAME);
+        LocalDateTime base = LocalDateTime.now().minusDays(30);
+        for (int c = 0; c < chats; c++) {
+            String name = String.format("chat%04d", c);
+            User other = new User(name, name);
+            ChatTarget to;
+            if (c % 10 == 0) {
+                Set<User> members = new HashSet<>(Arrays.asList(me, other));
+                to = new Group(name, "Grupo " + c, members);
+            } else {
+                to = other;
+            }
+            LocalDateTime ts = base.plusMinutes(random.nextInt(60 * 24 * 30));
+            List<Message> history = new ArrayList<>(messages);
+            for (int m = 0; m < messages; m++) {
+                ts = ts.plusSeconds(1 + random.nextInt(600));
+                boolean mine = random.nextBoolean();
+                User from = mine || to instanceof Group ? me : other;
+                ChatTarget target = to instanceof Group ? to : (mine ? other : me);
+                Message msg;
+                if (m % 10 == 9) {
+                    msg = new Message(from, target, Message.Type.AUDIO, "", ts, "audio/" + name + "_" + m + ".wav", null);
+                    byte[] peaks = new byte[200];
+                    random.nextBytes(peaks);
+                    msg.setAudioPeaks(peaks);
+                    msg.setAudioDurationMillis(1000 + random.nextInt(20000));
+                } else {
+                    msg = new Message(from, target, Message.Type.TEXT, text(random), ts);
+                }
+                msg.setSequence(m + 1);
+                history.add(msg);
+            }
+            MessageHistoryUtil.appendMessagesToHistory(new File(historyDir, name + ".json").getPath(), history);
+        }
+    }
+
+    private static String text(Random random) {
+        StringBuilder sb = new StringBuilder();
+        int words = 3 + random.nextInt(30);
+        for (int i = 0; i < words; i++) {
+            if (i > 0) sb.append(' ');
+            int len = 2 + random.nextInt(8);
+            for (int j = 0; j < len; j++) sb.append((char) ('a' + random.nextInt(26)));
+        }
+        return sb.toString();
+    }
+
+    private static double millis(long startNanos) {
+        return (System.nanoTime() - startNanos) / 1e6;
+    }
+
+    private static long folderSize(File dir) {
+        File[] files = dir.listFiles();
+        long size = 0;
+        if (files != null) for (File f : files) size += f.length();
+        return size;
+    }
+
+    private static void delete(File root) throws IOException {
+        try (Stream<Path> paths = Files.walk(root.toPath())) {
+            paths.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+        }
+    }
+}
@@ -10,16 +10,10 @@ public class AudioUtils {
      * @return true si el header es válido
      */
     public static boolean isValidWav(File wavFile) {
-        try (FileInputStream fis = new FileInputStream(wavFile)) {
-            byte[] header = new byte[44];
-            if (fis.read(header) != 44) return false;
-            // Revisar el header RIFF/WAVE
-            String chunkId = new String(header, 0, 4);
-            String format = new String(header, 8, 4);
-            String subchunk1Id = new String(header, 12, 4);
-            String subchunk2Id = new String(header, 36, 4);
-            return chunkId.equals("RIFF") && format.equals("WAVE") && subchunk1Id.equals("fmt ") && subchunk2Id.equals("data");
-        } catch (IOException e) {
+        try {
+            // Acepta PCM, μ-law e IMA-ADPCM; los bloques se recorren en lugar de asumir 44 bytes
+            return WavFileReader.open(wavFile).getFrameLength() > 0;
+        } catch (IOException | UnsupportedAudioFileException e) {
             return false;
         }
     }
@@ -12,13 +12,16 @@ import javafx.application.Platform;
 import javafx.collections.FXCollections;
 import javafx.collections.ObservableList;
 import java.io.*;
-import java.net.Socket;
 import java.time.LocalDateTime;
 
 import java.util.function.BiConsumer;
 import chat.common.model.ChatPayload;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 import javax.sound.sampled.*;
@@ -26,14 +29,26 @@ import javax.sound.sampled.*;
 import chat.common.util.ChatUtils;
 import chat.common.util.JSONUtil;
 import chat.common.util.MessageHistoryUtil;
+import chat.common.util.UserDirectory;
+import chat.common.util.WaveformPeaks;
 import chat.client.logic.ChatHistoryManager;
+import chat.client.logic.ChatListIndex;
+import chat.client.logic.ChatSummaryLoader;
+import chat.client.logic.CoalescingDispatcher;
+import chat.client.logic.ConversationCache;
+import chat.client.logic.HistoryLoader;
+import chat.client.logic.LocalHistoryWriter;
+import chat.client.logic.OutboundQueue;
+import chat.client.logic.VoiceNoteTransfer;
 import chat.common.model.AudioFormatWrapper;
+import chat.common.model.AudioFormatWrapper.Codec;
 import chat.common.model.ChatTarget;
 import chat.common.model.Group;
 import chat.common.model.Message;
 import chat.common.model.CallSignal;
 import chat.common.model.User;
 import chat.client.model.ChatListItem;
+import chat.client.model.ChatMessageItem;
 
 /**
  * Vista principal del cliente de chat.
@@ -44,7 +59,7 @@ import chat.client.model.ChatListItem;
  * Funciones clave:
  * - receiveMessage: muestra y guarda mensajes entrantes (texto y audio).
  * - receiveCallSignal: gestiona la señalización de llamadas (solicitud, aceptación, rechazo).
- * - loadChatHistory: carga mensajes desde archivo JSON.
+ * - loadChatHistory: carga mensajes desde archivo JSON en segundo plano, por páginas.
  * - stopAudioRecordingAndSend: graba, guarda y envía notas de voz.
  * - refreshChatList: actualiza la vista filtrada de chats.
  *
@@ -53,6 +68,7 @@ import chat.client.model.ChatListItem;
 
 public class ChatView extends BorderPane {
     private final String userdataDir;
+    private final UserDirectory users;
     {
         String tempDir;
         try {
@@ -70,7 +86,15 @@ public class ChatView extends BorderPane {
     }
    
     private ListView<ChatListItem> chatListView;
+    /** Todos los chats, en el orden de {@link #chatIndex}. */
     private ObservableList<ChatListItem> allChats;
+    private final ChatListIndex chatIndex = new ChatListIndex();
+    /** Vista previa de las entradas provisionales, hasta que llega su resumen. */
+    private static final String LOADING_PREVIEW = "Cargando...";
+    private ChatSummaryLoader summaryLoader;
+    /** Resúmenes de chats que faltan por llegar al abrir la ventana. */
+    private int pendingSummaries;
+    private long summariesStarted;
     private Button callButton;
     private Button hangupButton;
     private VoiceCallManager callManager;
@@ -82,16 +106,22 @@ public class ChatView extends BorderPane {
     private String localUdpHost = null;
     private String peerUdpHost = null;
     private int peerUdpPort = -1;
+    private int callFrameMillis = VoiceCallManager.DEFAULT_FRAME_MILLIS;
+    private int callRelayToken = 0;
+    /** Grupo de la llamada de grupo en curso, o null. */
+    private String activeGroupCall = null;
 
     
     public void receiveCallSignal(CallSignal signal) {
         Platform.runLater(() -> {
             switch (signal.getType()) {
                 case REQUEST:
-                    if (signal.getToUser().equals(user.getUsername())) {
+                    if (signal.getToUser().equals(user.getUsername()) || signal.isGroupCall()) {
                         incomingAlert = new Alert(Alert.AlertType.CONFIRMATION);
                         incomingAlert.setTitle("Llamada entrante");
-                        incomingAlert.setHeaderText("Llamada de " + signal.getFrom().getDisplayName());
+                        incomingAlert.setHeaderText(signal.isGroupCall()
+                            ? "Llamada del grupo " + signal.getToUser() + " (inicia " + signal.getFrom().getDisplayName() + ")"
+                            : "Llamada de " + signal.getFrom().getDisplayName());
                         incomingAlert.setContentText("¿Quieres aceptar la llamada?");
                         ButtonType acceptBtn = new ButtonType("Aceptar");
                         ButtonType rejectBtn = new ButtonType("Rechazar");
@@ -110,6 +140,9 @@ public class ChatView extends BorderPane {
                                     localUdpHost = "127.0.0.1";
                                 }
                                 response = new CallSignal(CallSignal.Type.ACCEPT, user.getUsername(), signal.getFromUser(), null, java.time.LocalDateTime.now(), localUdpHost, localUdpPort);
+                                // Se acepta la duración de trama propuesta si está admitida
+                                callFrameMillis = VoiceCallManager.supportedFrameMillis(signal.getFrameMillis());
+                                response.setFrameMillis(callFrameMillis);
                                 callButton.setDisable(true);
                                 hangupButton.setDisable(false);
                             } else {
@@ -118,7 +151,15 @@ public class ChatView extends BorderPane {
                                 hangupButton.setDisable(true);
                             }
                             if (incomingAlert != null) incomingAlert.close();
-                            onSendMessage.accept(new User(signal.getFromUser(), signal.getFromUser()), response); 
+                            if (signal.isGroupCall()) {
+                                // La respuesta va al grupo: el servidor une al usuario a la conferencia
+                                response.setToUser(signal.getToUser());
+                                response.setGroupCall(true);
+                                if (response.getType() == CallSignal.Type.ACCEPT) {
+                                    activeGroupCall = signal.getToUser();
+                                }
+                            }
+                            onSendMessage.accept(response.getTo(), response);
                         });
                     }
                     break;
@@ -126,7 +167,25 @@ public class ChatView extends BorderPane {
                     if (waitingAlert != null) waitingAlert.close();
                     peerUdpHost = signal.getUdpHost();
                     peerUdpPort = signal.getUdpPort();
-                    if (localUdpPort == -1) {
+                    callFrameMillis = VoiceCallManager.supportedFrameMillis(signal.getFrameMillis());
+                    // Con el relé activo, peerUdpHost/peerUdpPort son los del servidor
+                    callRelayToken = signal.getRelayToken();
+                    if (signal.isGroupCall()) {
+                        // El ACCEPT de un grupo lo envía el servidor: no se contesta
+                        activeGroupCall = signal.getFromUser();
+                        if (localUdpPort == -1) {
+                            try {
+                                java.net.DatagramSocket tempSocket = new java.net.DatagramSocket();
+                                localUdpPort = tempSocket.getLocalPort();
+                                localUdpHost = java.net.InetAddress.getLocalHost().getHostAddress();
+                                tempSocket.close();
+                            } catch (Exception e) {
+                                System.err.println("[CALL] Error obteniendo puerto UDP local: " + e.getMessage());
+                                localUdpPort = 0;
+                                localUdpHost = "127.0.0.1";
+                            }
+                        }
+                    } else if (localUdpPort == -1) {
                         try {
                             java.net.DatagramSocket tempSocket = new java.net.DatagramSocket();
                             localUdpPort = tempSocket.getLocalPort();
@@ -138,13 +197,15 @@ public class ChatView extends BorderPane {
                             localUdpHost = "127.0.0.1";
                         }
                         CallSignal acceptResponse = new CallSignal(CallSignal.Type.ACCEPT, user.getUsername(), signal.getFromUser(), null, java.time.LocalDateTime.now(), localUdpHost, localUdpPort);
+                        acceptResponse.setFrameMillis(callFrameMillis);
                         onSendMessage.accept(new User(signal.getFromUser(), signal.getFromUser()), acceptResponse);
                     }
                     if (peerUdpHost != null && peerUdpPort > 0 && localUdpPort > 0) {
                         try {
-                            callManager = new VoiceCallManager(java.net.InetAddress.getByName(peerUdpHost), peerUdpPort, localUdpPort);
+                            callManager = new VoiceCallManager(java.net.InetAddress.getByName(peerUdpHost), peerUdpPort, localUdpPort, callFrameMillis, null, null);
+                            callManager.setRelayToken(callRelayToken);
                             callManager.start();
-                            System.out.println("[CALL] Llamada de voz iniciada entre " + localUdpHost + ":" + localUdpPort + " <-> " + peerUdpHost + ":" + peerUdpPort);
+                            System.out.println("[CALL] Llamada de voz iniciada entre " + localUdpHost + ":" + localUdpPort + " <-> " + peerUdpHost + ":" + peerUdpPort + " (" + callFrameMillis + " ms/trama)");
                         } catch (Exception e) {
                             System.err.println("[CALL] Error al iniciar llamada de voz: " + e.getMessage());
                         }
@@ -162,6 +223,16 @@ public class ChatView extends BorderPane {
                     hangupButton.setDisable(true);
                     break;
                 case CANCEL:
+                    // Fin de una llamada de grupo en la que no se participa: solo se cierra la invitación
+                    if (signal.isGroupCall() && !signal.getFromUser().equals(activeGroupCall)) {
+                        if (incomingAlert != null) incomingAlert.close();
+                        break;
+                    }
+                    if (callManager != null) {
+                        callManager.stop();
+                        callManager = null;
+                    }
+                    activeGroupCall = null;
                     if (waitingAlert != null) waitingAlert.close();
                     if (incomingAlert != null) incomingAlert.close();
                     Alert canceled = new Alert(Alert.AlertType.INFORMATION, "La llamada fue cancelada.", ButtonType.OK);
@@ -181,64 +252,241 @@ public class ChatView extends BorderPane {
         });
     }
 
+    /**
+     * Encola un mensaje de texto propio. Si no se puede enviar, se avisa en la
+     * conversación en lugar de bloquear la ventana esperando al socket.
+     */
+    private void sendTextMessage(Message msg) {
+        ObservableList<ChatMessageItem> conversation = messages;
+        touchChat(msg);
+        outbound.send(msg, new OutboundQueue.SendCallback() {
+            @Override
+            public void onSent() {
+            }
+
+            @Override
+            public void onFailed(Exception error) {
+                System.err.println("[ERROR] No se pudo enviar el mensaje " + msg.getMessageId() + ": " + error.getMessage());
+                Platform.runLater(() -> conversation.add(ChatMessageItem.notice("No se pudo enviar: " + msg.getContent())));
+            }
+        });
+    }
+
     public void receiveMessage(Message msg) {
+        receiveMessages(Collections.singletonList(msg));
+    }
+
+    /**
+     * Muestra un lote de mensajes entrantes con una sola modificación de la lista y un
+     * solo desplazamiento.
+     */
+    public void receiveMessages(List<Message> batch) {
+        // Cada mensaje va a su conversación si está en memoria; las demás lo leerán del historial
+        Map<OpenConversation, List<ChatMessageItem>> byConversation = new LinkedHashMap<>();
+        for (Message msg : batch) {
+            ChatMessageItem item = prepareIncoming(msg);
+            if (item == null) continue;
+            touchChat(msg);
+            OpenConversation conv = conversations.peek(conversationKey(msg));
+            if (conv != null) byConversation.computeIfAbsent(conv, k -> new ArrayList<>()).add(item);
+        }
+        for (Map.Entry<OpenConversation, List<ChatMessageItem>> entry : byConversation.entrySet()) {
+            entry.getKey().items.addAll(entry.getValue());
+        }
+        if (byConversation.containsKey(current)) {
+            messageListView.scrollTo(messages.size() - 1);
+        }
+    }
+
+    /** Agrega un chat al índice y a su posición en la lista. */
+    private void addChat(ChatListItem item) {
+        if (!chatIndex.add(item)) return;
+        int pos = Collections.binarySearch(allChats, item, ChatListIndex.RECENCY);
+        allChats.add(pos < 0 ? -pos - 1 : pos, item);
+    }
+
+    /**
+     * Pone la vista previa del chat de un mensaje y lo sube en la lista; si el chat no
+     * estaba, lo agrega. El índice lo recoloca en O(log n) y la lista mueve solo ese chat.
+     */
+    private void touchChat(Message msg) {
+        String key = conversationKey(msg);
+        if (key == null) return;
+        ChatListItem item = chatIndex.get(key);
+        if (item == null) {
+            ChatTarget target = msg.getTo() != null && (msg.getTo().isGroup() || !key.equals(msg.getFrom().getUsername()))
+                ? msg.getTo() : msg.getFrom();
+            item = new ChatListItem(target);
+            chatIndex.touch(item, msg.getTimestamp(), previewOf(msg));
+            addChat(item);
+            if (chatListView.getItems() != allChats) refreshChatList();
+            return;
+        }
+        // La posición se busca antes de cambiar la fecha, que es parte del orden
+        int oldPos = Collections.binarySearch(allChats, item, ChatListIndex.RECENCY);
+        if (!chatIndex.touch(item, msg.getTimestamp(), previewOf(msg))) return;
+        boolean inPlace = oldPos >= 0
+            && (oldPos == 0 || ChatListIndex.RECENCY.compare(allChats.get(oldPos - 1), item) < 0)
+            && (oldPos == allChats.size() - 1 || ChatListIndex.RECENCY.compare(item, allChats.get(oldPos + 1)) < 0);
+        if (inPlace) {
+            // Sigue en su sitio (lo normal en el chat abierto): solo cambia la vista previa
+            chatListView.refresh();
+        } else {
+            boolean selected = chatListView.getSelectionModel().getSelectedItem() == item;
+            if (oldPos >= 0) allChats.remove(oldPos);
+            int pos = Collections.binarySearch(allChats, item, ChatListIndex.RECENCY);
+            allChats.add(pos < 0 ? -pos - 1 : pos, item);
+            if (selected) chatListView.getSelectionModel().select(item);
+        }
+        if (chatListView.getItems() != allChats) refreshChatList();
+    }
+
+    /**
+     * Completa las entradas provisionales con los resúmenes leídos en segundo plano. La
+     * lista se reordena una vez por lote y conserva la selección; con el último resumen se
+     * selecciona el chat más reciente si aún no hay ninguno elegido.
+     */
+    private void applySummaries(List<ChatSummaryLoader.Summary> batch) {
+        ChatListItem selected = chatListView.getSelectionModel().getSelectedItem();
+        for (ChatSummaryLoader.Summary summary : batch) {
+            ChatListItem item = chatIndex.get(summary.getChatName());
+            if (item == null) continue;
+            Group group = summary.getGroup();
+            if (group != null && !item.isGroup()) {
+                ChatListItem existing = chatIndex.get(group.getUsername());
+                if (existing == null || existing == item) {
+                    // El historial es de un grupo: la entrada provisional pasa a ser la del grupo
+                    ChatListItem groupItem = new ChatListItem(group);
+                    groupItem.setLastPreview(item.getLastPreview());
+                    groupItem.setLastTimestamp(item.getLastTimestamp());
+                    chatIndex.remove(item);
+                    chatIndex.add(groupItem);
+                    if (selected == item) selected = groupItem;
+                    item = groupItem;
+                }
+            }
+            // Se compara la instancia: un mensaje recibido con ese mismo texto no cuenta
+            if (item.getLastPreview() == LOADING_PREVIEW) item.setLastPreview("");
+            // Si ya llegó un mensaje más nuevo, el resumen no lo pisa
+            chatIndex.touch(item, summary.getLastTimestamp(), summary.getLastPreview());
+        }
+        allChats.setAll(chatIndex.ordered());
+        pendingSummaries -= batch.size();
+        if (pendingSummaries <= 0) {
+            summaryLoader.shutdown();
+            System.out.println("[UI] Resúmenes de " + chatIndex.size() + " chats en "
+                + (System.nanoTime() - summariesStarted) / 1_000_000 + " ms");
+        }
+        if (chatListView.getItems() != allChats || pendingSummaries <= 0) {
+            refreshChatList();
+        } else if (selected != null) {
+            chatListView.getSelectionModel().select(selected);
+        }
+    }
+
+    private static String previewOf(Message msg) {
+        return msg.getType() == Message.Type.AUDIO ? "[Mensaje de voz]" : msg.getContent();
+    }
+
+    /** Nombre de la conversación (y de su archivo de historial) a la que pertenece un mensaje. */
+    private String conversationKey(Message msg) {
+        ChatTarget to = msg.getTo();
+        if (to != null && to.isGroup()) return to.getUsername();
+        String from = msg.getFrom() != null ? msg.getFrom().getUsername() : null;
+        if (user.getUsername().equals(from)) return to != null ? to.getUsername() : null;
+        return from;
+    }
+
+    /**
+     * Guarda lo que haga falta de un mensaje entrante y devuelve su elemento para la
+     * conversación, o null si no se muestra.
+     */
+    private ChatMessageItem prepareIncoming(Message msg) {
         // Solo mensajes normales (texto/audio)
-        if (msg == null || msg.getType() == null) return;
+        if (msg == null || msg.getType() == null) return null;
         if (msg.getType().name().startsWith("CALL_")) {
-            return;
+            return null;
         }
-        String content;
         if (msg.getType() == Message.Type.AUDIO) {
-            content = "[Mensaje de voz]";
-    
+            // El disco lo escribe historyWriter; la conversación se actualiza desde memoria
             if (msg.getAudioData() != null && msg.getAudioFilePath() != null) {
                 String audioDir = userdataDir + "/" + user.getUsername() + "/";
-                String audioPath = audioDir + msg.getAudioFilePath();
-                File audioFile = new File(audioPath);
-                audioFile.getParentFile().mkdirs();
-                if (!audioFile.exists()) { 
-                    try (FileOutputStream fos = new FileOutputStream(audioFile)) {
-                        fos.write(msg.getAudioData());
-                    } catch (Exception e) {
-                        System.err.println("[ERROR] No se pudo guardar el archivo de audio recibido: " + e.getMessage());
-                    }
-                }
-                
-                try {
-                    String filePath = userdataDir + "/" + user.getUsername() + "/history/" + msg.getFrom().getUsername() + ".json";
-                    MessageHistoryUtil.saveMessageToHistory(filePath, msg);
-                } catch (Exception e) {
-                    System.err.println("[ERROR] No se pudo guardar el mensaje de audio en el historial del receptor: " + e.getMessage());
-                }
+                historyWriter.saveAudio(new File(audioDir + msg.getAudioFilePath()), msg.getAudioData());
+            }
+            // El archivo de las notas por fragmentos lo escribe VoiceNoteTransfer en el hilo receptor
+            if (msg.getAudioFilePath() != null && (msg.getAudioData() != null || msg.isStreamedAudio())) {
+                String filePath = userdataDir + "/" + user.getUsername() + "/history/" + msg.getFrom().getUsername() + ".json";
+                historyWriter.append(filePath, msg);
             }
-        } else {
-            content = msg.getContent();
         }
-        messages.add("[" + msg.getTimestamp() + "] " + msg.getFrom().getUsername() + ": " + content);
-        messageListView.scrollTo(messages.size() - 1);
-        
+        return itemFor(msg);
     }
 
     private TextField searchField;
     private Label chatTitle;
-    private ListView<String> messageListView;
-    private ObservableList<String> messages;
+    private Label connectionLabel;
+    private ListView<ChatMessageItem> messageListView;
+    private ObservableList<ChatMessageItem> messages;
+    private ScrollBar messageScrollBar;
+    private final HistoryLoader<ChatMessageItem> historyLoader = new HistoryLoader<>(this::itemFor);
+    /** Conversaciones visitadas hace poco, con sus mensajes ya convertidos. */
+    private final ConversationCache<String, OpenConversation> conversations =
+        new ConversationCache<>(CACHED_CONVERSATIONS, CACHED_MESSAGES, OpenConversation::weight, OpenConversation::close);
+    /** Conversación que se muestra; {@link #messages} es su lista. */
+    private OpenConversation current;
+    private final LocalHistoryWriter historyWriter = new LocalHistoryWriter();
     private TextField inputField;
     private Button sendButton;
     private User user;
 
 
+    private static final int CACHED_CONVERSATIONS = 8;
+    private static final int CACHED_MESSAGES = 5000;
+
+    /** Estado de una conversación que se guarda en {@link #conversations}. */
+    private static final class OpenConversation {
+        final String name;
+        final ObservableList<ChatMessageItem> items = FXCollections.observableArrayList();
+        HistoryLoader<ChatMessageItem>.Session session;
+        /** Ya se mostró la página más reciente del historial. */
+        boolean loaded = false;
+
+        OpenConversation(String name) {
+            this.name = name;
+        }
+
+        /** Mensajes en memoria: los mostrados y los leídos que faltan por entregar. */
+        int weight() {
+            return items.size() + (session != null ? session.getPendingCount() : 0);
+        }
+
+        void close() {
+            if (session != null) session.cancel();
+        }
+    }
+
     private BiConsumer<ChatTarget, ChatPayload> onSendMessage;
+    private final OutboundQueue outbound;
     
     private TargetDataLine microphone;
-    private ByteArrayOutputStream audioOut;
+    private WavFileWriter recorder;
+    private File recordingFile;
+    private WaveformPeaks recordingPeaks;
+    private String recordingMessageId;
     private Thread recordingThread;
-    private boolean isRecording = false;
+    private volatile boolean isRecording = false;
+    private final VoiceNoteTransfer voiceNotes;
     
     
-    public ChatView(User user, Socket socket, ObjectOutputStream out, ObjectInputStream in, BiConsumer<ChatTarget, ChatPayload> onSendMessage) {
+    public ChatView(User user, OutboundQueue outbound) {
         this.user = user;
-        this.onSendMessage = onSendMessage;
+        this.outbound = outbound;
+        this.users = UserDirectory.of(userdataDir);
+        // Al abrir una conversación, lo que aún esté por escribir entra en la lectura
+        historyLoader.setBeforeRead(historyWriter::awaitPending);
+        // Los envíos solo se encolan; el hilo de la cola escribe en el socket
+        this.onSendMessage = (to, payload) -> outbound.send(payload);
+        this.voiceNotes = new VoiceNoteTransfer(new File(userdataDir + "/" + user.getUsername()));
 
         // --- Botón de llamada de voz ---
         callButton = new Button("📞");
@@ -250,6 +498,8 @@ public class ChatView extends BorderPane {
             ChatTarget toUser = selected.getTarget();
         
             CallSignal callRequest = new CallSignal(CallSignal.Type.REQUEST, user.getUsername(), toUser.getUsername(), null, java.time.LocalDateTime.now());
+            callRequest.setFrameMillis(VoiceCallManager.preferredFrameMillis());
+            callRequest.setGroupCall(toUser instanceof Group);
             onSendMessage.accept(toUser, callRequest);
             callButton.setDisable(true);
             hangupButton.setDisable(false);
@@ -267,7 +517,13 @@ public class ChatView extends BorderPane {
             ChatTarget toUser = selected.getTarget();
     
             CallSignal cancelSignal = new CallSignal(CallSignal.Type.CANCEL, user.getUsername(), toUser.getUsername(), "Llamada cancelada por el usuario", java.time.LocalDateTime.now());
-            onSendMessage.accept(toUser, cancelSignal);
+            if (activeGroupCall != null) {
+                // Se cuelga la llamada de grupo aunque se haya cambiado de chat
+                cancelSignal.setToUser(activeGroupCall);
+                cancelSignal.setGroupCall(true);
+                activeGroupCall = null;
+            }
+            onSendMessage.accept(cancelSignal.getTo(), cancelSignal);
 
             if (callManager != null) {
                 callManager.stop();
@@ -313,11 +569,12 @@ public class ChatView extends BorderPane {
                                 exists.showAndWait();
                                 return;
                             }
-                            String safeName = ChatUtils.ensureUserExists(username.trim(), userdataDir);
-                            User dest = new User(safeName, username.trim());
-                            if (allChats.stream().noneMatch(c -> c.getUsername().equals(dest.getUsername()))) {
+                            User dest = users.register(username.trim());
+                            if (chatIndex.get(dest.getUsername()) == null) {
                                 ChatListItem item = new ChatListItem(dest);
-                                allChats.add(0, item);
+                                // Un chat nuevo entra arriba, como si acabara de tener actividad
+                                item.setLastTimestamp(LocalDateTime.now());
+                                addChat(item);
                                 refreshChatList();
                                 chatListView.getSelectionModel().select(item);
                             } else {
@@ -366,39 +623,17 @@ public class ChatView extends BorderPane {
                                             continue;
                                         }
                                       
-                                        String foundSafeName = null;
-                                        java.io.File baseDir = new java.io.File("userdata");
-                                        java.io.File[] userDirs = baseDir.listFiles(java.io.File::isDirectory);
-                                        if (userDirs != null) {
-                                            for (java.io.File dir : userDirs) {
-                                                java.io.File userJson = new java.io.File(dir, "user.json");
-                                                if (userJson.exists()) {
-                                                    try {
-                                                        chat.common.model.User regUser = chat.common.util.JSONUtil.readFromJsonFile(userJson.getPath(), chat.common.model.User.class);
-                                                        if (regUser != null && regUser.getDisplayName().equals(trimmed)) {
-                                                            foundSafeName = regUser.getUsername();
-                                                            break;
-                                                        }
-                                                    } catch (Exception ex) { /* ignora error de lectura */ }
-                                                }
-                                            }
-                                        }
-                                        if (foundSafeName != null) {
-                                            members.add(new User(foundSafeName, trimmed));
-                                        } else {
-                                           
-                                            String safeName = ChatUtils.ensureUserExists(trimmed, userdataDir);
-                                            User newUser = new User(safeName, trimmed);
-                                            members.add(newUser);
-                                        }
+                                        // Registrado o nuevo, sin recorrer userdata
+                                        members.add(users.register(trimmed));
                                     }
                                 }
                          
                                 members.add(user);
                                 Group group = new Group(groupName.trim(), groupName.trim(), members);
-                                if (allChats.stream().noneMatch(c -> c.getUsername().equals(group.getUsername()))) {
+                                if (chatIndex.get(group.getUsername()) == null) {
                                     ChatListItem item = new ChatListItem(group);
-                                    allChats.add(0, item);
+                                    item.setLastTimestamp(LocalDateTime.now());
+                                    addChat(item);
                                     refreshChatList();
                                     chatListView.getSelectionModel().select(item);
                        
@@ -423,13 +658,9 @@ public class ChatView extends BorderPane {
                                         }
                                     }
              
-                                    try {
-                                        out.writeObject("CREATE_GROUP_OBJ");
-                                        out.writeObject(group);
-                                        out.flush();
-                                    } catch (Exception ex) {
-                                        ex.printStackTrace();
-                                    }
+                                    // Van seguidos en la cola, así el servidor los lee juntos
+                                    outbound.send("CREATE_GROUP_OBJ");
+                                    outbound.send(group);
                                 } else {
                                     Alert exists = new Alert(Alert.AlertType.WARNING, "Ya existe un grupo con ese nombre.", ButtonType.OK);
                                     exists.initOwner(this.getScene() != null ? this.getScene().getWindow() : null);
@@ -478,47 +709,26 @@ public class ChatView extends BorderPane {
                 }
             }
         });
-        System.out.println(userDir.exists() + " " + userDir.isDirectory());
-        if (userDir.exists() && userDir.isDirectory()) {
-            String[] chats = userDir.list((dir, name) -> name.endsWith(".json"));
-            for (String file : chats) {
-                String chatName = file.substring(0, file.length() - 5); // quitar .json
-                ChatListItem cli;
-                String filePath = userdataDir + "/" + user.getUsername() + "/history/" + chatName + ".json";
-                System.out.println("[DEBUG] Trying to load chat history from: " + filePath);
-                boolean isAdded = false;
-                try {
-                    List<Message> history = MessageHistoryUtil.loadHistory(filePath);
-                    System.out.println("[DEBUG] Loaded " + history.size() + " messages from " + filePath);
-                    if (!history.isEmpty() && history.get(0).getTo() instanceof Group) {
-                        Group group = (Group) history.get(0).getTo();
-                        if (allChats.stream().noneMatch(c -> c.isGroup() && c.getUsername().equals(group.getUsername()))) {
-                            ChatListItem groupItem = new ChatListItem(group);
-                            Message last = history.get(history.size() - 1);
-                            String preview = last.getType() == Message.Type.AUDIO ? "[Mensaje de voz]" : last.getContent();
-                            groupItem.setLastPreview(preview);
-                            groupItem.setLastTimestamp(last.getTimestamp());
-                            allChats.add(groupItem);
-                            isAdded = true;
-                        }
-                    }
-                    if (!isAdded) {
-                        cli = new ChatListItem(new User(chatName, chatName));
-                        if (!history.isEmpty()) {
-                            Message last = history.get(history.size() - 1);
-                            String preview = last.getType() == Message.Type.AUDIO ? "[Mensaje de voz]" : last.getContent();
-                            cli.setLastPreview(preview);
-                            cli.setLastTimestamp(last.getTimestamp());
-                        }
-                        allChats.add(cli);
-                    }
-                } catch (Exception ignore) {
-                    cli = new ChatListItem(new User(chatName, chatName));
-                    allChats.add(cli);
-                }
-            }
+        // Entradas provisionales al momento; los resúmenes llegan después desde los archivos
+        summaryLoader = new ChatSummaryLoader(userDir);
+        List<String> chatNames = summaryLoader.listChats();
+        for (String chatName : chatNames) {
+            ChatListItem skeleton = new ChatListItem(new User(chatName, chatName));
+            skeleton.setLastPreview(LOADING_PREVIEW);
+            chatIndex.add(skeleton);
+        }
+        allChats.setAll(chatIndex.ordered());
+        chatListView.setItems(allChats);
+        pendingSummaries = chatNames.size();
+        summariesStarted = System.nanoTime();
+        if (pendingSummaries > 0) {
+            CoalescingDispatcher<ChatSummaryLoader.Summary> summaries =
+                new CoalescingDispatcher<>("Resúmenes", Platform::runLater, this::applySummaries);
+            summaryLoader.load(chatNames, summaries::post);
+        } else {
+            summaryLoader.shutdown();
+            refreshChatList();
         }
-        refreshChatList();
         
        
         searchField.textProperty().addListener((obs, oldVal, newVal) -> {
@@ -572,10 +782,11 @@ public class ChatView extends BorderPane {
         messageListView = new ListView<>(messages);
         messageListView.setFocusTraversable(false);
         messageListView.setStyle("-fx-background-color: #f4f6fb; -fx-border-width: 0; -fx-background-insets: 0; -fx-control-inner-background: #f4f6fb; -fx-padding: 0; -fx-cell-border-color: transparent;");
-        messageListView.setCellFactory(param -> {
-            MessageCell cell = new MessageCell();
-            cell.setCurrentUsername(user.getUsername());
-            return cell;
+        messageListView.setCellFactory(param -> new MessageCell());
+        // Las páginas anteriores del historial se piden al llegar arriba, con la barra o la rueda
+        messageListView.skinProperty().addListener((obs, oldSkin, skin) -> messageScrollBar());
+        messageListView.addEventFilter(javafx.scene.input.ScrollEvent.SCROLL, e -> {
+            if (e.getDeltaY() > 0) loadOlderHistoryAtTop();
         });
         
         inputField = new TextField();
@@ -599,19 +810,16 @@ public class ChatView extends BorderPane {
                 }
                 User toUserObj = null;
                 if (target instanceof User) {
-                    try {
-                        toUserObj = JSONUtil.readFromJsonFile("userdata/" + target.getUsername() + "/user.json", User.class);
-                    } catch (Exception ex) {
-                        toUserObj = (User) target;
-                    }
+                    // Nombre visible desde el registro en memoria
+                    User registered = users.findByUsername(target.getUsername());
+                    toUserObj = registered != null ? registered : (User) target;
                 } else {
                     toUserObj = (User) target;
                 }
                 Message msg = new Message(user, toUserObj, Message.Type.TEXT, text, LocalDateTime.now());
-                onSendMessage.accept(target, msg);
+                sendTextMessage(msg);
                 
-                String now = LocalDateTime.now().toString();
-                messages.add("[" + now + "] " + user.getUsername() + ": " + text);
+                messages.add(itemFor(msg));
                 inputField.clear();
                 messageListView.scrollTo(messages.size() - 1);
 
@@ -643,10 +851,9 @@ public class ChatView extends BorderPane {
                     return;
                 }
                 Message msg = new Message(user, target, Message.Type.TEXT, text, LocalDateTime.now());
-                onSendMessage.accept(target, msg);
+                sendTextMessage(msg);
                 
-                String now = LocalDateTime.now().toString();
-                messages.add("[" + now + "] " + user.getUsername() + ": " + text);
+                messages.add(itemFor(msg));
                 inputField.clear();
                 messageListView.scrollTo(messages.size() - 1);
              
@@ -658,7 +865,10 @@ public class ChatView extends BorderPane {
       
         Region spacer = new Region();
         HBox.setHgrow(spacer, Priority.ALWAYS);
-        HBox chatHeaderBar = new HBox(10, chatTitle, spacer, callBar);
+        connectionLabel = new Label();
+        connectionLabel.setStyle("-fx-font-size: 12px; -fx-text-fill: #c0392b;");
+        connectionLabel.setVisible(false);
+        HBox chatHeaderBar = new HBox(10, chatTitle, connectionLabel, spacer, callBar);
         chatHeaderBar.setAlignment(Pos.CENTER_LEFT);
         chatHeaderBar.setPadding(new Insets(10, 16, 10, 16));
         chatHeaderBar.setStyle("-fx-background-color: #eaf2fb; -fx-border-width: 0 0 1 0; -fx-border-color: #d2e3f7;");
@@ -682,9 +892,9 @@ public class ChatView extends BorderPane {
             }
         });
         
-        if (!chatListView.getItems().isEmpty()) {
-            
-            ChatTarget selected = chatListView.getSelectionModel().getSelectedItem().getTarget();
+        ChatListItem initial = chatListView.getSelectionModel().getSelectedItem();
+        if (initial != null) {
+            ChatTarget selected = initial.getTarget();
             if (selected != null) {
                 chatTitle.setText(ChatUtils.getBaseName(selected.getUsername()));
                 System.out.println("[DEBUG] Selected chat: " + selected.getUsername());
@@ -694,31 +904,77 @@ public class ChatView extends BorderPane {
         }
     }
 
+    /**
+     * Abre una conversación. Si se visitó hace poco sigue en {@link #conversations} y se
+     * muestra tal cual, sin leer el archivo. Si no, el historial se lee en segundo plano:
+     * primero llega la página más reciente y las anteriores se piden al llegar arriba de la
+     * lista. Una conversación que se deja antes de recibir su primera página se cancela y no
+     * se guarda, para no ocupar el hilo del cargador.
+     */
     public void loadChatHistory(String chatName) {
-        messages.clear();
-        String filePath = userdataDir + "/" + user.getUsername() + "/history/" + chatName + ".json";
-        System.out.println("[DEBUG] Trying to load chat history from: " + filePath);
-        java.io.File histFile = new java.io.File(filePath);
-        System.out.println("[DEBUG] History file exists: " + histFile.exists());
-        try {
-            List<Message> history = ChatHistoryManager.loadHistory(filePath);
-            if (!history.isEmpty()) {
-                for (Message msg : history) {
-                    String now = msg.getTimestamp() != null ? msg.getTimestamp().toString() : "";
-                    String content;
-                    if (msg.getType() == Message.Type.AUDIO) {
-                        content = "[Mensaje de voz]";
-                    } else {
-                        content = msg.getContent();
-                    }
-                    messages.add("[" + now + "] " + msg.getFrom().getUsername() + ": " + content);
+        if (current != null && !current.loaded && !current.name.equals(chatName)) {
+            conversations.remove(current.name);
+            current.close();
+        }
+        OpenConversation conv = conversations.get(chatName);
+        if (conv == null) {
+            conv = new OpenConversation(chatName);
+            String filePath = userdataDir + "/" + user.getUsername() + "/history/" + chatName + ".json";
+            OpenConversation opened = conv;
+            conv.session = historyLoader.open(filePath, (session, items, newest, hasOlder) ->
+                Platform.runLater(() -> showHistoryPage(opened, session, items, newest)));
+            conversations.put(chatName, conv);
+        }
+        current = conv;
+        messages = conv.items;
+        messageListView.setItems(messages);
+        if (!messages.isEmpty()) messageListView.scrollTo(messages.size() - 1);
+    }
+
+    private void showHistoryPage(OpenConversation conv, HistoryLoader<ChatMessageItem>.Session session,
+                                 List<ChatMessageItem> items, boolean newest) {
+        // Una página de una carga cancelada (conversación descartada) se ignora
+        if (session != conv.session || session.isCancelled()) return;
+        boolean shownNow = conv == current;
+        if (newest) {
+            // Lo recibido mientras se leía el archivo ya está en la lista y puede estar también en el archivo
+            Set<String> shown = new HashSet<>();
+            for (ChatMessageItem item : conv.items) {
+                if (item.getMessageId() != null) shown.add(item.getMessageId());
+            }
+            if (!shown.isEmpty()) {
+                items = new ArrayList<>(items);
+                items.removeIf(item -> item.getMessageId() != null && shown.contains(item.getMessageId()));
+            }
+            conv.items.addAll(0, items);
+            conv.loaded = true;
+            if (shownNow) messageListView.scrollTo(conv.items.size() - 1);
+        } else {
+            conv.items.addAll(0, items);
+            // Deja arriba el mensaje que estaba arriba antes de agregar la página
+            if (shownNow) messageListView.scrollTo(items.size());
+        }
+    }
+
+    /** Pide la página anterior del historial si la lista está arriba del todo. */
+    private void loadOlderHistoryAtTop() {
+        if (current == null || current.session == null || !current.session.hasOlder()) return;
+        ScrollBar bar = messageScrollBar();
+        if (bar == null || bar.getValue() <= bar.getMin()) {
+            current.session.loadOlder();
+        }
+    }
+
+    private ScrollBar messageScrollBar() {
+        if (messageScrollBar == null) {
+            for (javafx.scene.Node node : messageListView.lookupAll(".scroll-bar")) {
+                if (node instanceof ScrollBar && ((ScrollBar) node).getOrientation() == javafx.geometry.Orientation.VERTICAL) {
+                    messageScrollBar = (ScrollBar) node;
+                    messageScrollBar.valueProperty().addListener((obs, oldValue, value) -> loadOlderHistoryAtTop());
                 }
             }
-          
-        } catch (Exception e) {
-            messages.add("[Error al leer historial: " + e.getMessage() + "]");
         }
-        messageListView.scrollTo(messages.size() - 1);
+        return messageScrollBar;
     }
 
 
@@ -729,14 +985,26 @@ public class ChatView extends BorderPane {
             microphone = (TargetDataLine) AudioSystem.getLine(info);
             microphone.open(format);
             microphone.start();
-            audioOut = new ByteArrayOutputStream();
+            // La grabación va directamente a disco; el nombre usa la clave de idempotencia del mensaje
+            recordingMessageId = java.util.UUID.randomUUID().toString();
+            File audioDir = new File(userdataDir + "/" + user.getUsername() + "/history/audio/");
+            if (!audioDir.exists()) audioDir.mkdirs();
+            recordingFile = new File(audioDir, user.getUsername() + "_" + recordingMessageId + ".wav");
+            recorder = new WavFileWriter(recordingFile, format, voiceNoteCodec());
+            recordingPeaks = new WaveformPeaks(format.getSampleRate());
             isRecording = true;
             recordingThread = new Thread(() -> {
                 byte[] buffer = new byte[4096];
                 while (isRecording) {
                     int count = microphone.read(buffer, 0, buffer.length);
                     if (count > 0) {
-                        audioOut.write(buffer, 0, count);
+                        try {
+                            recorder.write(buffer, 0, count);
+                            recordingPeaks.add(buffer, 0, count);
+                        } catch (IOException e) {
+                            System.err.println("[ERROR] No se pudo escribir la grabación: " + e.getMessage());
+                            isRecording = false;
+                        }
                     }
                 }
             });
@@ -754,10 +1022,11 @@ public class ChatView extends BorderPane {
             microphone.stop();
             microphone.close();
             recordingThread.join();
-            byte[] audioBytes = audioOut.toByteArray();
-            audioOut.close();
+            recorder.close();
+            long samples = recorder.getSampleCount();
+            ChatMessageItem noteItem = null;
             // Enviar mensaje de voz
-            if (audioBytes.length > 1000) { // Solo envía si hay audio real
+            if (samples > 500) { // Solo envía si hay audio real
                 ChatListItem selectedChatItem = chatListView.getSelectionModel().getSelectedItem();
                 if (selectedChatItem == null) {
                     System.err.println("[ADVERTENCIA] No hay chat seleccionado. No se puede enviar mensaje de audio.");
@@ -772,66 +1041,105 @@ public class ChatView extends BorderPane {
                 System.out.println("  From: " + (user != null ? user.getUsername() : "null"));
                 System.out.println("  To:   " + (toUser != null ? toUser.getUsername() : "null"));
                 if (onSendMessage != null) {
-                    // Generar el timestamp UNA SOLA VEZ
                     java.time.LocalDateTime now = java.time.LocalDateTime.now();
-                    String timestampStr = now.toString();
-                    String safeTimestamp = timestampStr.replaceAll("[:.]", "-");
-                    String audioDir = userdataDir + "/" + user.getUsername() + "/history/audio/";
-                    File dir = new File(audioDir);
-                    if (!dir.exists()) dir.mkdirs();
-                    String wavFileName = user.getUsername() + "_" + safeTimestamp + ".wav";
-                    String wavPath = audioDir + wavFileName;
+                    File wavFile = recordingFile;
                     AudioFormat format = new AudioFormat(16000.0f, 16, 1, true, false);
-                    // Log tamaño y duración estimada
-                    System.out.println("[DEBUG] Tamaño buffer PCM: " + audioBytes.length + " bytes");
-                    double durationSec = audioBytes.length / (format.getSampleRate() * format.getFrameSize());
+                    // Log duración estimada
+                    Codec codec = voiceNoteCodec();
+                    double durationSec = samples / format.getSampleRate();
                     System.out.println("[DEBUG] Duración estimada: " + durationSec + " segundos");
-                    // Guardar buffer PCM crudo para análisis externo
-                    String pcmPath = audioDir + user.getUsername() + "_" + safeTimestamp + ".pcm";
-                    try (FileOutputStream fos = new FileOutputStream(pcmPath)) {
-                        fos.write(audioBytes);
-                        System.out.println("[DEBUG] Buffer PCM guardado en: " + pcmPath);
-                    } catch (Exception e) {
-                        System.err.println("[ERROR] No se pudo guardar el buffer PCM: " + e.getMessage());
-                    }
-                    // Dump de los primeros bytes del buffer PCM
-                    AudioUtils.dumpBytes(audioBytes, 64);
-                    AudioUtils.writeWavManual(audioBytes, new File(wavPath), format.getSampleRate(), format.getSampleSizeInBits(), format.getChannels());
                     // Dump de los primeros bytes del archivo WAV generado
-                    AudioUtils.dumpFileBytes(new File(wavPath), 64);
-                    if (!AudioUtils.isValidWav(new File(wavPath))) {
-                        System.err.println("[ERROR] Archivo WAV generado es inválido/corrupto: " + wavPath);
+                    AudioUtils.dumpFileBytes(wavFile, 64);
+                    if (!AudioUtils.isValidWav(wavFile)) {
+                        System.err.println("[ERROR] Archivo WAV generado es inválido/corrupto: " + wavFile);
                         return;
                     }
-                    // Mensaje para historial (con path relativo)
-                    String relativePath = "history/audio/" + wavFileName;
-                    // Mensaje para red: incluye los bytes y la ruta
+                    // Cabecera para red e historial (con path relativo); el audio viaja por fragmentos
+                    String relativePath = "history/audio/" + wavFile.getName();
                     Message audioMsg = new Message(
                         user, toUser,
                         Message.Type.AUDIO,
-                        "[Audio message]", now, // Usa el mismo timestamp para el mensaje
-                        audioBytes,
-                        new AudioFormatWrapper(new AudioFormat(16000.0f, 16, 1, true, false))
+                        "[Audio message]", now,
+                        relativePath,
+                        new AudioFormatWrapper(format, codec)
                     );
-                    audioMsg.setAudioFilePath(relativePath); // Para el historial y el receptor
-                    onSendMessage.accept(toUser, audioMsg);
+                    audioMsg.setMessageId(recordingMessageId); // Misma clave que el nombre del archivo
+                    audioMsg.setAudioSize(wavFile.length());
+                    // Duración y forma de onda calculadas una vez aquí; el resto solo las dibuja
+                    audioMsg.setAudioDurationMillis(recordingPeaks.getDurationMillis());
+                    audioMsg.setAudioPeaks(recordingPeaks.toPeaks(WaveformPeaks.DEFAULT_BARS));
+                    noteItem = itemFor(audioMsg);
+                    touchChat(audioMsg);
+                    // El archivo se lee al enviarse, desde el hilo de la cola de salida
+                    outbound.send(VoiceNoteTransfer.upload(audioMsg, wavFile), null);
                     // Guardar en historial local SOLO UNA VEZ
-                    try {
-                        String filePath = userdataDir + "/" + user.getUsername() + "/history/" + toUser.getUsername() + ".json";
-                        MessageHistoryUtil.saveMessageToHistory(filePath, audioMsg);
-                    } catch (Exception e) {
-                        System.err.println("[ERROR] No se pudo guardar el mensaje de audio en el historial: " + e.getMessage());
-                    }
+                    String filePath = userdataDir + "/" + user.getUsername() + "/history/" + toUser.getUsername() + ".json";
+                    historyWriter.append(filePath, audioMsg);
                 }
+            } else {
+                recordingFile.delete();
             }
     
-            messages.add("[" + LocalDateTime.now().toString() + "] " + user.getUsername() + ": [Mensaje de voz]");
-            messageListView.scrollTo(messages.size() - 1);
+            if (noteItem != null) {
+                messages.add(noteItem);
+                messageListView.scrollTo(messages.size() - 1);
+            }
         } catch (Exception ex) {
             ex.printStackTrace();
         }
     }
 
+    /**
+     * Crea el elemento de la conversación de un mensaje, con el archivo de la nota de voz
+     * ya resuelto en la carpeta del usuario.
+     */
+    private ChatMessageItem itemFor(Message msg) {
+        File audioFile = null;
+        if (msg.getType() == Message.Type.AUDIO) {
+            String sender = msg.getFrom().getUsername();
+            if (msg.getAudioFilePath() != null) {
+                audioFile = new File(userdataDir + "/" + user.getUsername() + "/" + msg.getAudioFilePath());
+            } else if (msg.getTimestamp() != null) {
+                // Notas antiguas sin ruta: el nombre se deducía del remitente y la fecha
+                String safeDate = msg.getTimestamp().toString().replaceAll("[:.]", "-");
+                String owner = sender.equals(user.getUsername()) ? user.getUsername() : sender;
+                audioFile = new File(userdataDir + "/" + owner + "/history/audio/" + sender + "_" + safeDate + ".wav");
+            }
+        }
+        return ChatMessageItem.of(msg, user.getUsername(), audioFile);
+    }
+
+    /**
+     * Códec de las notas de voz grabadas. Por defecto IMA-ADPCM (~4:1 frente a PCM);
+     * se puede cambiar con la propiedad {@code voicenote.codec} (PCM, ULAW o IMA_ADPCM).
+     */
+    private static Codec voiceNoteCodec() {
+        String name = System.getProperty("voicenote.codec", Codec.IMA_ADPCM.name());
+        try {
+            return Codec.valueOf(name.trim().toUpperCase());
+        } catch (IllegalArgumentException e) {
+            System.err.println("[ADVERTENCIA] Códec de nota de voz desconocido: " + name + ", se usa IMA_ADPCM");
+            return Codec.IMA_ADPCM;
+        }
+    }
+
+    /**
+     * Muestra u oculta el aviso de conexión perdida en la cabecera. Lo que se escriba
+     * mientras tanto queda en la cola de salida y se envía al reconectar.
+     * @param status Texto del aviso, o null si hay conexión
+     */
+    public void setConnectionStatus(String status) {
+        connectionLabel.setText(status != null ? status : "");
+        connectionLabel.setVisible(status != null);
+    }
+
+    /**
+     * Devuelve el receptor de notas de voz por fragmentos, usado por el hilo receptor de mensajes.
+     */
+    public VoiceNoteTransfer getVoiceNoteTransfer() {
+        return voiceNotes;
+    }
+
 
     private void refreshChatList() {
 
@@ -842,7 +1150,7 @@ public class ChatView extends BorderPane {
         if (filter.isEmpty()) {
             chatListView.setItems(allChats);
         } else {
-            chatListView.setItems(allChats.filtered(chat -> chat.getDisplayName().toLowerCase().contains(filter)));
+            chatListView.setItems(FXCollections.observableArrayList(chatIndex.search(filter)));
         }
 
 
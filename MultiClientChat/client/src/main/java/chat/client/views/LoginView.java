@@ -7,15 +7,10 @@ import javafx.scene.layout.BorderPane;
 import javafx.scene.layout.VBox;
 import javafx.scene.text.Text;
 
-import java.io.File;
-import java.nio.charset.StandardCharsets;
-import java.security.MessageDigest;
 import java.util.function.Consumer;
 
-import chat.common.util.ChatUtils;
 import chat.common.model.User;
-import chat.common.util.JSONUtil;
-import java.io.IOException;
+import chat.common.util.UserDirectory;
 
 /**
  * Vista de inicio de sesión del cliente de chat.
@@ -64,52 +59,34 @@ public class LoginView extends BorderPane {
         loginBox.getChildren().addAll(title, userLabel, userField, loginButton, errorLabel);
         this.setCenter(loginBox);
         this.setStyle("-fx-background-color: #f4f6fb;");
+
+        // El registro de usuarios se carga mientras se escribe el nombre
+        Thread preload = new Thread(() -> UserDirectory.of(resolveUserdataDir()).load(), "UserDirectory-Load");
+        preload.setDaemon(true);
+        preload.start();
     }
 
-    private void handleLogin(Consumer<User> onLogin) {
-        String entered = userField.getText().trim();
-        if (entered.isEmpty()) {
-            errorLabel.setText("Debe ingresar un nombre de usuario.");
-            return;
-        }
-        String userdataDir;
+    private static String resolveUserdataDir() {
         try {
             String prop = System.getProperty("userdata.dir");
             if (prop != null) {
-                userdataDir = new java.io.File(prop).getCanonicalPath();
+                return new java.io.File(prop).getCanonicalPath();
             } else {
-                userdataDir = new java.io.File("../userdata").getCanonicalPath();
+                return new java.io.File("../userdata").getCanonicalPath();
             }
         } catch (java.io.IOException e) {
             throw new RuntimeException("Failed to resolve userdata dir", e);
         }
-        File baseDir = new File(userdataDir);
-        File[] userDirs = baseDir.listFiles(File::isDirectory);
-        boolean found = false;
-        String matchedDir = null;
-        User user = null;
-        if (userDirs != null) {
-            for (File dir : userDirs) {
-                if (ChatUtils.getBaseName(dir.getName()).equals(entered)) {
-                    found = true;
-                    matchedDir = dir.getName();
-                    try {
-                        user = JSONUtil.readFromJsonFile(userdataDir + "/" + matchedDir + "/user.json", User.class);
-                    } catch (IOException e) {
-                        errorLabel.setText("Error leyendo datos de usuario");
-                        e.printStackTrace();
-                        return;
-                    }
-                    break;
-                }
-            }
-        }
-        if (!found) {
+    }
 
-            String safeName = ChatUtils.ensureUserExists(entered, userdataDir);
-            matchedDir = safeName;
-            user = new User(safeName, entered);
+    private void handleLogin(Consumer<User> onLogin) {
+        String entered = userField.getText().trim();
+        if (entered.isEmpty()) {
+            errorLabel.setText("Debe ingresar un nombre de usuario.");
+            return;
         }
+        // Búsqueda en el registro en memoria; si no existe, se crea el perfil local
+        User user = UserDirectory.of(resolveUserdataDir()).register(entered);
         errorLabel.setText("");
        
         onLogin.accept(user);
@@ -1,21 +1,26 @@
 package chat.client.views;
 
+import chat.client.model.ChatMessageItem;
+
+import javafx.application.Platform;
 import javafx.geometry.Pos;
+import javafx.scene.canvas.Canvas;
+import javafx.scene.canvas.GraphicsContext;
+import javafx.scene.control.Alert;
+import javafx.scene.control.Button;
 import javafx.scene.control.Label;
 import javafx.scene.control.ListCell;
+import javafx.scene.control.Slider;
 import javafx.scene.layout.HBox;
 import javafx.scene.layout.Region;
 import javafx.scene.layout.StackPane;
-
+import javafx.scene.layout.VBox;
+import javafx.scene.paint.Color;
+import javafx.scene.text.Font;
 import javafx.scene.text.Text;
 import javafx.scene.text.TextFlow;
 
-import java.util.regex.Pattern;
-import java.util.regex.Matcher;
 import java.io.File;
-import javax.sound.sampled.AudioSystem;
-import javax.sound.sampled.AudioInputStream;
-import javax.sound.sampled.Clip;
 
 
 /**
@@ -27,186 +32,324 @@ import javax.sound.sampled.Clip;
  * Características:
  * - Distingue entre mensajes propios y de otros usuarios.
  * - Aplica estilos distintos para burbujas de mensajes (colores, alineación).
- * - Reproduce mensajes de voz si el contenido corresponde a "[Mensaje de voz]".
+ * - Reproduce mensajes de voz con pausa y una barra para saltar; el audio se lee del
+ *   disco mientras suena (ver {@link VoiceNotePlayer}). La duración y la forma de onda
+ *   vienen en el mensaje, así que se muestran sin abrir el archivo.
  *
- * Requiere que se establezca el nombre de usuario actual para determinar el origen
- * de cada mensaje mediante `setCurrentUsername(String username)`.
- *
- * El mensaje debe seguir el formato:
- *   "[yyyy-MM-ddTHH:mm:ss] usuario: contenido"
- * Donde el contenido puede ser texto plano o el marcador "[Mensaje de voz]".
+ * Cada celda arma una sola vez los nodos de una burbuja de texto, una de voz y un aviso,
+ * y en {@link #updateItem} solo les copia los valores del {@link ChatMessageItem}, que ya
+ * viene con la hora formateada y el archivo de audio resuelto. Los estilos son constantes,
+ * de modo que al reciclar la celda no se vuelve a analizar CSS si no cambia el lado de la
+ * burbuja, y el ancho del texto se mide una vez por mensaje.
  *
  * Ejemplo de uso:
- *   messageListView.setCellFactory(param -> {
- *       MessageCell cell = new MessageCell();
- *       cell.setCurrentUsername(usuarioActual);
- *       return cell;
- *   });
+ *   messageListView.setCellFactory(param -> new MessageCell());
  */
+public class MessageCell extends ListCell<ChatMessageItem> {
+    private static final double MIN_BUBBLE_WIDTH = 60;
+    private static final double MAX_BUBBLE_WIDTH = 340;
+    private static final double VOICE_BUBBLE_WIDTH = 220;
+    private static final double WAVEFORM_WIDTH = 110;
+    private static final double WAVEFORM_HEIGHT = 20;
+
+    private static final String CELL_OWN = "-fx-alignment: CENTER-RIGHT; -fx-padding: 4 20 4 20; -fx-background-color: transparent; -fx-border-width: 0;";
+    private static final String CELL_OTHER = "-fx-alignment: CENTER-LEFT; -fx-padding: 4 20 4 20; -fx-background-color: transparent; -fx-border-width: 0;";
+    private static final String CELL_NOTICE = "-fx-alignment: CENTER; -fx-padding: 4 20 4 20; -fx-background-color: transparent; -fx-border-width: 0;";
+    private static final String CELL_EMPTY = "-fx-padding: 0; -fx-background-color: transparent; -fx-border-width: 0; -fx-min-height: 0; -fx-pref-height: 0;";
+    private static final String BG_OWN = "-fx-background-color: #4f8cff; -fx-background-radius: 14px; -fx-effect: dropshadow(gaussian, #e0e0e0, 2, 0, 0, 1);";
+    private static final String BG_OTHER = "-fx-background-color: #ededed; -fx-background-radius: 14px; -fx-effect: dropshadow(gaussian, #e0e0e0, 2, 0, 0, 1);";
+    private static final String TEXT_OWN = "-fx-fill: white; -fx-font-size: 15px;";
+    private static final String TEXT_OTHER = "-fx-fill: #222; -fx-font-size: 15px;";
+    private static final String HOUR_OWN = "-fx-font-size: 10px; -fx-fill: #e0e0e0;";
+    private static final String HOUR_OTHER = "-fx-font-size: 10px; -fx-fill: #888;";
+    private static final String TIME_OWN = "-fx-font-size: 12px; -fx-text-fill: white;";
+    private static final String TIME_OTHER = "-fx-font-size: 12px; -fx-text-fill: #222;";
+    private static final Color BAR_OWN = Color.web("#a9c6ff");
+    private static final Color BAR_OWN_PLAYED = Color.web("#ffffff");
+    private static final Color BAR_OTHER = Color.web("#b0b0b0");
+    private static final Color BAR_OTHER_PLAYED = Color.web("#4f8cff");
 
+    // Burbuja de texto
+    private final Text textMsg = new Text();
+    private final TextFlow msgFlow = new TextFlow(textMsg);
+    private final Text textHour = new Text();
+    private final StackPane textStack = new StackPane(msgFlow, textHour);
+    private final Region textBg = new Region();
+    private final StackPane textBubble = new StackPane(textBg, textStack);
+    /** Nodo fuera de escena para medir el ancho de los textos nuevos. */
+    private final Text measure = new Text();
 
-public class MessageCell extends ListCell<String> {
-    private String currentUsername;
-    public void setCurrentUsername(String username) {
-        this.currentUsername = username;
+    // Burbuja de voz
+    private final Button playButton = new Button("▶");
+    private final Slider progress = new Slider(0, 1, 0);
+    private final Canvas waveform = new Canvas(WAVEFORM_WIDTH, WAVEFORM_HEIGHT);
+    private final Label timeLabel = new Label();
+    private final Text voiceHour = new Text();
+    private final Region voiceBg = new Region();
+    private final StackPane voiceBubble;
+
+    // Aviso
+    private final Label noticeLabel = new Label();
+
+    // Reproductor al que está atada la celda y el aviso que le dejó
+    private VoiceNotePlayer boundPlayer;
+    private VoiceNotePlayer.Listener boundListener;
+    private boolean updatingProgress = false;
+
+    public MessageCell() {
+        textMsg.setFont(Font.font(15));
+        measure.setFont(Font.font(15));
+        msgFlow.setStyle("-fx-padding: 0; -fx-background-color: transparent;");
+        StackPane.setAlignment(msgFlow, Pos.CENTER_LEFT);
+        StackPane.setAlignment(textHour, Pos.BOTTOM_RIGHT);
+        textStack.setMinHeight(32);
+        textStack.setStyle("-fx-padding: 6 12 6 12;");
+        textBg.setMinHeight(32);
+        textBubble.setStyle("-fx-padding: 0; -fx-font-size: 15px;");
+
+        playButton.setStyle("-fx-background-radius: 50%; -fx-background-color: #d2e7ff; -fx-font-size: 13px; -fx-padding: 2 8 2 8;");
+        playButton.setFocusTraversable(false);
+        progress.setFocusTraversable(false);
+        progress.setPrefWidth(WAVEFORM_WIDTH);
+        VBox track = new VBox(0, waveform, progress);
+        track.setAlignment(Pos.CENTER_LEFT);
+        HBox msgBox = new HBox(4, playButton, track, timeLabel);
+        msgBox.setAlignment(Pos.CENTER_LEFT);
+        StackPane voiceStack = new StackPane(msgBox, voiceHour);
+        StackPane.setAlignment(msgBox, Pos.CENTER_LEFT);
+        StackPane.setAlignment(voiceHour, Pos.BOTTOM_RIGHT);
+        voiceStack.setMinWidth(VOICE_BUBBLE_WIDTH);
+        voiceStack.setMaxWidth(VOICE_BUBBLE_WIDTH);
+        voiceStack.setMinHeight(32);
+        voiceStack.setStyle("-fx-padding: 6 12 6 12;");
+        voiceBg.setMinWidth(VOICE_BUBBLE_WIDTH);
+        voiceBg.setMaxWidth(VOICE_BUBBLE_WIDTH);
+        voiceBg.setMinHeight(32);
+        voiceBubble = new StackPane(voiceBg, voiceStack);
+        voiceBubble.setMinWidth(VOICE_BUBBLE_WIDTH);
+        voiceBubble.setMaxWidth(VOICE_BUBBLE_WIDTH);
+        voiceBubble.setStyle("-fx-padding: 0; -fx-font-size: 15px;");
+
+        noticeLabel.setStyle("-fx-font-size: 12px; -fx-text-fill: #888;");
+        noticeLabel.setWrapText(true);
+
+        playButton.setOnAction(e -> {
+            VoiceNotePlayer player = playerForItem();
+            if (player == null) return;
+            if (player.getState() == VoiceNotePlayer.State.PLAYING) {
+                player.pause();
+            } else {
+                player.play();
+            }
+        });
+        // Saltar al soltar el control o al pulsar en la barra, no mientras avanza solo
+        progress.valueChangingProperty().addListener((obs, was, changing) -> {
+            if (!changing) seekToSlider();
+        });
+        progress.valueProperty().addListener((obs, oldValue, newValue) -> {
+            ChatMessageItem item = getItem();
+            if (item != null) drawWaveform(item, newValue.doubleValue());
+            if (!updatingProgress && !progress.isValueChanging()) seekToSlider();
+        });
     }
+
     @Override
-    protected void updateItem(String item, boolean empty) {
+    protected void updateItem(ChatMessageItem item, boolean empty) {
         super.updateItem(item, empty);
+        unbindPlayer();
+        setText(null);
         if (empty || item == null) {
-            setText(null);
             setGraphic(null);
-            setStyle("-fx-padding: 0; -fx-background-color: transparent; -fx-border-width: 0; -fx-min-height: 0; -fx-pref-height: 0;");
+            setStyle(CELL_EMPTY);
             return;
         }
-        String regex = "^\\[(.*?)\\] (.*?): (.*)$";
-        java.util.regex.Pattern pattern = java.util.regex.Pattern.compile(regex);
-        java.util.regex.Matcher matcher = pattern.matcher(item);
-        String formattedTime = "";
-        String sender;
-        String message = item;
-        if (matcher.matches()) {
-            String dateHour = matcher.group(1);
-            sender = matcher.group(2);
-            message = matcher.group(3);
-            try {
-                java.time.LocalDateTime date = java.time.LocalDateTime.parse(dateHour);
-                java.time.format.DateTimeFormatter formatter = java.time.format.DateTimeFormatter.ofPattern("HH:mm");
-                formattedTime = date.format(formatter);
-            } catch (Exception ex) {
-                formattedTime = dateHour;
-            }
-        } else {
-            sender = "";
+        switch (item.getKind()) {
+            case VOICE_NOTE:
+                showVoiceNote(item);
+                break;
+            case NOTICE:
+                noticeLabel.setText(item.getText());
+                setGraphic(noticeLabel);
+                setStyle(CELL_NOTICE);
+                break;
+            default:
+                showText(item);
+                break;
         }
-        boolean isOwn = currentUsername != null && sender.equals(currentUsername);
-        if (message.equals("[Mensaje de voz]")) {
-            Label audioLabel = new Label("[Mensaje de voz]");
-            audioLabel.setStyle("-fx-font-size: 15px; -fx-text-fill: " + (isOwn ? "white" : "#222") + ";");
-            javafx.scene.control.Button playButton = new javafx.scene.control.Button("▶");
-            playButton.setStyle("-fx-background-radius: 50%; -fx-background-color: #d2e7ff; -fx-font-size: 13px; -fx-padding: 2 8 2 8;");
-            playButton.setFocusTraversable(false);
-            playButton.setOnAction(e -> {
-                try {
-                    // Buscar el archivo usando el path exacto guardado en audioFilePath (del historial)
-                    // Se asume que el objeto Message está accesible o que el path puede ser pasado/obtenido de alguna forma
-                    // Aquí, se recomienda usar una función/callback para obtener el audioFilePath real del mensaje
-                    String audioFilePath = null;
-                    if (getItem() != null && getItem().contains("audioFilePath")) {
-                        // Si el string del item contiene el path, extraerlo con regex json
-                        java.util.regex.Pattern pathPattern = java.util.regex.Pattern.compile("\\\"audioFilePath\\\"\\s*:\\s*\\\"([^\\\"]+)\\\"");
-                        java.util.regex.Matcher pathMatcher = pathPattern.matcher(getItem());
-                        if (pathMatcher.find()) {
-                            audioFilePath = pathMatcher.group(1);
-                        }
-                    }
-                    if (audioFilePath == null) {
-                        // Fallback a la lógica anterior (por compatibilidad)
-                        String audioRegex = "^\\[(.*?)\\] (.*?): \\[Mensaje de voz\\]$";
-                        java.util.regex.Pattern p = java.util.regex.Pattern.compile(audioRegex);
-                        java.util.regex.Matcher m = p.matcher(item);
-                        if (m.matches()) {
-                            String dateHour = m.group(1);
-                            String senderName = m.group(2);
-                            String safeDate = dateHour.replaceAll("[:.]", "-");
-                            System.out.println("safeDate: " + safeDate);
-                            audioFilePath = "history/audio/" + senderName + "_" + safeDate + ".wav";
-                        }
-                    }
-                    if (audioFilePath != null) {
-                        String wavPath = "userdata/" + (isOwn ? currentUsername : sender) + "/" + audioFilePath;
-                        java.io.File wavFile = new java.io.File(wavPath);
-                        if (!wavFile.exists()) {
-                            javafx.scene.control.Alert alert = new javafx.scene.control.Alert(javafx.scene.control.Alert.AlertType.ERROR);
-                            alert.setTitle("Audio no encontrado");
-                            alert.setHeaderText(null);
-                            alert.setContentText("No se encontró el archivo de audio: " + wavFile.getAbsolutePath());
-                            alert.showAndWait();
-                            return;
-                        }
-                        javax.sound.sampled.AudioInputStream audioStream = javax.sound.sampled.AudioSystem.getAudioInputStream(wavFile);
-                        javax.sound.sampled.Clip clip = javax.sound.sampled.AudioSystem.getClip();
-                        clip.open(audioStream);
-                        clip.start();
-                    } else {
-                        javafx.scene.control.Alert alert = new javafx.scene.control.Alert(javafx.scene.control.Alert.AlertType.ERROR);
-                        alert.setTitle("Error de reproducción");
-                        alert.setHeaderText(null);
-                        alert.setContentText("No se pudo determinar la ruta del archivo de audio.");
-                        alert.showAndWait();
-                    }
-                } catch (Exception ex) {
-                    javafx.scene.control.Alert alert = new javafx.scene.control.Alert(javafx.scene.control.Alert.AlertType.ERROR);
-                    alert.setTitle("Error de reproducción");
-                    alert.setHeaderText(null);
-                    alert.setContentText("No se pudo reproducir el audio: " + ex.getMessage());
-                    alert.showAndWait();
-                }
-            });
-            HBox msgBox = new HBox(8, audioLabel, playButton);
-            msgBox.setAlignment(Pos.CENTER_LEFT);
-            msgBox.setSpacing(4);
-            double bubbleWidth = 200;
-            Text textHour = new Text(formattedTime);
-            textHour.setStyle("-fx-font-size: 10px; -fx-fill: " + (isOwn ? "#e0e0e0" : "#888") + ";");
-            StackPane stack = new StackPane(msgBox);
-            StackPane.setAlignment(msgBox, Pos.CENTER_LEFT);
-            StackPane.setAlignment(textHour, Pos.BOTTOM_RIGHT);
-            stack.getChildren().add(textHour);
-            stack.setMinWidth(bubbleWidth);
-            stack.setMaxWidth(bubbleWidth);
-            stack.setMinHeight(32);
-            stack.setStyle("-fx-padding: 6 12 6 12;");
-            Region bubbleBg = new Region();
-            bubbleBg.setMinWidth(bubbleWidth);
-            bubbleBg.setMaxWidth(bubbleWidth);
-            bubbleBg.setMinHeight(32);
-            bubbleBg.setStyle("-fx-background-color: " + (isOwn ? "#4f8cff" : "#ededed") + "; -fx-background-radius: 14px; -fx-effect: dropshadow(gaussian, #e0e0e0, 2, 0, 0, 1);");
-            StackPane bubble = new StackPane(bubbleBg, stack);
-            bubble.setMinWidth(bubbleWidth);
-            bubble.setMaxWidth(bubbleWidth);
-            bubble.setStyle("-fx-padding: 0; -fx-font-size: 15px;");
-            setGraphic(bubble);
-            setText(null);
-            setStyle("-fx-alignment: " + (isOwn ? "CENTER-RIGHT" : "CENTER-LEFT") + "; -fx-padding: 4 20 4 20; -fx-background-color: transparent; -fx-border-width: 0;");
-            return;
+    }
+
+    private void showText(ChatMessageItem item) {
+        boolean own = item.isOwn();
+        textMsg.setText(item.getText());
+        textMsg.setStyle(own ? TEXT_OWN : TEXT_OTHER);
+        textHour.setText(item.getTime());
+        textHour.setStyle(own ? HOUR_OWN : HOUR_OTHER);
+        double textWidth = item.getTextWidth();
+        if (textWidth < 0) {
+            measure.setText(item.getText());
+            textWidth = measure.getLayoutBounds().getWidth();
+            item.setTextWidth(textWidth);
         }
-        // Mensaje de texto normal
-        Text textMsg = new Text(message);
-        textMsg.setStyle("-fx-fill: " + (isOwn ? "white" : "#222") + "; -fx-font-size: 15px;");
-        Text textHour = new Text(formattedTime);
-        textHour.setStyle("-fx-font-size: 10px; -fx-fill: " + (isOwn ? "#e0e0e0" : "#888") + ";");
-        HBox msgBox = new HBox();
-        msgBox.setAlignment(Pos.CENTER_LEFT);
-        msgBox.setSpacing(4);
-        double textWidth = textMsg.getLayoutBounds().getWidth();
-        double minBubbleWidth = 60;
-        double maxBubbleWidth = 340;
-        double bubbleWidth = Math.max(minBubbleWidth, Math.min(textWidth + 60, maxBubbleWidth));
-        TextFlow msgFlow = new TextFlow(textMsg);
+        double bubbleWidth = Math.max(MIN_BUBBLE_WIDTH, Math.min(textWidth + 60, MAX_BUBBLE_WIDTH));
         msgFlow.setMaxWidth(bubbleWidth - 40);
-        msgFlow.setStyle("-fx-padding: 0; -fx-background-color: transparent;");
-        StackPane stack = new StackPane(msgFlow);
-        StackPane.setAlignment(msgFlow, Pos.CENTER_LEFT);
-        Text textHourCopy = new Text(formattedTime);
-        textHourCopy.setStyle(textHour.getStyle());
-        StackPane.setAlignment(textHourCopy, Pos.BOTTOM_RIGHT);
-        stack.getChildren().add(textHourCopy);
-        stack.setMinWidth(bubbleWidth);
-        stack.setMaxWidth(bubbleWidth);
-        stack.setMinHeight(32);
-        stack.setStyle("-fx-padding: 6 12 6 12;");
-        Region bubbleBg = new Region();
-        bubbleBg.setMinWidth(bubbleWidth);
-        bubbleBg.setMaxWidth(bubbleWidth);
-        bubbleBg.setMinHeight(32);
-        bubbleBg.setStyle("-fx-background-color: " + (isOwn ? "#4f8cff" : "#ededed") + "; -fx-background-radius: 14px; -fx-effect: dropshadow(gaussian, #e0e0e0, 2, 0, 0, 1);");
-        StackPane bubble = new StackPane(bubbleBg, stack);
-        bubble.setMinWidth(bubbleWidth);
-        bubble.setMaxWidth(bubbleWidth);
-        bubble.setStyle("-fx-padding: 0; -fx-font-size: 15px;");
-        setGraphic(bubble);
-        setStyle("-fx-alignment: " + (isOwn ? "CENTER-RIGHT" : "CENTER-LEFT") + "; -fx-padding: 4 20 4 20; -fx-background-color: transparent; -fx-border-width: 0;");
-        setText(null);
+        textStack.setMinWidth(bubbleWidth);
+        textStack.setMaxWidth(bubbleWidth);
+        textBg.setMinWidth(bubbleWidth);
+        textBg.setMaxWidth(bubbleWidth);
+        textBg.setStyle(own ? BG_OWN : BG_OTHER);
+        textBubble.setMinWidth(bubbleWidth);
+        textBubble.setMaxWidth(bubbleWidth);
+        setGraphic(textBubble);
+        setStyle(own ? CELL_OWN : CELL_OTHER);
+    }
+
+    private void showVoiceNote(ChatMessageItem item) {
+        boolean own = item.isOwn();
+        voiceBg.setStyle(own ? BG_OWN : BG_OTHER);
+        voiceHour.setText(item.getTime());
+        voiceHour.setStyle(own ? HOUR_OWN : HOUR_OTHER);
+        timeLabel.setStyle(own ? TIME_OWN : TIME_OTHER);
+        // La duración viene en el mensaje; no hace falta abrir el archivo para mostrarla
+        timeLabel.setText(formatTime(item.getDurationMillis() / 1000));
+        boolean hasPeaks = item.getPeaks().length > 0;
+        waveform.setVisible(hasPeaks);
+        waveform.setManaged(hasPeaks);
+        playButton.setText("▶");
+        setProgress(0);
+        drawWaveform(item, 0);
+        // Si esta nota es la que está sonando, la celda toma el control
+        VoiceNotePlayer playing = VoiceNotePlayer.current();
+        if (item.getAudioFile() != null && playing != null && playing.getFile().equals(item.getAudioFile())) {
+            bindPlayer(playing);
+            showPosition(playing, playing.getPosition());
+            playButton.setText(playing.getState() == VoiceNotePlayer.State.PLAYING ? "⏸" : "▶");
+        }
+        setGraphic(voiceBubble);
+        setStyle(own ? CELL_OWN : CELL_OTHER);
+    }
+
+    /**
+     * Devuelve el reproductor de la nota de la celda, abriéndolo si no es la que está
+     * sonando. Muestra un error y devuelve null si el archivo no existe o no se puede leer.
+     */
+    private VoiceNotePlayer playerForItem() {
+        ChatMessageItem item = getItem();
+        if (item == null) return null;
+        File wavFile = item.getAudioFile();
+        if (wavFile == null) {
+            showError("Error de reproducción", "No se pudo determinar la ruta del archivo de audio.");
+            return null;
+        }
+        if (boundPlayer != null && boundPlayer.getFile().equals(wavFile)) return boundPlayer;
+        VoiceNotePlayer playing = VoiceNotePlayer.current();
+        if (playing != null && playing.getFile().equals(wavFile)) {
+            bindPlayer(playing);
+            return playing;
+        }
+        if (!wavFile.exists()) {
+            showError("Audio no encontrado", "No se encontró el archivo de audio: " + wavFile.getAbsolutePath());
+            return null;
+        }
+        try {
+            // Solo lee la cabecera; el audio se decodifica mientras suena
+            VoiceNotePlayer player = VoiceNotePlayer.open(wavFile);
+            bindPlayer(player);
+            return player;
+        } catch (Exception ex) {
+            showError("Error de reproducción", "No se pudo reproducir el audio: " + ex.getMessage());
+            return null;
+        }
+    }
+
+    private void seekToSlider() {
+        ChatMessageItem item = getItem();
+        if (item == null || item.getKind() != ChatMessageItem.Kind.VOICE_NOTE) return;
+        VoiceNotePlayer player = playerForItem();
+        if (player != null) player.seek((long) (progress.getValue() * player.getTotalFrames()));
+    }
+
+    private void bindPlayer(VoiceNotePlayer player) {
+        unbindPlayer();
+        VoiceNotePlayer.Listener listener = new VoiceNotePlayer.Listener() {
+            @Override
+            public void onPosition(long frame, long totalFrames) {
+                Platform.runLater(() -> {
+                    if (boundPlayer == player) showPosition(player, frame);
+                });
+            }
+
+            @Override
+            public void onStateChanged(VoiceNotePlayer.State state) {
+                Platform.runLater(() -> {
+                    if (boundPlayer != player) return;
+                    playButton.setText(state == VoiceNotePlayer.State.PLAYING ? "⏸" : "▶");
+                    // Detenida vuelve a mostrar la duración total
+                    if (state == VoiceNotePlayer.State.STOPPED) {
+                        timeLabel.setText(formatTime((long) (player.getTotalFrames() / player.getSampleRate())));
+                    }
+                });
+            }
+        };
+        player.setListener(listener);
+        boundPlayer = player;
+        boundListener = listener;
+    }
+
+    /** Suelta el reproductor si la celda pasa a mostrar otro mensaje. */
+    private void unbindPlayer() {
+        if (boundPlayer != null && boundPlayer.getListener() == boundListener) {
+            boundPlayer.setListener(null);
+        }
+        boundPlayer = null;
+        boundListener = null;
+    }
+
+    private void showPosition(VoiceNotePlayer player, long frame) {
+        if (!progress.isValueChanging()) {
+            setProgress(player.getTotalFrames() > 0 ? frame / (double) player.getTotalFrames() : 0);
+        }
+        timeLabel.setText(formatTime((long) (frame / player.getSampleRate())));
+    }
+
+    /** Mueve la barra sin que cuente como un salto pedido por el usuario. */
+    private void setProgress(double value) {
+        updatingProgress = true;
+        progress.setValue(value);
+        updatingProgress = false;
+    }
+
+    private static String formatTime(long seconds) {
+        return String.format("%d:%02d", seconds / 60, seconds % 60);
+    }
+
+    /**
+     * Dibuja las barras de la forma de onda, normalizadas al pico más alto de la nota; las
+     * que ya sonaron van con otro color.
+     */
+    private void drawWaveform(ChatMessageItem item, double played) {
+        byte[] peaks = item.getPeaks();
+        if (peaks.length == 0) return;
+        GraphicsContext g = waveform.getGraphicsContext2D();
+        double width = waveform.getWidth();
+        double height = waveform.getHeight();
+        g.clearRect(0, 0, width, height);
+        int max = 1;
+        for (byte peak : peaks) max = Math.max(max, peak);
+        double step = width / peaks.length;
+        boolean own = item.isOwn();
+        for (int i = 0; i < peaks.length; i++) {
+            double barHeight = Math.max(2, height * peaks[i] / max);
+            boolean done = (i + 0.5) / peaks.length <= played;
+            g.setFill(own ? (done ? BAR_OWN_PLAYED : BAR_OWN) : (done ? BAR_OTHER_PLAYED : BAR_OTHER));
+            g.fillRect(i * step, (height - barHeight) / 2, Math.max(1, step - 1), barHeight);
+        }
+    }
+
+    private static void showError(String title, String text) {
+        Alert alert = new Alert(Alert.AlertType.ERROR);
+        alert.setTitle(title);
+        alert.setHeaderText(null);
+        alert.setContentText(text);
+        alert.showAndWait();
     }
 }
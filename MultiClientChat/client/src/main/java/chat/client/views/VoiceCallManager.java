@@ -1,11 +1,18 @@
 package chat.client.views;
 
+import chat.client.logic.BitrateController;
+import chat.client.logic.JitterBuffer;
+import chat.client.logic.VoiceActivityDetector;
+import chat.client.logic.VoiceFrameCodec;
+import chat.common.util.VoicePacket;
+
 import javax.sound.sampled.*;
 import java.io.IOException;
-import java.net.DatagramPacket;
-import java.net.DatagramSocket;
 import java.net.InetAddress;
-import java.util.concurrent.atomic.AtomicBoolean;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.DatagramChannel;
 
 /**
  * VoiceCallManager gestiona llamadas de voz en tiempo real utilizando UDP.
@@ -15,8 +22,29 @@ import java.util.concurrent.atomic.AtomicBoolean;
  *
  * Características:
  * - Comunicación full-duplex por UDP entre dos pares.
- * - Transmisión con formato de audio PCM: 16 kHz, 16 bits, mono.
- * - Uso de threads dedicados para envío y recepción.
+ * - Captura y reproducción en PCM: 16 kHz, 16 bits, mono.
+ * - Uso de threads dedicados para envío, recepción y reproducción.
+ * - Cada paquete lleva secuencia y marca de tiempo ({@link VoicePacket}); el receptor los
+ *   pasa por un {@link JitterBuffer} que los reordena y oculta las pérdidas, y un hilo
+ *   aparte reproduce una trama por intervalo con un retardo acotado.
+ * - Tramas de 10, 20 o 40 ms, acordadas al negociar la llamada ({@code CallSignal#getFrameMillis}).
+ *   Las tramas cortas reducen la espera de captura a costa de más paquetes por segundo.
+ * - Supresión de silencios: un detector de voz por energía ({@link VoiceActivityDetector})
+ *   decide qué tramas se envían; en los silencios solo sale un paquete de ruido de confort
+ *   cada {@value #COMFORT_NOISE_INTERVAL_MILLIS} ms y el receptor genera el ruido.
+ *   Se puede desactivar con la propiedad {@code voicecall.vad=false}.
+ * - Sin creación de objetos por paquete: un {@link DatagramChannel} con buffers directos
+ *   reservados al iniciar, y las ranuras del jitter buffer reutilizadas en anillo, para que
+ *   una llamada larga no provoque pausas del recolector que se oigan como cortes.
+ *   Para detener la llamada se cierra el canal, lo que desbloquea los hilos.
+ * - Formato adaptativo: cada {@value #FEEDBACK_INTERVAL_MILLIS} ms el receptor informa de la
+ *   pérdida y la fluctuación que mide, y el {@link BitrateController} del emisor baja a μ-law,
+ *   a 8 kHz o a varias tramas por paquete cuando el enlace empeora, y vuelve a subir cuando
+ *   mejora. Se puede desactivar con la propiedad {@code voicecall.adaptive=false}.
+ * - Puede ir directo al otro extremo o a través del relé del servidor; en ese caso cada
+ *   paquete lleva el token que el servidor asignó en el ACCEPT.
+ * - El micrófono y los altavoces se pueden sustituir ({@link AudioSource}, {@link AudioSink}),
+ *   por ejemplo para medir la latencia sin hardware de audio.
  *
  * Uso típico:
  * - Crear una instancia con IP/puerto remoto y puerto local.
@@ -32,18 +60,56 @@ import java.util.concurrent.atomic.AtomicBoolean;
 
 public class VoiceCallManager {
 
-    private static final float SAMPLE_RATE = 16000.0f;
-    private static final int SAMPLE_SIZE = 16; 
-    private static final int CHANNELS = 1;
-    private static final int BUFFER_SIZE = 2048; 
-    private static final int PACKET_SIZE = 2048; 
+    /** Origen de las muestras PCM a enviar (el micrófono en una llamada real). */
+    public interface AudioSource {
+        /** Bloquea hasta tener {@code length} bytes; devuelve los leídos. */
+        int read(byte[] buffer, int offset, int length);
+        void close();
+    }
+
+    /** Destino de las muestras PCM recibidas (los altavoces en una llamada real). */
+    public interface AudioSink {
+        /** Bloquea mientras el buffer del dispositivo esté lleno. */
+        void write(byte[] buffer, int offset, int length);
+        void close();
+    }
+
+    public static final float SAMPLE_RATE = 16000.0f;
+    public static final int SAMPLE_SIZE = 16;
+    public static final int CHANNELS = 1;
+    /** Duraciones de trama admitidas, en milisegundos. */
+    public static final int[] SUPPORTED_FRAME_MILLIS = {10, 20, 40};
+    public static final int DEFAULT_FRAME_MILLIS = 20;
+    /** Profundidad del jitter buffer, en milisegundos. */
+    private static final int MIN_JITTER_MILLIS = 30;
+    private static final int MAX_JITTER_MILLIS = 200;
+    /** Buffer de los dispositivos de audio; lo mínimo para no cortar. */
+    private static final int LINE_BUFFER_MILLIS = 40;
+    /** Cada cuánto se repite el ruido de confort durante un silencio. */
+    private static final int COMFORT_NOISE_INTERVAL_MILLIS = 200;
+    /** Cada cuánto informa el receptor al emisor de la pérdida y la fluctuación. */
+    private static final int FEEDBACK_INTERVAL_MILLIS = 1000;
+
+    private final int frameMillis;
+    private final int samplesPerFrame;
+    private final int frameBytes;
 
-    private TargetDataLine microphone;
-    private SourceDataLine speakers;
-    private DatagramSocket udpSocket;
+    private AudioSource source;
+    private AudioSink sink;
+    private DatagramChannel channel;
     private Thread sendThread;
     private Thread receiveThread;
-    private AtomicBoolean running = new AtomicBoolean(false);
+    private Thread playoutThread;
+    private JitterBuffer jitterBuffer;
+    private int relayToken = 0;
+    private boolean voiceActivityDetection = !"false".equalsIgnoreCase(System.getProperty("voicecall.vad"));
+    private BitrateController bitrate;
+    private volatile long audioPacketsSent = 0;
+    private volatile long audioFramesSent = 0;
+    private volatile long feedbackPacketsSent = 0;
+    private volatile long comfortNoisePacketsSent = 0;
+    private volatile long framesSuppressed = 0;
+    private volatile long bytesSent = 0;
 
     private final InetAddress remoteAddress;
     private final int remotePort;
@@ -56,85 +122,343 @@ public class VoiceCallManager {
      * @param localPort Puerto UDP local para recibir (puede ser igual/remoto o aleatorio)
      */
     public VoiceCallManager(InetAddress remoteAddress, int remotePort, int localPort) {
+        this(remoteAddress, remotePort, localPort, DEFAULT_FRAME_MILLIS, null, null);
+    }
+
+    /**
+     * Crea un gestor de llamada de voz UDP con la duración de trama acordada.
+     * @param frameMillis Duración de cada trama (10, 20 o 40 ms)
+     * @param source Origen del audio; null para usar el micrófono
+     * @param sink Destino del audio; null para usar los altavoces
+     */
+    public VoiceCallManager(InetAddress remoteAddress, int remotePort, int localPort, int frameMillis,
+                            AudioSource source, AudioSink sink) {
         this.remoteAddress = remoteAddress;
         this.remotePort = remotePort;
         this.localPort = localPort;
+        this.frameMillis = supportedFrameMillis(frameMillis);
+        this.samplesPerFrame = (int) (SAMPLE_RATE * this.frameMillis / 1000);
+        this.frameBytes = samplesPerFrame * SAMPLE_SIZE / 8 * CHANNELS;
+        this.source = source;
+        this.sink = sink;
+    }
+
+    /**
+     * Devuelve la duración de trama a usar: la pedida si está admitida, o la predeterminada.
+     */
+    public static int supportedFrameMillis(int requested) {
+        for (int supported : SUPPORTED_FRAME_MILLIS) {
+            if (supported == requested) return requested;
+        }
+        return DEFAULT_FRAME_MILLIS;
+    }
+
+    /**
+     * Duración de trama preferida por este cliente (propiedad {@code voicecall.frameMillis}).
+     */
+    public static int preferredFrameMillis() {
+        return supportedFrameMillis(Integer.getInteger("voicecall.frameMillis", DEFAULT_FRAME_MILLIS));
+    }
+
+    public static AudioFormat getAudioFormat() {
+        return new AudioFormat(SAMPLE_RATE, SAMPLE_SIZE, CHANNELS, true, false);
     }
 
     /** Inicia la transmisión y recepción de audio. */
     public void start() throws Exception {
-        running.set(true);
-  
-        AudioFormat format = new AudioFormat(SAMPLE_RATE, SAMPLE_SIZE, CHANNELS, true, false);
-        DataLine.Info micInfo = new DataLine.Info(TargetDataLine.class, format);
-        microphone = (TargetDataLine) AudioSystem.getLine(micInfo);
-        microphone.open(format);
-        microphone.start();
+        int lineBufferBytes = Math.max(2, LINE_BUFFER_MILLIS / frameMillis) * frameBytes;
+        if (source == null) source = openMicrophone(lineBufferBytes);
+        if (sink == null) sink = openSpeakers(lineBufferBytes);
 
-        DataLine.Info spkInfo = new DataLine.Info(SourceDataLine.class, format);
-        speakers = (SourceDataLine) AudioSystem.getLine(spkInfo);
-        speakers.open(format);
-        speakers.start();
+        channel = DatagramChannel.open();
+        channel.bind(new InetSocketAddress(localPort));
 
-        udpSocket = new DatagramSocket(localPort);
+        int minDepth = Math.max(2, (MIN_JITTER_MILLIS + frameMillis - 1) / frameMillis);
+        int maxDepth = Math.max(minDepth + 1, MAX_JITTER_MILLIS / frameMillis);
+        jitterBuffer = new JitterBuffer(frameBytes, frameMillis, samplesPerFrame, minDepth, maxDepth);
 
-        sendThread = new Thread(() -> {
-            byte[] buffer = new byte[BUFFER_SIZE];
-            while (running.get()) {
-                int bytesRead = microphone.read(buffer, 0, buffer.length);
-                if (bytesRead > 0) {
-                    try {
-                        DatagramPacket packet = new DatagramPacket(buffer, bytesRead, remoteAddress, remotePort);
-                        udpSocket.send(packet);
-                    } catch (IOException e) {
-                        System.err.println("[VoiceCall] Error enviando paquete UDP: " + e.getMessage());
-                    }
-                }
-            }
-        }, "VoiceCall-SendThread");
+        bitrate = new BitrateController(frameMillis, SAMPLE_RATE);
+        int maxFrames = bitrate.maxFramesPerPacket();
+        int packetSize = VoicePacket.HEADER_SIZE + frameBytes * maxFrames;
+        InetSocketAddress remote = new InetSocketAddress(remoteAddress, remotePort);
+
+        sendThread = new Thread(() -> sendLoop(remote, packetSize, maxFrames), "VoiceCall-SendThread");
         sendThread.start();
 
         receiveThread = new Thread(() -> {
-            byte[] buffer = new byte[PACKET_SIZE];
-            while (running.get()) {
+            ByteBuffer packet = ByteBuffer.allocateDirect(packetSize);
+            byte[] payload = new byte[frameBytes * maxFrames];
+            byte[] pcm = new byte[frameBytes * maxFrames];
+            while (channel.isOpen()) {
                 try {
-                    DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
-                    udpSocket.receive(packet);
-
-                    speakers.write(packet.getData(), 0, packet.getLength());
+                    packet.clear();
+                    channel.receive(packet);
+                    packet.flip();
+                    if (!VoicePacket.isValid(packet)) {
+                        continue;
+                    }
+                    byte type = VoicePacket.getType(packet);
+                    if (type == VoicePacket.TYPE_COMFORT_NOISE && packet.limit() >= VoicePacket.HEADER_SIZE + VoicePacket.COMFORT_NOISE_PAYLOAD) {
+                        jitterBuffer.offerComfortNoise(VoicePacket.getSequence(packet), VoicePacket.getComfortNoiseLevel(packet));
+                        continue;
+                    }
+                    if (type == VoicePacket.TYPE_FEEDBACK && packet.limit() >= VoicePacket.HEADER_SIZE + VoicePacket.FEEDBACK_PAYLOAD) {
+                        bitrate.onFeedback(VoicePacket.getFeedbackLoss(packet), VoicePacket.getFeedbackJitterMillis(packet),
+                            VoicePacket.getFeedbackFrames(packet));
+                        continue;
+                    }
+                    if (type != VoicePacket.TYPE_AUDIO) {
+                        continue;
+                    }
+                    int sequence = VoicePacket.getSequence(packet);
+                    int timestamp = VoicePacket.getTimestamp(packet);
+                    int format = VoicePacket.getFormat(packet);
+                    packet.position(VoicePacket.HEADER_SIZE);
+                    if (format == 0) {
+                        jitterBuffer.offer(sequence, timestamp, packet);
+                        continue;
+                    }
+                    // Formato reducido: se decodifica cada trama a PCM antes del jitter buffer
+                    int frames = VoicePacket.framesOf(format);
+                    int encoded = VoiceFrameCodec.encodedBytes(format, frameBytes);
+                    frames = Math.min(frames, Math.min(maxFrames, packet.remaining() / encoded));
+                    packet.get(payload, 0, frames * encoded);
+                    for (int i = 0; i < frames; i++) {
+                        VoiceFrameCodec.decode(format, payload, i * encoded, encoded, pcm, i * frameBytes);
+                    }
+                    jitterBuffer.offerFrames(sequence, timestamp, pcm, 0, frames);
+                } catch (ClosedChannelException e) {
+                    break;
                 } catch (IOException e) {
-                    if (running.get())
-                        System.err.println("[VoiceCall] Error recibiendo paquete UDP: " + e.getMessage());
+                    System.err.println("[VoiceCall] Error recibiendo paquete UDP: " + e.getMessage());
                 }
             }
         }, "VoiceCall-ReceiveThread");
         receiveThread.start();
+
+        // La escritura en los altavoces bloquea mientras su buffer está lleno, lo que marca el ritmo de una trama por intervalo
+        playoutThread = new Thread(() -> {
+            byte[] frame = new byte[frameBytes];
+            ByteBuffer feedback = ByteBuffer.allocateDirect(VoicePacket.HEADER_SIZE + VoicePacket.FEEDBACK_PAYLOAD);
+            int feedbackInterval = Math.max(1, FEEDBACK_INTERVAL_MILLIS / frameMillis);
+            int polls = 0;
+            long lastReceived = 0;
+            long lastLost = 0;
+            while (channel.isOpen()) {
+                jitterBuffer.poll(frame);
+                sink.write(frame, 0, frameBytes);
+                if (++polls % feedbackInterval != 0) continue;
+                // Informe al emisor con lo observado desde el anterior
+                long received = jitterBuffer.getReceived();
+                long lost = jitterBuffer.getLost();
+                int frames = (int) (received - lastReceived + Math.max(0, lost - lastLost));
+                if (frames > 0) {
+                    VoicePacket.writeHeader(feedback, VoicePacket.TYPE_FEEDBACK, relayToken, 0, 0);
+                    VoicePacket.putFeedback(feedback, Math.max(0, lost - lastLost) / (double) frames,
+                        (int) Math.round(jitterBuffer.getJitterMillis()), frames);
+                    feedback.clear();
+                    try {
+                        bytesSent += channel.send(feedback, remote);
+                        feedbackPacketsSent++;
+                    } catch (IOException e) {
+                        // Canal cerrado al colgar; el bucle termina en la siguiente vuelta
+                    }
+                }
+                lastReceived = received;
+                lastLost = lost;
+            }
+        }, "VoiceCall-PlayoutThread");
+        playoutThread.start();
+    }
+
+    /**
+     * Captura tramas y las envía con el formato que indique el {@link BitrateController}.
+     * Las tramas con voz se acumulan hasta completar las tramas por paquete del formato;
+     * un silencio envía lo acumulado sin esperar.
+     */
+    private void sendLoop(InetSocketAddress remote, int packetSize, int maxFrames) {
+        byte[] frame = new byte[frameBytes];
+        ByteBuffer packet = ByteBuffer.allocateDirect(packetSize);
+        byte[] payload = new byte[frameBytes * maxFrames];
+        int comfortNoiseInterval = Math.max(1, COMFORT_NOISE_INTERVAL_MILLIS / frameMillis);
+        VoiceActivityDetector vad = new VoiceActivityDetector(frameMillis);
+        int sequence = 0;
+        int timestamp = 0;
+        int silentFrames = 0;
+        BitrateController.Profile profile = bitrate.current();
+        int packed = 0;
+        int payloadBytes = 0;
+        int packetSequence = 0;
+        int packetTimestamp = 0;
+        while (channel.isOpen()) {
+            int bytesRead = source.read(frame, 0, frameBytes);
+            if (bytesRead <= 0) continue;
+            int frameSequence = sequence++;
+            int frameTimestamp = timestamp;
+            timestamp += bytesRead / (SAMPLE_SIZE / 8 * CHANNELS);
+            if (!voiceActivityDetection || vad.isSpeech(frame, 0, bytesRead)) {
+                silentFrames = 0;
+                if (packed == 0) {
+                    // El formato solo cambia entre paquetes
+                    profile = bitrate.current();
+                    packetSequence = frameSequence;
+                    packetTimestamp = frameTimestamp;
+                    payloadBytes = 0;
+                }
+                payloadBytes += VoiceFrameCodec.encode(profile.getFormat(), frame, 0, bytesRead, payload, payloadBytes);
+                if (++packed < profile.getFramesPerPacket()) continue;
+                if (!sendAudio(packet, remote, profile, packed, packetSequence, packetTimestamp, payload, payloadBytes)) break;
+                packed = 0;
+                continue;
+            }
+            if (packed > 0) {
+                if (!sendAudio(packet, remote, profile, packed, packetSequence, packetTimestamp, payload, payloadBytes)) break;
+                packed = 0;
+            }
+            if (silentFrames++ % comfortNoiseInterval == 0) {
+                packet.clear();
+                VoicePacket.writeHeader(packet, VoicePacket.TYPE_COMFORT_NOISE, relayToken, frameSequence, frameTimestamp);
+                VoicePacket.putComfortNoiseLevel(packet, vad.getLevel());
+                packet.limit(VoicePacket.HEADER_SIZE + VoicePacket.COMFORT_NOISE_PAYLOAD);
+                comfortNoisePacketsSent++;
+                if (!send(packet, remote)) break;
+            } else {
+                framesSuppressed++;
+            }
+        }
+    }
+
+    private boolean sendAudio(ByteBuffer packet, InetSocketAddress remote, BitrateController.Profile profile, int frames,
+                              int sequence, int timestamp, byte[] payload, int length) {
+        packet.clear();
+        VoicePacket.writeHeader(packet, VoicePacket.TYPE_AUDIO, relayToken, sequence, timestamp);
+        VoicePacket.setFormat(packet, profile.formatFor(frames));
+        packet.position(VoicePacket.HEADER_SIZE);
+        packet.put(payload, 0, length);
+        packet.flip();
+        audioPacketsSent++;
+        audioFramesSent += frames;
+        return send(packet, remote);
+    }
+
+    /** @return false si el canal se cerró */
+    private boolean send(ByteBuffer packet, InetSocketAddress remote) {
+        try {
+            bytesSent += channel.send(packet, remote);
+        } catch (ClosedChannelException e) {
+            return false;
+        } catch (IOException e) {
+            System.err.println("[VoiceCall] Error enviando paquete UDP: " + e.getMessage());
+        }
+        return true;
     }
 
     public void stop() {
-        running.set(false);
-        if (microphone != null) {
-            microphone.stop();
-            microphone.close();
+        // Cerrar el canal desbloquea la recepción y hace terminar los tres hilos
+        if (channel != null) {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                System.err.println("[VoiceCall] Error cerrando el canal UDP: " + e.getMessage());
+            }
         }
-        if (speakers != null) {
-            speakers.stop();
-            speakers.close();
+        if (source != null) {
+            source.close();
         }
-        if (udpSocket != null && !udpSocket.isClosed()) {
-            udpSocket.close();
+        if (sink != null) {
+            sink.close();
         }
         try {
             if (sendThread != null) sendThread.join();
             if (receiveThread != null) receiveThread.join();
+            if (playoutThread != null) playoutThread.join();
         } catch (InterruptedException e) {
         }
+        if (jitterBuffer != null) {
+            System.out.println("[VoiceCall] Llamada finalizada (" + frameMillis + " ms/trama): " + jitterBuffer);
+            long frames = audioFramesSent + comfortNoisePacketsSent + framesSuppressed;
+            if (frames > 0) {
+                System.out.println("[VoiceCall] Enviado: " + audioFramesSent + " tramas de voz en " + audioPacketsSent + " paquetes, "
+                    + comfortNoisePacketsSent + " de ruido de confort, " + framesSuppressed + " suprimidas ("
+                    + (100 * (frames - audioFramesSent) / frames) + "% de silencio), " + feedbackPacketsSent + " informes, "
+                    + bytesSent + " bytes");
+            }
+            System.out.println("[VoiceCall] " + bitrate);
+        }
     }
 
     /**
      * Devuelve el puerto UDP local en uso (para negociación con el servidor/otros clientes).
      */
     public int getLocalPort() {
-        return (udpSocket != null) ? udpSocket.getLocalPort() : localPort;
+        return (channel != null) ? channel.socket().getLocalPort() : localPort;
+    }
+
+    /**
+     * Token asignado por el relé del servidor; el destino remoto es entonces el relé.
+     * Debe llamarse antes de {@link #start()}.
+     */
+    public void setRelayToken(int relayToken) {
+        this.relayToken = relayToken;
+    }
+
+    /** Activa o desactiva la supresión de silencios; debe llamarse antes de {@link #start()}. */
+    public void setVoiceActivityDetection(boolean enabled) {
+        this.voiceActivityDetection = enabled;
+    }
+
+    /** Bytes UDP enviados desde el inicio de la llamada. */
+    public long getBytesSent() {
+        return bytesSent;
+    }
+
+    public int getFrameMillis() {
+        return frameMillis;
+    }
+
+    public JitterBuffer getJitterBuffer() {
+        return jitterBuffer;
+    }
+
+    public BitrateController getBitrateController() {
+        return bitrate;
+    }
+
+    private static AudioSource openMicrophone(int bufferBytes) throws LineUnavailableException {
+        AudioFormat format = getAudioFormat();
+        TargetDataLine microphone = (TargetDataLine) AudioSystem.getLine(new DataLine.Info(TargetDataLine.class, format));
+        microphone.open(format, bufferBytes);
+        microphone.start();
+        return new AudioSource() {
+            @Override
+            public int read(byte[] buffer, int offset, int length) {
+                return microphone.read(buffer, offset, length);
+            }
+
+            @Override
+            public void close() {
+                microphone.stop();
+                microphone.close();
+            }
+        };
+    }
+
+    private static AudioSink openSpeakers(int bufferBytes) throws LineUnavailableException {
+        AudioFormat format = getAudioFormat();
+        SourceDataLine speakers = (SourceDataLine) AudioSystem.getLine(new DataLine.Info(SourceDataLine.class, format));
+        speakers.open(format, bufferBytes);
+        speakers.start();
+        return new AudioSink() {
+            @Override
+            public void write(byte[] buffer, int offset, int length) {
+                speakers.write(buffer, offset, length);
+            }
+
+            @Override
+            public void close() {
+                speakers.stop();
+                speakers.close();
+            }
+        };
     }
 }
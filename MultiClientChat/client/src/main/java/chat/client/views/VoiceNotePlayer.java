@@ -0,0 +1,265 @@
+package chat.client.views;
+
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioInputStream;
+import javax.sound.sampled.AudioSystem;
+import javax.sound.sampled.LineUnavailableException;
+import javax.sound.sampled.SourceDataLine;
+import javax.sound.sampled.UnsupportedAudioFileException;
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Reproduce una nota de voz leyéndola del disco a medida que suena.
+ * <p>
+ * Un hilo en segundo plano decodifica el archivo con {@link WavFileReader} en trozos de
+ * {@value #CHUNK_MILLIS} ms y los escribe en una {@link SourceDataLine} con un buffer de
+ * {@value #LINE_BUFFER_MILLIS} ms. La escritura se bloquea cuando la línea está llena, así
+ * que en memoria nunca hay más que eso, sea cual sea la duración de la nota, y el sonido
+ * empieza en cuanto se decodifica el primer trozo. Para saltar a otra posición se descarta
+ * lo que tiene la línea y se vuelve a abrir el archivo en la trama pedida.
+ * <p>
+ * Solo suena una nota a la vez: al reproducir una se detiene la anterior. Los avisos al
+ * {@link Listener} llegan desde el hilo de reproducción.
+ */
+public class VoiceNotePlayer {
+    private static final int CHUNK_MILLIS = 50;
+    private static final int LINE_BUFFER_MILLIS = 200;
+
+    /** Estado de la reproducción. */
+    public enum State { PLAYING, PAUSED, STOPPED }
+
+    /** Avisos de la reproducción; se llaman desde el hilo de reproducción. */
+    public interface Listener {
+        /** Trama que está sonando. */
+        void onPosition(long frame, long totalFrames);
+        void onStateChanged(State state);
+    }
+
+    private static VoiceNotePlayer current;
+
+    private final File file;
+    private final WavFileReader reader;
+    private final AudioFormat format;
+    private final int frameSize;
+    private final long totalFrames;
+    private final Object lock = new Object();
+    private volatile Listener listener;
+    // Protegidos por lock
+    private Thread worker;
+    private SourceDataLine line;
+    private boolean paused = false;
+    private boolean stopping = false;
+    private long seekTo = -1;
+    private long position = 0;
+
+    private VoiceNotePlayer(File file, WavFileReader reader) {
+        this.file = file;
+        this.reader = reader;
+        this.format = reader.getPcmFormat();
+        this.frameSize = Math.max(1, format.getFrameSize());
+        this.totalFrames = reader.getFrameLength();
+    }
+
+    /**
+     * Prepara la reproducción de un archivo. Solo lee la cabecera.
+     * @throws UnsupportedAudioFileException si no es un WAV que sepa leer {@link WavFileReader}
+     */
+    public static VoiceNotePlayer open(File file) throws IOException, UnsupportedAudioFileException {
+        return new VoiceNotePlayer(file, WavFileReader.open(file));
+    }
+
+    /** Nota que está sonando o en pausa, o null. */
+    public static synchronized VoiceNotePlayer current() {
+        return current;
+    }
+
+    public File getFile() { return file; }
+    public long getTotalFrames() { return totalFrames; }
+    public float getSampleRate() { return format.getSampleRate(); }
+    public Listener getListener() { return listener; }
+    public void setListener(Listener listener) { this.listener = listener; }
+
+    public State getState() {
+        synchronized (lock) {
+            if (worker == null) return State.STOPPED;
+            return paused ? State.PAUSED : State.PLAYING;
+        }
+    }
+
+    /** Trama por la que va la reproducción (o en la que empezará). */
+    public long getPosition() {
+        synchronized (lock) {
+            return position;
+        }
+    }
+
+    /**
+     * Empieza o reanuda la reproducción. Detiene la nota que estuviera sonando.
+     */
+    public void play() {
+        synchronized (VoiceNotePlayer.class) {
+            if (current != null && current != this) current.stop();
+            current = this;
+        }
+        synchronized (lock) {
+            paused = false;
+            if (worker == null) {
+                stopping = false;
+                long start = position >= totalFrames ? 0 : position;
+                worker = new Thread(() -> run(start), "VoiceNotePlayer");
+                worker.setDaemon(true);
+                worker.start();
+            } else {
+                if (line != null) line.start();
+                lock.notifyAll();
+            }
+        }
+        notifyState(State.PLAYING);
+    }
+
+    /** Pausa la reproducción sin perder lo que ya está en la línea. */
+    public void pause() {
+        synchronized (lock) {
+            if (worker == null || paused) return;
+            paused = true;
+            if (line != null) line.stop();
+        }
+        notifyState(State.PAUSED);
+    }
+
+    /**
+     * Salta a una trama. Si no está sonando, solo cambia dónde empezará.
+     */
+    public void seek(long frame) {
+        frame = Math.max(0, Math.min(frame, totalFrames));
+        synchronized (lock) {
+            position = frame;
+            if (worker != null) {
+                seekTo = frame;
+                // Descarta lo pendiente y desbloquea la escritura del hilo
+                if (line != null) line.flush();
+                lock.notifyAll();
+            }
+        }
+        Listener l = listener;
+        if (l != null) l.onPosition(frame, totalFrames);
+    }
+
+    /** Detiene la reproducción y vuelve al principio. */
+    public void stop() {
+        synchronized (lock) {
+            position = 0;
+            if (worker == null) return;
+            stopping = true;
+            if (line != null) {
+                line.stop();
+                line.flush();
+            }
+            lock.notifyAll();
+        }
+    }
+
+    private void run(long start) {
+        SourceDataLine out = null;
+        AudioInputStream in = null;
+        boolean finished = false;
+        try {
+            int bufferBytes = bytesFor(LINE_BUFFER_MILLIS);
+            out = AudioSystem.getSourceDataLine(format);
+            out.open(format, bufferBytes);
+            synchronized (lock) {
+                if (stopping) return;
+                line = out;
+                if (!paused) out.start();
+            }
+            in = reader.openStream(start);
+            long base = start;
+            long written = 0;
+            byte[] chunk = new byte[bytesFor(CHUNK_MILLIS)];
+            while (true) {
+                synchronized (lock) {
+                    while (paused && seekTo < 0 && !stopping) lock.wait();
+                    if (stopping) break;
+                    if (seekTo >= 0) {
+                        in.close();
+                        in = reader.openStream(seekTo);
+                        out.flush();
+                        base = seekTo;
+                        written = 0;
+                        seekTo = -1;
+                        if (!paused) out.start();
+                    }
+                }
+                int n = readChunk(in, chunk);
+                if (n <= 0) {
+                    out.drain();
+                    synchronized (lock) {
+                        // Un salto o una pausa durante el vaciado siguen reproduciendo
+                        if (stopping || (seekTo < 0 && !paused)) {
+                            finished = !stopping;
+                            break;
+                        }
+                    }
+                    continue;
+                }
+                int w = out.write(chunk, 0, n);
+                written += w / frameSize;
+                long buffered = (out.getBufferSize() - out.available()) / frameSize;
+                long playing = Math.max(base, base + written - buffered);
+                synchronized (lock) {
+                    if (seekTo < 0) position = playing;
+                }
+                Listener l = listener;
+                if (l != null) l.onPosition(playing, totalFrames);
+            }
+        } catch (LineUnavailableException | IOException | IllegalArgumentException e) {
+            // IllegalArgumentException: no hay salida de audio para el formato
+            System.out.println("[VoiceNote] No se pudo reproducir " + file.getName() + ": " + e.getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            if (in != null) {
+                try { in.close(); } catch (IOException ignored) {}
+            }
+            if (out != null) {
+                out.stop();
+                out.close();
+            }
+            synchronized (lock) {
+                line = null;
+                worker = null;
+                paused = false;
+                if (finished) position = 0;
+            }
+            synchronized (VoiceNotePlayer.class) {
+                if (current == this) current = null;
+            }
+            Listener l = listener;
+            if (l != null) {
+                if (finished) l.onPosition(0, totalFrames);
+                l.onStateChanged(State.STOPPED);
+            }
+        }
+    }
+
+    private int bytesFor(int millis) {
+        int frames = Math.max(1, (int) (format.getSampleRate() * millis / 1000));
+        return frames * frameSize;
+    }
+
+    private int readChunk(AudioInputStream in, byte[] chunk) throws IOException {
+        int total = 0;
+        while (total < chunk.length) {
+            int n = in.read(chunk, total, chunk.length - total);
+            if (n < 0) break;
+            total += n;
+        }
+        return total - total % frameSize;
+    }
+
+    private void notifyState(State state) {
+        Listener l = listener;
+        if (l != null) l.onStateChanged(state);
+    }
+}
@@ -0,0 +1,318 @@
+package chat.client.views;
+
+import chat.common.model.AudioFormatWrapper.Codec;
+import chat.common.util.ImaAdpcmCodec;
+import chat.common.util.MuLawCodec;
+
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioInputStream;
+import javax.sound.sampled.UnsupportedAudioFileException;
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Lee archivos WAV de notas de voz y los entrega como PCM de 16 bits.
+ *
+ * Reconoce WAV PCM, μ-law e IMA-ADPCM (los que produce {@link WavFileWriter}) y
+ * decodifica el audio comprimido a medida que se lee, sin cargar el archivo completo.
+ */
+public class WavFileReader {
+    private final File file;
+    private int formatTag;
+    private int channels;
+    private float sampleRate;
+    private int bitsPerSample;
+    private int blockAlign;
+    private int samplesPerBlock;
+    private long factSamples = -1;
+    private long dataOffset = -1;
+    private long dataSize;
+
+    private WavFileReader(File file) {
+        this.file = file;
+    }
+
+    /**
+     * Lee la cabecera de un archivo WAV.
+     * @param file Archivo a abrir
+     * @return Lector con el formato del archivo
+     * @throws UnsupportedAudioFileException si no es un WAV válido o el códec no está soportado
+     */
+    public static WavFileReader open(File file) throws IOException, UnsupportedAudioFileException {
+        WavFileReader reader = new WavFileReader(file);
+        reader.readHeader();
+        return reader;
+    }
+
+    private void readHeader() throws IOException, UnsupportedAudioFileException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if (!"RIFF".equals(readTag(in))) throw new UnsupportedAudioFileException("Falta la cabecera RIFF");
+            readIntLE(in);
+            if (!"WAVE".equals(readTag(in))) throw new UnsupportedAudioFileException("No es un archivo WAVE");
+            long position = 12;
+            boolean hasFormat = false;
+            while (dataOffset < 0) {
+                String chunkId = readTag(in);
+                long chunkSize = readIntLE(in) & 0xffffffffL;
+                position += 8;
+                if ("fmt ".equals(chunkId)) {
+                    formatTag = readShortLE(in);
+                    channels = readShortLE(in);
+                    sampleRate = readIntLE(in);
+                    readIntLE(in);
+                    blockAlign = readShortLE(in);
+                    bitsPerSample = readShortLE(in);
+                    long read = 16;
+                    if (formatTag == WavFileWriter.FORMAT_IMA_ADPCM && chunkSize >= 20) {
+                        readShortLE(in);
+                        samplesPerBlock = readShortLE(in);
+                        read = 20;
+                    }
+                    skipFully(in, chunkSize - read + (chunkSize & 1));
+                    hasFormat = true;
+                } else if ("fact".equals(chunkId)) {
+                    factSamples = readIntLE(in) & 0xffffffffL;
+                    skipFully(in, chunkSize - 4 + (chunkSize & 1));
+                } else if ("data".equals(chunkId)) {
+                    dataOffset = position;
+                    dataSize = Math.min(chunkSize, file.length() - position);
+                } else {
+                    skipFully(in, chunkSize + (chunkSize & 1));
+                }
+                position += chunkSize + (chunkSize & 1);
+            }
+            if (!hasFormat) throw new UnsupportedAudioFileException("Falta el bloque fmt");
+        } catch (EOFException e) {
+            throw new UnsupportedAudioFileException("Cabecera WAV incompleta");
+        }
+        if (formatTag == WavFileWriter.FORMAT_IMA_ADPCM) {
+            if (channels != 1) throw new UnsupportedAudioFileException("IMA-ADPCM solo se admite en mono");
+            if (samplesPerBlock == 0) samplesPerBlock = ImaAdpcmCodec.samplesPerBlock(blockAlign);
+        } else if (formatTag != WavFileWriter.FORMAT_PCM && formatTag != WavFileWriter.FORMAT_ULAW) {
+            throw new UnsupportedAudioFileException("Formato WAV no soportado: " + formatTag);
+        }
+    }
+
+    /** Devuelve el códec del audio guardado. */
+    public Codec getCodec() {
+        if (formatTag == WavFileWriter.FORMAT_ULAW) return Codec.ULAW;
+        if (formatTag == WavFileWriter.FORMAT_IMA_ADPCM) return Codec.IMA_ADPCM;
+        return Codec.PCM;
+    }
+
+    /** Devuelve el formato PCM que entrega {@link #openStream()}. */
+    public AudioFormat getPcmFormat() {
+        int bits = formatTag == WavFileWriter.FORMAT_PCM ? bitsPerSample : 16;
+        return new AudioFormat(sampleRate, bits, channels, bits > 8, false);
+    }
+
+    /** Devuelve la cantidad de tramas (muestras por canal) del audio. */
+    public long getFrameLength() {
+        if (formatTag == WavFileWriter.FORMAT_PCM) {
+            return dataSize / Math.max(1, channels * bitsPerSample / 8);
+        }
+        if (formatTag == WavFileWriter.FORMAT_ULAW) {
+            return dataSize / Math.max(1, channels);
+        }
+        long blocks = dataSize / blockAlign;
+        long total = blocks * samplesPerBlock;
+        return factSamples >= 0 ? Math.min(factSamples, total) : total;
+    }
+
+    /** Devuelve la duración del audio en segundos. */
+    public double getDurationSeconds() {
+        return getFrameLength() / (double) sampleRate;
+    }
+
+    /** Abre el audio desde el principio. */
+    public AudioInputStream openStream() throws IOException {
+        return openStream(0);
+    }
+
+    /**
+     * Abre el audio decodificado a partir de una trama dada.
+     * @param startFrame Primera trama a entregar
+     * @return Flujo PCM de 16 bits (o el PCM original)
+     */
+    public AudioInputStream openStream(long startFrame) throws IOException {
+        long totalFrames = getFrameLength();
+        startFrame = Math.max(0, Math.min(startFrame, totalFrames));
+        AudioFormat pcmFormat = getPcmFormat();
+        InputStream raw = new BufferedInputStream(new FileInputStream(file));
+        try {
+            if (formatTag == WavFileWriter.FORMAT_PCM) {
+                long offset = startFrame * pcmFormat.getFrameSize();
+                skipFully(raw, dataOffset + offset);
+                return new AudioInputStream(new LimitedInputStream(raw, dataSize - offset), pcmFormat, totalFrames - startFrame);
+            }
+            if (formatTag == WavFileWriter.FORMAT_ULAW) {
+                long offset = startFrame * channels;
+                skipFully(raw, dataOffset + offset);
+                return new AudioInputStream(new DecodingInputStream(raw, dataSize - offset, totalFrames - startFrame, 0), pcmFormat, totalFrames - startFrame);
+            }
+            // IMA-ADPCM: se empieza en el bloque que contiene la trama y se descartan las anteriores
+            long block = startFrame / samplesPerBlock;
+            int skipSamples = (int) (startFrame % samplesPerBlock);
+            long offset = block * blockAlign;
+            skipFully(raw, dataOffset + offset);
+            long samples = totalFrames - block * samplesPerBlock;
+            return new AudioInputStream(new DecodingInputStream(raw, dataSize - offset, samples, skipSamples), pcmFormat, totalFrames - startFrame);
+        } catch (IOException e) {
+            raw.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Decodifica μ-law o IMA-ADPCM a PCM 16 bits little-endian a medida que se lee.
+     */
+    private class DecodingInputStream extends InputStream {
+        private final InputStream in;
+        private long encodedRemaining;
+        private long samplesRemaining;
+        private int skipSamples;
+        private final byte[] encoded;
+        private final short[] samples;
+        private final byte[] pcm;
+        private int pcmPos = 0;
+        private int pcmLen = 0;
+
+        private DecodingInputStream(InputStream in, long encodedBytes, long samples, int skipSamples) {
+            this.in = in;
+            this.encodedRemaining = encodedBytes;
+            this.samplesRemaining = samples;
+            this.skipSamples = skipSamples;
+            int chunk = formatTag == WavFileWriter.FORMAT_IMA_ADPCM ? blockAlign : 2048;
+            this.encoded = new byte[chunk];
+            this.samples = new short[formatTag == WavFileWriter.FORMAT_IMA_ADPCM ? samplesPerBlock : 0];
+            this.pcm = new byte[(formatTag == WavFileWriter.FORMAT_IMA_ADPCM ? samplesPerBlock : chunk) * 2];
+        }
+
+        private boolean fill() throws IOException {
+            while (pcmPos >= pcmLen) {
+                if (encodedRemaining <= 0 || samplesRemaining <= 0) return false;
+                int want = (int) Math.min(encoded.length, encodedRemaining);
+                int read = readUpTo(in, encoded, want);
+                if (read <= 0) return false;
+                encodedRemaining -= read;
+                pcmPos = 0;
+                if (formatTag == WavFileWriter.FORMAT_ULAW) {
+                    int count = (int) Math.min(read, samplesRemaining);
+                    pcmLen = MuLawCodec.decode(encoded, 0, count, pcm, 0);
+                    samplesRemaining -= count;
+                } else {
+                    if (read < ImaAdpcmCodec.BLOCK_HEADER_SIZE) return false;
+                    int available = ImaAdpcmCodec.samplesPerBlock(read);
+                    int count = (int) Math.min(Math.min(available, samplesPerBlock), samplesRemaining);
+                    ImaAdpcmCodec.decodeBlock(encoded, 0, count, samples, 0);
+                    samplesRemaining -= count;
+                    for (int i = 0; i < count; i++) {
+                        pcm[i * 2] = (byte) samples[i];
+                        pcm[i * 2 + 1] = (byte) (samples[i] >> 8);
+                    }
+                    pcmLen = count * 2;
+                    if (skipSamples > 0) {
+                        pcmPos = Math.min(pcmLen, skipSamples * 2);
+                        skipSamples = 0;
+                    }
+                }
+            }
+            return true;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (!fill()) return -1;
+            return pcm[pcmPos++] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) return 0;
+            if (!fill()) return -1;
+            int n = Math.min(len, pcmLen - pcmPos);
+            System.arraycopy(pcm, pcmPos, b, off, n);
+            pcmPos += n;
+            return n;
+        }
+
+        @Override
+        public void close() throws IOException {
+            in.close();
+        }
+    }
+
+    /**
+     * Limita la lectura a la cantidad de bytes del bloque "data".
+     */
+    private static class LimitedInputStream extends InputStream {
+        private final InputStream in;
+        private long remaining;
+
+        private LimitedInputStream(InputStream in, long remaining) {
+            this.in = in;
+            this.remaining = remaining;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (remaining <= 0) return -1;
+            int b = in.read();
+            if (b >= 0) remaining--;
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (remaining <= 0) return -1;
+            int n = in.read(b, off, (int) Math.min(len, remaining));
+            if (n > 0) remaining -= n;
+            return n;
+        }
+
+        @Override
+        public void close() throws IOException {
+            in.close();
+        }
+    }
+
+    private static int readUpTo(InputStream in, byte[] buffer, int length) throws IOException {
+        int total = 0;
+        while (total < length) {
+            int n = in.read(buffer, total, length - total);
+            if (n < 0) break;
+            total += n;
+        }
+        return total;
+    }
+
+    private static void skipFully(InputStream in, long bytes) throws IOException {
+        while (bytes > 0) {
+            long skipped = in.skip(bytes);
+            if (skipped <= 0) {
+                if (in.read() < 0) throw new EOFException();
+                skipped = 1;
+            }
+            bytes -= skipped;
+        }
+    }
+
+    private static String readTag(DataInputStream in) throws IOException {
+        byte[] tag = new byte[4];
+        in.readFully(tag);
+        return new String(tag, java.nio.charset.StandardCharsets.US_ASCII);
+    }
+
+    private static int readIntLE(DataInputStream in) throws IOException {
+        return Integer.reverseBytes(in.readInt());
+    }
+
+    private static int readShortLE(DataInputStream in) throws IOException {
+        return Short.reverseBytes(in.readShort()) & 0xffff;
+    }
+}
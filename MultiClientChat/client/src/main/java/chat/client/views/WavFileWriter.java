@@ -0,0 +1,203 @@
+package chat.client.views;
+
+import chat.common.model.AudioFormatWrapper.Codec;
+import chat.common.util.ImaAdpcmCodec;
+import chat.common.util.MuLawCodec;
+
+import javax.sound.sampled.AudioFormat;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+/**
+ * Escribe un archivo WAV de forma incremental, a medida que se graba el audio.
+ *
+ * Recibe PCM de 16 bits mono y lo guarda sin comprimir o comprimido con μ-law o
+ * IMA-ADPCM, usando la etiqueta de formato WAV correspondiente. Reserva la cabecera al
+ * abrir el archivo y la completa con los tamaños reales al cerrarlo, de modo que la
+ * grabación va directamente a disco en lugar de acumularse en memoria.
+ */
+public class WavFileWriter implements Closeable {
+    static final int FORMAT_PCM = 1;
+    static final int FORMAT_ULAW = 7;
+    static final int FORMAT_IMA_ADPCM = 0x11;
+
+    /** Tamaño de bloque IMA-ADPCM usado para voz mono (505 muestras por bloque). */
+    static final int ADPCM_BLOCK_SIZE = 256;
+
+    private final RandomAccessFile file;
+    private final AudioFormat format;
+    private final Codec codec;
+    private final int headerSize;
+    private long dataBytes = 0;
+    private long sampleCount = 0;
+
+    private final byte[] encoded = new byte[4096];
+    private int ulawFill = 0;
+    private int pendingByte = -1;
+    private ImaAdpcmCodec.Encoder adpcm;
+    private short[] blockSamples;
+    private int blockFill = 0;
+
+    /**
+     * Crea un archivo WAV PCM sin comprimir.
+     * @param outFile Archivo WAV de salida
+     * @param format Formato PCM del audio que se escribirá
+     */
+    public WavFileWriter(File outFile, AudioFormat format) throws IOException {
+        this(outFile, format, Codec.PCM);
+    }
+
+    /**
+     * Crea el archivo y escribe una cabecera provisional.
+     * @param outFile Archivo WAV de salida
+     * @param format Formato PCM (16 bits, little-endian) del audio que se escribirá
+     * @param codec Códec con el que se guarda el audio
+     */
+    public WavFileWriter(File outFile, AudioFormat format, Codec codec) throws IOException {
+        if (codec != Codec.PCM && (format.getChannels() != 1 || format.getSampleSizeInBits() != 16)) {
+            throw new IOException("La compresión solo admite PCM de 16 bits mono");
+        }
+        this.format = format;
+        this.codec = codec;
+        this.headerSize = codec == Codec.PCM ? 44 : (codec == Codec.ULAW ? 58 : 60);
+        if (codec == Codec.IMA_ADPCM) {
+            adpcm = new ImaAdpcmCodec.Encoder();
+            blockSamples = new short[ImaAdpcmCodec.samplesPerBlock(ADPCM_BLOCK_SIZE)];
+        }
+        this.file = new RandomAccessFile(outFile, "rw");
+        file.setLength(0);
+        file.write(new byte[headerSize]);
+    }
+
+    /** Agrega muestras PCM al final del archivo, comprimiéndolas si corresponde. */
+    public void write(byte[] buffer, int offset, int length) throws IOException {
+        if (codec == Codec.PCM) {
+            file.write(buffer, offset, length);
+            dataBytes += length;
+            sampleCount += length / format.getFrameSize();
+            return;
+        }
+        int end = offset + length;
+        int i = offset;
+        if (pendingByte >= 0 && i < end) {
+            writeSample((short) (pendingByte | (buffer[i++] << 8)));
+            pendingByte = -1;
+        }
+        for (; i + 1 < end; i += 2) {
+            writeSample((short) ((buffer[i] & 0xff) | (buffer[i + 1] << 8)));
+        }
+        if (i < end) {
+            pendingByte = buffer[i] & 0xff;
+        }
+        flushUlaw();
+    }
+
+    private void writeSample(short sample) throws IOException {
+        sampleCount++;
+        if (codec == Codec.ULAW) {
+            encoded[ulawFill++] = MuLawCodec.encode(sample);
+            if (ulawFill == encoded.length) flushUlaw();
+        } else {
+            blockSamples[blockFill++] = sample;
+            if (blockFill == blockSamples.length) {
+                writeAdpcmBlock();
+            }
+        }
+    }
+
+    private void flushUlaw() throws IOException {
+        if (ulawFill > 0) {
+            file.write(encoded, 0, ulawFill);
+            dataBytes += ulawFill;
+            ulawFill = 0;
+        }
+    }
+
+    private void writeAdpcmBlock() throws IOException {
+        // El último bloque se completa con silencio; la cantidad real de muestras va en "fact"
+        for (int i = blockFill; i < blockSamples.length; i++) {
+            blockSamples[i] = 0;
+        }
+        int written = adpcm.encodeBlock(blockSamples, 0, blockSamples.length, encoded, 0);
+        file.write(encoded, 0, written);
+        dataBytes += written;
+        blockFill = 0;
+    }
+
+    /** Devuelve la cantidad de bytes de audio escritos (sin la cabecera). */
+    public long getDataBytes() {
+        return dataBytes;
+    }
+
+    /** Devuelve la cantidad de muestras grabadas. */
+    public long getSampleCount() {
+        return sampleCount;
+    }
+
+    /** Completa la cabecera con los tamaños finales y cierra el archivo. */
+    @Override
+    public void close() throws IOException {
+        try {
+            if (codec == Codec.IMA_ADPCM && blockFill > 0) {
+                writeAdpcmBlock();
+            }
+            flushUlaw();
+            int channels = format.getChannels();
+            int sampleRate = (int) format.getSampleRate();
+            file.seek(0);
+            file.writeBytes("RIFF");
+            writeIntLE((int) (headerSize - 8 + dataBytes));
+            file.writeBytes("WAVE");
+            file.writeBytes("fmt ");
+            if (codec == Codec.PCM) {
+                int bitsPerSample = format.getSampleSizeInBits();
+                writeIntLE(16);
+                writeShortLE(FORMAT_PCM);
+                writeShortLE(channels);
+                writeIntLE(sampleRate);
+                writeIntLE(sampleRate * channels * bitsPerSample / 8);
+                writeShortLE(channels * bitsPerSample / 8);
+                writeShortLE(bitsPerSample);
+            } else if (codec == Codec.ULAW) {
+                writeIntLE(18);
+                writeShortLE(FORMAT_ULAW);
+                writeShortLE(channels);
+                writeIntLE(sampleRate);
+                writeIntLE(sampleRate * channels);
+                writeShortLE(channels);
+                writeShortLE(8);
+                writeShortLE(0);
+            } else {
+                int samplesPerBlock = blockSamples.length;
+                writeIntLE(20);
+                writeShortLE(FORMAT_IMA_ADPCM);
+                writeShortLE(channels);
+                writeIntLE(sampleRate);
+                writeIntLE(sampleRate * ADPCM_BLOCK_SIZE / samplesPerBlock);
+                writeShortLE(ADPCM_BLOCK_SIZE);
+                writeShortLE(4);
+                writeShortLE(2);
+                writeShortLE(samplesPerBlock);
+            }
+            if (codec != Codec.PCM) {
+                file.writeBytes("fact");
+                writeIntLE(4);
+                writeIntLE((int) sampleCount);
+            }
+            file.writeBytes("data");
+            writeIntLE((int) dataBytes);
+        } finally {
+            file.close();
+        }
+    }
+
+    private void writeIntLE(int value) throws IOException {
+        file.writeInt(Integer.reverseBytes(value));
+    }
+
+    private void writeShortLE(int value) throws IOException {
+        file.writeShort(Short.reverseBytes((short) value));
+    }
+}
@@ -0,0 +1,52 @@
+package chat.common.model;
+
+/**
+ * Fragmento de tamaño fijo de una nota de voz transmitida por partes.
+ *
+ * Una nota de voz se envía como un {@link Message} de tipo AUDIO sin datos binarios
+ * (la cabecera, con {@code audioSize} y {@code audioFilePath}) seguido de una serie de
+ * fragmentos con el mismo {@code messageId}. Quien los recibe los escribe directamente
+ * en disco, por lo que la memoria usada no depende de la duración de la nota.
+ */
+public class AudioChunk implements ChatPayload {
+
+    /** Tamaño máximo de datos por fragmento, en bytes. */
+    public static final int CHUNK_SIZE = 16 * 1024;
+
+    private final String messageId;
+    private final ChatTarget from;
+    private final ChatTarget to;
+    private final int index;
+    private final byte[] data;
+    private final boolean last;
+
+    /**
+     * Crea un fragmento de nota de voz.
+     * @param messageId Clave del mensaje cabecera al que pertenece
+     * @param from Remitente
+     * @param to Destinatario
+     * @param index Posición del fragmento, empezando en 0
+     * @param data Bytes del fragmento
+     * @param last true si es el último fragmento
+     */
+    public AudioChunk(String messageId, ChatTarget from, ChatTarget to, int index, byte[] data, boolean last) {
+        this.messageId = messageId;
+        this.from = from;
+        this.to = to;
+        this.index = index;
+        this.data = data;
+        this.last = last;
+    }
+
+    public String getMessageId() { return messageId; }
+    @Override public ChatTarget getFrom() { return from; }
+    @Override public ChatTarget getTo() { return to; }
+    public int getIndex() { return index; }
+    public byte[] getData() { return data; }
+    public boolean isLast() { return last; }
+
+    @Override
+    public String toString() {
+        return "AudioChunk[" + messageId + " #" + index + ", " + (data != null ? data.length : 0) + " bytes" + (last ? ", último" : "") + "]";
+    }
+}
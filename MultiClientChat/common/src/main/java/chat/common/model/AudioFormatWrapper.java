@@ -13,14 +13,28 @@ import javax.sound.sampled.AudioFormat;
  * Uso:
  * - Crear un AudioFormatWrapper desde un AudioFormat.
  * - Convertirlo de vuelta con el método toAudioFormat().
+ *
+ * El campo {@code codec} indica cómo está comprimido el audio guardado o transmitido;
+ * los demás campos describen siempre el PCM que se obtiene al decodificarlo.
  */
 
 public class AudioFormatWrapper implements Serializable {
+
+    /**
+     * Códec del audio. Los historiales anteriores no lo guardan y se tratan como PCM.
+     */
+    public enum Codec {
+        PCM,
+        ULAW,
+        IMA_ADPCM
+    }
+
     private float sampleRate;
     private int sampleSizeInBits;
     private int channels;
     private boolean signed;
     private boolean bigEndian;
+    private Codec codec = Codec.PCM;
 
     public AudioFormatWrapper() {}
 
@@ -32,6 +46,16 @@ public class AudioFormatWrapper implements Serializable {
         this.bigEndian = format.isBigEndian();
     }
 
+    /**
+     * Crea un wrapper para audio comprimido con el códec indicado.
+     * @param format Formato PCM del audio decodificado
+     * @param codec Códec con el que se guarda o transmite
+     */
+    public AudioFormatWrapper(AudioFormat format, Codec codec) {
+        this(format);
+        this.codec = codec;
+    }
+
 
     /**
      * Convierte el wrapper nuevamente a un objeto AudioFormat.
@@ -58,5 +82,7 @@ public class AudioFormatWrapper implements Serializable {
     public void setSigned(boolean signed) { this.signed = signed; }
     public boolean isBigEndian() { return bigEndian; }
     public void setBigEndian(boolean bigEndian) { this.bigEndian = bigEndian; }
+    public Codec getCodec() { return codec != null ? codec : Codec.PCM; }
+    public void setCodec(Codec codec) { this.codec = codec; }
 }
 
@@ -8,6 +8,9 @@ import java.time.LocalDateTime;
  * Se utiliza para establecer, aceptar, rechazar, cancelar o finalizar llamadas
  * entre usuarios a través de UDP. Contiene información sobre los participantes,
  * el tipo de señal, fecha/hora y, opcionalmente, dirección y puerto UDP.
+ * En REQUEST y ACCEPT también se negocia la duración de trama de audio.
+ * En las llamadas de grupo el destinatario es el grupo y el audio pasa por el mezclador
+ * del servidor.
  */
 
 public class CallSignal implements ChatPayload {
@@ -26,6 +29,9 @@ public class CallSignal implements ChatPayload {
     private int udpPort = -1;
     private LocalDateTime timestamp;
     private String content; 
+    private int frameMillis = 0; // 0 = sin preferencia
+    private int relayToken = 0; // 0 = audio directo entre pares
+    private boolean groupCall = false;
 
     /**
      * Constructor de señal de llamada.
@@ -63,6 +69,15 @@ public class CallSignal implements ChatPayload {
     public void setTimestamp(LocalDateTime timestamp) { this.timestamp = timestamp; }
     public String getContent() { return content; }
     public void setContent(String content) { this.content = content; }
+    /** Duración de trama propuesta (REQUEST) o acordada (ACCEPT), en milisegundos. */
+    public int getFrameMillis() { return frameMillis; }
+    public void setFrameMillis(int frameMillis) { this.frameMillis = frameMillis; }
+    /** Token del relé del servidor que el destinatario debe poner en sus paquetes (solo en ACCEPT). */
+    public int getRelayToken() { return relayToken; }
+    public void setRelayToken(int relayToken) { this.relayToken = relayToken; }
+    /** Indica si la señal es de una llamada de grupo; toUser es entonces el nombre del grupo. */
+    public boolean isGroupCall() { return groupCall; }
+    public void setGroupCall(boolean groupCall) { this.groupCall = groupCall; }
 
     @Override
     public ChatTarget getFrom() {
@@ -70,6 +85,7 @@ public class CallSignal implements ChatPayload {
     }
     @Override
     public ChatTarget getTo() {
+        if (groupCall) return new Group(toUser, toUser);
         return new User(toUser, toUser);
     }
 }
@@ -0,0 +1,31 @@
+package chat.common.model;
+
+import java.io.Serializable;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Confirmación acumulativa de entrega enviada por el cliente al servidor.
+ *
+ * Contiene, por cada conversación, la última secuencia recibida. Es acumulativa:
+ * confirmar la secuencia N confirma también todas las anteriores de esa conversación,
+ * por lo que el cliente envía una sola confirmación por lote o por intervalo de tiempo.
+ */
+public class DeliveryAck implements Serializable {
+    private final Map<String, Long> lastSeen;
+
+    /**
+     * Crea una confirmación.
+     * @param lastSeen Última secuencia recibida por clave de conversación
+     */
+    public DeliveryAck(Map<String, Long> lastSeen) {
+        this.lastSeen = new HashMap<>(lastSeen);
+    }
+
+    public Map<String, Long> getLastSeen() { return lastSeen; }
+
+    @Override
+    public String toString() {
+        return "DeliveryAck" + lastSeen;
+    }
+}
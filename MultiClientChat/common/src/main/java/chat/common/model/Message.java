@@ -1,6 +1,7 @@
 package chat.common.model;
 
 import java.time.LocalDateTime;
+import java.util.UUID;
 
 /**
  * Representa un mensaje intercambiado entre usuarios en el sistema de chat.
@@ -8,6 +9,16 @@ import java.time.LocalDateTime;
  * Puede ser un mensaje de texto o de audio. Además de la información básica
  * (remitente, destinatario, contenido, timestamp), puede incluir datos binarios
  * y metadatos asociados al audio.
+ *
+ * Cada mensaje lleva una clave de idempotencia ({@code messageId}) generada al crearlo
+ * en el cliente, que se conserva en los reintentos, y un número de secuencia por
+ * conversación ({@code sequence}) que asigna el servidor (0 mientras no se haya asignado).
+ *
+ * Las notas de voz nuevas viajan por partes: el mensaje no lleva {@code audioData}
+ * sino el tamaño del archivo ({@code audioSize}) y va seguido de {@link AudioChunk}s.
+ * El remitente agrega la duración ({@code audioDurationMillis}) y unas barras con la forma
+ * de onda ({@code audioPeaks}, ver {@link chat.common.util.WaveformPeaks}), que se guardan
+ * en el historial para mostrar la nota sin abrir el archivo.
  */
 public class Message implements ChatPayload {
 
@@ -27,6 +38,11 @@ public class Message implements ChatPayload {
     private byte[] audioData;
     private String audioFilePath;
     private AudioFormatWrapper audioFormatWrapper;
+    private String messageId;
+    private long sequence;
+    private long audioSize;
+    private long audioDurationMillis;
+    private byte[] audioPeaks;
 
     /**
      * Crea un mensaje de texto.
@@ -37,6 +53,7 @@ public class Message implements ChatPayload {
         this.type = type;
         this.content = content;
         this.timestamp = timestamp;
+        this.messageId = UUID.randomUUID().toString();
     }
 
     /**
@@ -68,4 +85,38 @@ public class Message implements ChatPayload {
     public void setAudioFilePath(String audioFilePath) { this.audioFilePath = audioFilePath; }
     public AudioFormatWrapper getAudioFormatWrapper() { return audioFormatWrapper; }
     public void setAudioFormatWrapper(AudioFormatWrapper audioFormatWrapper) { this.audioFormatWrapper = audioFormatWrapper; }
+    public String getMessageId() { return messageId; }
+    public void setMessageId(String messageId) { this.messageId = messageId; }
+    public long getSequence() { return sequence; }
+    public void setSequence(long sequence) { this.sequence = sequence; }
+    public long getAudioSize() { return audioSize; }
+    public void setAudioSize(long audioSize) { this.audioSize = audioSize; }
+    /** Duración de la nota de voz, o 0 si el remitente no la indicó. */
+    public long getAudioDurationMillis() { return audioDurationMillis; }
+    public void setAudioDurationMillis(long audioDurationMillis) { this.audioDurationMillis = audioDurationMillis; }
+    /** Picos de la forma de onda (0 a 127), o null si el remitente no los indicó. */
+    public byte[] getAudioPeaks() { return audioPeaks; }
+    public void setAudioPeaks(byte[] audioPeaks) { this.audioPeaks = audioPeaks; }
+
+    /**
+     * Indica si el audio de este mensaje se transmite por fragmentos en lugar de en {@code audioData}.
+     */
+    public boolean isStreamedAudio() {
+        return type == Type.AUDIO && audioData == null && audioSize > 0;
+    }
+
+    /**
+     * Devuelve una copia del mensaje sin los datos binarios de audio,
+     * conservando la ruta, el formato y los identificadores. Se usa para el historial.
+     * @return Copia ligera del mensaje
+     */
+    public Message withoutAudioData() {
+        Message copy = new Message(from, to, type, content, timestamp, audioFilePath, audioFormatWrapper);
+        copy.messageId = messageId;
+        copy.sequence = sequence;
+        copy.audioSize = audioSize;
+        copy.audioDurationMillis = audioDurationMillis;
+        copy.audioPeaks = audioPeaks;
+        return copy;
+    }
 }
@@ -0,0 +1,36 @@
+package chat.common.model;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Lote de mensajes enviado por el servidor en una sola trama.
+ *
+ * Se utiliza para reenviar al cliente los mensajes que quedaron pendientes
+ * mientras estaba desconectado. Cada lote tiene un tamaño acotado; el campo
+ * {@code remaining} indica cuántos mensajes quedan por enviar en lotes posteriores.
+ */
+public class MessageBatch implements Serializable {
+    private final List<Message> messages;
+    private final int remaining;
+
+    /**
+     * Crea un lote de mensajes.
+     * @param messages Mensajes del lote, en orden de llegada
+     * @param remaining Mensajes pendientes después de este lote
+     */
+    public MessageBatch(List<Message> messages, int remaining) {
+        this.messages = messages != null ? messages : new ArrayList<>();
+        this.remaining = remaining;
+    }
+
+    public List<Message> getMessages() { return messages; }
+    public int getRemaining() { return remaining; }
+    public boolean isLast() { return remaining == 0; }
+
+    @Override
+    public String toString() {
+        return "MessageBatch[" + messages.size() + " mensajes, quedan " + remaining + "]";
+    }
+}
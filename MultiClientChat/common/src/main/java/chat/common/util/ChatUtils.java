@@ -34,6 +34,19 @@ public class ChatUtils {
         return idx >= 0 ? dirName.substring(0, idx) : dirName;
     }
 
+    /**
+     * Devuelve la clave que identifica una conversación, igual para ambos extremos.
+     * Para grupos es el nombre del grupo; para chats privados, los dos usuarios ordenados.
+     */
+    public static String conversationKey(chat.common.model.ChatTarget from, chat.common.model.ChatTarget to) {
+        if (to.isGroup()) {
+            return to.getUsername();
+        }
+        String a = from.getUsername();
+        String b = to.getUsername();
+        return a.compareTo(b) <= 0 ? a + "|" + b : b + "|" + a;
+    }
+
     /**
      * Genera el nombre seguro con hash SHA-1.
      */
@@ -0,0 +1,149 @@
+package chat.common.util;
+
+/**
+ * Códec IMA-ADPCM por bloques (mono): comprime PCM de 16 bits a 4 bits por muestra (~4:1).
+ *
+ * Usa el formato de bloque de WAV ({@code WAVE_FORMAT_IMA_ADPCM}): cada bloque empieza
+ * con una cabecera de 4 bytes (primera muestra en 16 bits y el índice del paso) seguida
+ * de las muestras restantes como nibbles, el de menor peso primero. Como cada bloque es
+ * independiente, se puede decodificar desde cualquier bloque (útil para buscar posiciones).
+ */
+public class ImaAdpcmCodec {
+    private static final int[] INDEX_TABLE = {
+        -1, -1, -1, -1, 2, 4, 6, 8,
+        -1, -1, -1, -1, 2, 4, 6, 8
+    };
+
+    private static final int[] STEP_TABLE = {
+        7, 8, 9, 10, 11, 12, 13, 14, 16, 17,
+        19, 21, 23, 25, 28, 31, 34, 37, 41, 45,
+        50, 55, 60, 66, 73, 80, 88, 97, 107, 118,
+        130, 143, 157, 173, 190, 209, 230, 253, 279, 307,
+        337, 371, 408, 449, 494, 544, 598, 658, 724, 796,
+        876, 963, 1060, 1166, 1282, 1411, 1552, 1707, 1878, 2066,
+        2272, 2499, 2749, 3024, 3327, 3660, 4026, 4428, 4871, 5358,
+        5894, 6484, 7132, 7845, 8630, 9493, 10442, 11487, 12635, 13899,
+        15289, 16818, 18500, 20350, 22385, 24623, 27086, 29794, 32767
+    };
+
+    /** Tamaño de la cabecera de cada bloque, en bytes. */
+    public static final int BLOCK_HEADER_SIZE = 4;
+
+    /**
+     * Devuelve el tamaño en bytes de un bloque que contiene la cantidad de muestras dada.
+     */
+    public static int blockSize(int samplesPerBlock) {
+        return BLOCK_HEADER_SIZE + samplesPerBlock / 2;
+    }
+
+    /**
+     * Devuelve cuántas muestras contiene un bloque del tamaño dado.
+     */
+    public static int samplesPerBlock(int blockSize) {
+        return (blockSize - BLOCK_HEADER_SIZE) * 2 + 1;
+    }
+
+    /**
+     * Estado del codificador. El índice del paso se conserva entre bloques para que
+     * el primer tramo de cada bloque no pierda precisión.
+     */
+    public static class Encoder {
+        private int index = 0;
+        private int predictor = 0;
+
+        /**
+         * Codifica un bloque completo.
+         * @param samples Muestras PCM de 16 bits
+         * @param offset Primera muestra a codificar
+         * @param count Muestras del bloque (1 en la cabecera + el resto en nibbles)
+         * @param out Destino; recibe {@link #blockSize(int)} bytes
+         * @param outOffset Posición inicial en {@code out}
+         * @return Cantidad de bytes escritos
+         */
+        public int encodeBlock(short[] samples, int offset, int count, byte[] out, int outOffset) {
+            predictor = samples[offset];
+            out[outOffset] = (byte) predictor;
+            out[outOffset + 1] = (byte) (predictor >> 8);
+            out[outOffset + 2] = (byte) index;
+            out[outOffset + 3] = 0;
+            int pos = outOffset + BLOCK_HEADER_SIZE;
+            for (int i = 1; i < count; i += 2) {
+                int low = encodeSample(samples[offset + i]);
+                int high = i + 1 < count ? encodeSample(samples[offset + i + 1]) : 0;
+                out[pos++] = (byte) (low | (high << 4));
+            }
+            return pos - outOffset;
+        }
+
+        private int encodeSample(int sample) {
+            int step = STEP_TABLE[index];
+            int diff = sample - predictor;
+            int nibble = 0;
+            if (diff < 0) {
+                nibble = 8;
+                diff = -diff;
+            }
+            int delta = step >> 3;
+            if (diff >= step) {
+                nibble |= 4;
+                diff -= step;
+                delta += step;
+            }
+            step >>= 1;
+            if (diff >= step) {
+                nibble |= 2;
+                diff -= step;
+                delta += step;
+            }
+            step >>= 1;
+            if (diff >= step) {
+                nibble |= 1;
+                delta += step;
+            }
+            predictor = clamp16((nibble & 8) != 0 ? predictor - delta : predictor + delta);
+            index = clampIndex(index + INDEX_TABLE[nibble]);
+            return nibble;
+        }
+    }
+
+    /**
+     * Decodifica un bloque.
+     * @param block Bytes codificados
+     * @param offset Inicio del bloque en {@code block}
+     * @param count Muestras a decodificar (como máximo las que contiene el bloque)
+     * @param out Destino de las muestras PCM de 16 bits
+     * @param outOffset Posición inicial en {@code out}
+     * @return Cantidad de muestras escritas
+     */
+    public static int decodeBlock(byte[] block, int offset, int count, short[] out, int outOffset) {
+        if (count <= 0) return 0;
+        int predictor = (short) ((block[offset] & 0xff) | (block[offset + 1] << 8));
+        int index = clampIndex(block[offset + 2] & 0xff);
+        out[outOffset] = (short) predictor;
+        int written = 1;
+        int pos = offset + BLOCK_HEADER_SIZE;
+        while (written < count) {
+            int b = block[pos++] & 0xff;
+            for (int shift = 0; shift <= 4 && written < count; shift += 4) {
+                int nibble = (b >> shift) & 0x0f;
+                int step = STEP_TABLE[index];
+                int delta = step >> 3;
+                if ((nibble & 4) != 0) delta += step;
+                if ((nibble & 2) != 0) delta += step >> 1;
+                if ((nibble & 1) != 0) delta += step >> 2;
+                predictor = clamp16((nibble & 8) != 0 ? predictor - delta : predictor + delta);
+                index = clampIndex(index + INDEX_TABLE[nibble]);
+                out[outOffset + written++] = (short) predictor;
+            }
+        }
+        return written;
+    }
+
+    private static int clamp16(int value) {
+        return value > Short.MAX_VALUE ? Short.MAX_VALUE : (value < Short.MIN_VALUE ? Short.MIN_VALUE : value);
+    }
+
+    private static int clampIndex(int index) {
+        return index < 0 ? 0 : (index > 88 ? 88 : index);
+    }
+}
@@ -14,15 +14,25 @@ import com.google.gson.JsonPrimitive;
 import com.google.gson.JsonSerializationContext;
 import com.google.gson.JsonSerializer;
 import com.google.gson.reflect.TypeToken;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
 
+import java.io.BufferedReader;
+import java.io.File;
 import java.io.FileReader;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.StringReader;
 import java.lang.reflect.Type;
+import java.nio.charset.Charset;
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
 import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collections;
 import java.util.List;
+import java.util.function.BooleanSupplier;
 
 /**
  * Utilidad para manejar el historial de mensajes de un chat en un archivo JSON.
@@ -38,6 +48,7 @@ public class MessageHistoryUtil {
     private static final Gson gson = new GsonBuilder()
             .setPrettyPrinting()
             .registerTypeAdapter(LocalDateTime.class, new LocalDateTimeAdapter())
+            .registerTypeAdapter(byte[].class, new ByteArrayAdapter())
             .registerTypeAdapterFactory(chatTargetAdapterFactory)
             .create();
 
@@ -45,27 +56,74 @@ public class MessageHistoryUtil {
     private static final Type MESSAGE_LIST_TYPE = new TypeToken<List<Message>>(){}.getType();
 
     public static void saveMessageToHistory(String filePath, Message message) throws IOException {
-    List<Message> history = loadHistory(filePath);
-    // Crear una copia del mensaje con audioData en null si es un mensaje de audio
-    Message messageToSave = message;
-    if (message.getType() == Message.Type.AUDIO) {
-        messageToSave = new Message(
-        message.getFrom(),
-        message.getTo(),
-        message.getType(),
-        message.getContent(),
-        message.getTimestamp(),
-        message.getAudioFilePath(),
-        message.getAudioFormatWrapper()
-    );
+        appendMessagesToHistory(filePath, Collections.singletonList(message));
     }
-    history.add(messageToSave);
-    try (FileWriter writer = new FileWriter(filePath)) {
-        String json = gson.toJson(history);
-        System.out.println("[DEBUG] JSON a guardar en historial: " + json);
-        writer.write(json);
+
+    /**
+     * Agrega mensajes al final del historial sin volver a leer ni escribir los anteriores:
+     * se sobrescribe el {@code ]} final con los mensajes nuevos y se vuelve a cerrar el
+     * array. Si el archivo no existe o está vacío se crea; si no termina en {@code ]}
+     * (dañado o de otro formato) se reescribe entero como antes.
+     * <p>
+     * Los mensajes de audio se guardan sin {@code audioData}.
+     * @param filePath Archivo de historial
+     * @param messages Mensajes en orden
+     */
+    public static void appendMessagesToHistory(String filePath, List<Message> messages) throws IOException {
+        if (messages.isEmpty()) return;
+        StringBuilder json = new StringBuilder();
+        for (Message message : messages) {
+            // Crear una copia del mensaje con audioData en null si es un mensaje de audio
+            Message messageToSave = message.getType() == Message.Type.AUDIO ? message.withoutAudioData() : message;
+            if (json.length() > 0) json.append(',');
+            // Misma sangría que los elementos de un array escrito por gson
+            json.append("\n  ").append(gson.toJson(messageToSave).replace("\n", "\n  "));
+        }
+        json.append("\n]");
+        Charset charset = Charset.defaultCharset();
+        File file = new File(filePath);
+        if (file.getParentFile() != null) file.getParentFile().mkdirs();
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            long end = lastNonBlank(raf, raf.length());
+            if (end < 0) {
+                raf.setLength(0);
+                raf.write(("[" + json).getBytes(charset));
+                return;
+            }
+            raf.seek(end);
+            if (raf.read() == ']') {
+                long before = lastNonBlank(raf, end);
+                boolean empty = before >= 0 && readAt(raf, before) == '[';
+                // Desde justo después del último elemento (o del '[')
+                raf.seek(before + 1);
+                raf.write(((empty ? "" : ",") + json).getBytes(charset));
+                raf.setLength(raf.getFilePointer());
+                return;
+            }
+        }
+        // No es un array cerrado: se reescribe con lo que se pueda leer
+        List<Message> history = loadHistory(filePath);
+        for (Message message : messages) {
+            history.add(message.getType() == Message.Type.AUDIO ? message.withoutAudioData() : message);
+        }
+        try (FileWriter writer = new FileWriter(filePath)) {
+            writer.write(gson.toJson(history));
+        }
+    }
+
+    /** Posición del último byte que no es espacio antes de {@code from}, o -1. */
+    private static long lastNonBlank(RandomAccessFile raf, long from) throws IOException {
+        for (long pos = from - 1; pos >= 0; pos--) {
+            int b = readAt(raf, pos);
+            if (b != ' ' && b != '\n' && b != '\r' && b != '\t') return pos;
+        }
+        return -1;
+    }
+
+    private static int readAt(RandomAccessFile raf, long pos) throws IOException {
+        raf.seek(pos);
+        return raf.read();
     }
-}
 
     public static List<Message> loadHistory(String filePath) throws IOException {
         System.out.println("[DEBUG] loadHistory: Trying to read file: " + filePath);
@@ -85,6 +143,172 @@ public class MessageHistoryUtil {
         }
     }
 
+    /**
+     * Lee el historial mensaje a mensaje, comprobando entre uno y otro si la lectura se
+     * canceló; así abandonar un historial grande no espera a terminar de analizarlo.
+     * @param filePath Archivo de historial
+     * @param cancelled Indica si hay que abandonar la lectura
+     * @return Mensajes en orden; vacío si el archivo no existe o está dañado; null si se canceló
+     */
+    public static List<Message> readHistory(String filePath, BooleanSupplier cancelled) {
+        List<Message> history = new ArrayList<>();
+        java.io.File f = new java.io.File(filePath);
+        if (!f.exists()) return history;
+        try (JsonReader reader = gson.newJsonReader(new BufferedReader(new FileReader(f)))) {
+            if (reader.peek() != JsonToken.BEGIN_ARRAY) return history;
+            reader.beginArray();
+            while (reader.hasNext()) {
+                if (cancelled.getAsBoolean()) return null;
+                Message msg = gson.fromJson(reader, Message.class);
+                if (msg != null) history.add(msg);
+            }
+            reader.endArray();
+        } catch (Exception e) {
+            System.err.println("[ERROR] No se pudo leer el historial " + filePath + ": " + e.getMessage() + " (" + history.size() + " mensajes leídos)");
+        }
+        return history;
+    }
+
+    /**
+     * Lee solo el último mensaje del historial, para la vista previa de la lista de chats.
+     * <p>
+     * Lo toma del final del archivo con {@link ReverseReader}, sin analizar los anteriores.
+     * Si el archivo tiene otro formato, lo recorre entero sin guardar los mensajes.
+     * @param filePath Archivo de historial
+     * @return El último mensaje, o null si no hay ninguno o el archivo no se puede leer
+     */
+    public static Message readLastMessage(String filePath) {
+        File file = new File(filePath);
+        if (!file.isFile()) return null;
+        try {
+            List<Message> page = new ReverseReader(filePath).readPage(1);
+            return page.isEmpty() ? null : page.get(0);
+        } catch (IOException | RuntimeException e) {
+            // Otro formato: se recorre entero
+        }
+        Message last = null;
+        try (JsonReader reader = gson.newJsonReader(new BufferedReader(new FileReader(file)))) {
+            if (reader.peek() != JsonToken.BEGIN_ARRAY) return null;
+            reader.beginArray();
+            while (reader.hasNext()) {
+                Message msg = gson.fromJson(reader, Message.class);
+                if (msg != null) last = msg;
+            }
+        } catch (Exception e) {
+            System.err.println("[ERROR] No se pudo leer el historial " + filePath + ": " + e.getMessage());
+        }
+        return last;
+    }
+
+    /**
+     * Lee un historial desde el final, por páginas, sin analizar los mensajes anteriores a
+     * los pedidos; así la página más reciente de un chat largo no espera a todo el archivo.
+     * <p>
+     * En los archivos de gson y de {@link #appendMessagesToHistory} cada elemento del array
+     * empieza en una línea con {@code "  {"}: los objetos anidados llevan más sangría y las
+     * cadenas no tienen saltos de línea sin escapar. Los elementos se separan buscando esa
+     * marca hacia atrás. Cada página vuelve a abrir el archivo; lo que se agregue al final
+     * mientras tanto no mueve lo que queda por leer.
+     * <p>
+     * Si el archivo no tiene ese formato, {@link #readPage} lanza {@link IOException} y hay
+     * que leerlo entero con {@link #readHistory}. No es seguro entre hilos.
+     */
+    public static final class ReverseReader {
+        private static final byte[] MARKER = "\n  {".getBytes(Charset.forName("US-ASCII"));
+        private static final int CHUNK = 16 * 1024;
+
+        private final File file;
+        private boolean started = false;
+        /** Fin de lo que queda por leer. */
+        private long end;
+        /** Posición de la marca del elemento anterior a {@link #end}, o -1 si no quedan. */
+        private long next = -1;
+
+        public ReverseReader(String filePath) {
+            this.file = new File(filePath);
+        }
+
+        /** Indica si quedan mensajes anteriores a los leídos. */
+        public boolean hasOlder() {
+            return !started || next >= 0;
+        }
+
+        /**
+         * Lee los mensajes anteriores a los ya leídos.
+         * @param count Mensajes como máximo
+         * @return Mensajes en orden cronológico; vacío si no quedan o el archivo no existe
+         * @throws IOException si el archivo no se puede leer o tiene otro formato
+         */
+        public List<Message> readPage(int count) throws IOException {
+            List<Message> page = new ArrayList<>();
+            if (!started && !file.isFile()) {
+                started = true;
+                return page;
+            }
+            try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+                if (!started) {
+                    long close = lastNonBlank(raf, raf.length());
+                    started = true;
+                    if (close < 0) return page;
+                    if (readAt(raf, close) != ']') throw new IOException("El historial no termina en ]: " + file);
+                    end = close;
+                    next = findElement(raf, end);
+                }
+                while (page.size() < count && next >= 0) {
+                    page.add(parse(raf, next + 1, end));
+                    end = next;
+                    next = findElement(raf, end);
+                }
+                if (next < 0) {
+                    // Antes del primer elemento solo puede quedar el '['
+                    long open = lastNonBlank(raf, end);
+                    if (open < 0 || readAt(raf, open) != '[') throw new IOException("Formato de historial no reconocido: " + file);
+                }
+            }
+            Collections.reverse(page);
+            return page;
+        }
+
+        /** Posición de la última marca de elemento que termina antes de {@code before}, o -1. */
+        private static long findElement(RandomAccessFile raf, long before) throws IOException {
+            byte[] buf = new byte[CHUNK + MARKER.length - 1];
+            long pos = before;
+            while (pos > 0) {
+                long start = Math.max(0, pos - CHUNK);
+                // Se solapan MARKER.length - 1 bytes con el trozo anterior, por si la marca quedó partida
+                int len = (int) (Math.min(before, pos + MARKER.length - 1) - start);
+                raf.seek(start);
+                raf.readFully(buf, 0, len);
+                for (int i = len - MARKER.length; i >= 0; i--) {
+                    if (matches(buf, i)) return start + i;
+                }
+                pos = start;
+            }
+            return -1;
+        }
+
+        private static boolean matches(byte[] buf, int at) {
+            for (int j = 0; j < MARKER.length; j++) {
+                if (buf[at + j] != MARKER[j]) return false;
+            }
+            return true;
+        }
+
+        private static Message parse(RandomAccessFile raf, long from, long to) throws IOException {
+            byte[] bytes = new byte[(int) (to - from)];
+            raf.seek(from);
+            raf.readFully(bytes);
+            try {
+                // Lee un solo objeto; la coma o el salto de línea que lo siguen se ignoran
+                Message msg = gson.fromJson(gson.newJsonReader(new StringReader(new String(bytes, Charset.defaultCharset()))), Message.class);
+                if (msg == null) throw new IOException("Elemento vacío en " + from);
+                return msg;
+            } catch (RuntimeException e) {
+                throw new IOException("Mensaje no válido en la posición " + from + ": " + e.getMessage(), e);
+            }
+        }
+    }
+
     // Utilidad para generar el nombre del archivo de historial por chat
     public static String getHistoryFilePath(String userDir, String chatName) {
         return userDir + "/history/" + chatName + ".json";
@@ -101,4 +325,25 @@ public class MessageHistoryUtil {
             return LocalDateTime.parse(json.getAsString(), DateTimeFormatter.ISO_LOCAL_DATE_TIME);
         }
     }
+
+    /**
+     * Guarda los arrays de bytes (los picos de las notas de voz) en Base64, en una línea,
+     * en lugar de un número por línea. También lee el formato de array.
+     */
+    private static class ByteArrayAdapter implements JsonSerializer<byte[]>, JsonDeserializer<byte[]> {
+        @Override
+        public JsonElement serialize(byte[] src, Type typeOfSrc, JsonSerializationContext context) {
+            return new JsonPrimitive(Base64.getEncoder().encodeToString(src));
+        }
+
+        @Override
+        public byte[] deserialize(JsonElement json, Type typeOfT, JsonDeserializationContext context) {
+            if (json.isJsonArray()) {
+                byte[] bytes = new byte[json.getAsJsonArray().size()];
+                for (int i = 0; i < bytes.length; i++) bytes[i] = json.getAsJsonArray().get(i).getAsByte();
+                return bytes;
+            }
+            return Base64.getDecoder().decode(json.getAsString());
+        }
+    }
 }
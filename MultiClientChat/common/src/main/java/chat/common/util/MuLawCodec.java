@@ -0,0 +1,86 @@
+package chat.common.util;
+
+/**
+ * Códec G.711 μ-law: comprime muestras PCM de 16 bits a 8 bits (2:1).
+ *
+ * Es una compresión logarítmica sin estado, adecuada para voz. Las muestras PCM se
+ * leen y escriben en formato little-endian con signo, como las captura Java Sound.
+ */
+public class MuLawCodec {
+    private static final int BIAS = 0x84;
+    private static final int CLIP = 32635;
+
+    private static final short[] DECODE_TABLE = new short[256];
+    static {
+        for (int i = 0; i < 256; i++) {
+            int u = ~i & 0xff;
+            int sign = u & 0x80;
+            int exponent = (u >> 4) & 0x07;
+            int mantissa = u & 0x0f;
+            int sample = (((mantissa << 3) + BIAS) << exponent) - BIAS;
+            DECODE_TABLE[i] = (short) (sign != 0 ? -sample : sample);
+        }
+    }
+
+    /**
+     * Codifica una muestra PCM de 16 bits.
+     */
+    public static byte encode(short pcm) {
+        int sample = pcm;
+        int sign = (sample >> 8) & 0x80;
+        if (sign != 0) sample = -sample;
+        if (sample > CLIP) sample = CLIP;
+        sample += BIAS;
+        int exponent = 7;
+        for (int mask = 0x4000; (sample & mask) == 0 && exponent > 0; mask >>= 1) {
+            exponent--;
+        }
+        int mantissa = (sample >> (exponent + 3)) & 0x0f;
+        return (byte) ~(sign | (exponent << 4) | mantissa);
+    }
+
+    /**
+     * Decodifica una muestra μ-law a PCM de 16 bits.
+     */
+    public static short decode(byte ulaw) {
+        return DECODE_TABLE[ulaw & 0xff];
+    }
+
+    /**
+     * Codifica un bloque PCM 16 bits little-endian.
+     * @param pcm Bytes PCM de origen
+     * @param offset Posición inicial en {@code pcm}
+     * @param length Cantidad de bytes PCM (par)
+     * @param out Destino; recibe {@code length / 2} bytes
+     * @param outOffset Posición inicial en {@code out}
+     * @return Cantidad de bytes escritos
+     */
+    public static int encode(byte[] pcm, int offset, int length, byte[] out, int outOffset) {
+        int samples = length / 2;
+        for (int i = 0; i < samples; i++) {
+            int p = offset + i * 2;
+            short sample = (short) ((pcm[p] & 0xff) | (pcm[p + 1] << 8));
+            out[outOffset + i] = encode(sample);
+        }
+        return samples;
+    }
+
+    /**
+     * Decodifica un bloque μ-law a PCM 16 bits little-endian.
+     * @param ulaw Bytes μ-law de origen
+     * @param offset Posición inicial en {@code ulaw}
+     * @param length Cantidad de bytes μ-law
+     * @param out Destino; recibe {@code length * 2} bytes
+     * @param outOffset Posición inicial en {@code out}
+     * @return Cantidad de bytes escritos
+     */
+    public static int decode(byte[] ulaw, int offset, int length, byte[] out, int outOffset) {
+        for (int i = 0; i < length; i++) {
+            short sample = DECODE_TABLE[ulaw[offset + i] & 0xff];
+            int p = outOffset + i * 2;
+            out[p] = (byte) sample;
+            out[p + 1] = (byte) (sample >> 8);
+        }
+        return length * 2;
+    }
+}
@@ -0,0 +1,132 @@
+package chat.common.util;
+
+import chat.common.model.User;
+
+import java.io.File;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Registro de usuarios de una carpeta {@code userdata}, indexado por nombre visible y por
+ * nombre seguro (el de la carpeta).
+ * <p>
+ * La carpeta se recorre una sola vez, la primera vez que se usa (o antes, con
+ * {@link #load()} en segundo plano), leyendo cada {@code user.json}. Después las búsquedas
+ * son en memoria y {@link #register} agrega al índice los usuarios nuevos. Si un nombre no
+ * está en el índice (lo registró otro proceso después de cargarlo), se mira solo su
+ * carpeta, que se deduce del nombre con {@link ChatUtils#getSafeName}, sin volver a
+ * recorrer la carpeta entera.
+ * <p>
+ * Hay una instancia por carpeta, compartida por el inicio de sesión y el chat.
+ */
+public class UserDirectory {
+    private static final Map<String, UserDirectory> INSTANCES = new ConcurrentHashMap<>();
+
+    private final String userdataDir;
+    private final Map<String, User> byUsername = new ConcurrentHashMap<>();
+    private final Map<String, User> byDisplayName = new ConcurrentHashMap<>();
+    private volatile boolean loaded = false;
+
+    private UserDirectory(String userdataDir) {
+        this.userdataDir = userdataDir;
+    }
+
+    /**
+     * Devuelve el registro de una carpeta de datos.
+     * @param userdataDir Ruta de la carpeta {@code userdata}
+     */
+    public static UserDirectory of(String userdataDir) {
+        return INSTANCES.computeIfAbsent(userdataDir, UserDirectory::new);
+    }
+
+    /** Recorre la carpeta y llena el índice si aún no se hizo. */
+    public void load() {
+        if (loaded) return;
+        synchronized (this) {
+            if (loaded) return;
+            long start = System.nanoTime();
+            File[] dirs = new File(userdataDir).listFiles(File::isDirectory);
+            if (dirs != null) {
+                for (File dir : dirs) {
+                    File userJson = new File(dir, "user.json");
+                    if (userJson.isFile()) {
+                        User user = read(userJson);
+                        if (user != null) index(user);
+                    } else if (!new File(dir, "group.json").exists()) {
+                        // Carpetas antiguas sin user.json: el nombre visible es el de la carpeta
+                        index(new User(dir.getName(), ChatUtils.getBaseName(dir.getName())));
+                    }
+                }
+            }
+            loaded = true;
+            System.out.println("[USERS] " + byUsername.size() + " usuarios indexados en "
+                + (System.nanoTime() - start) / 1_000_000 + " ms");
+        }
+    }
+
+    /**
+     * Busca un usuario por su nombre visible.
+     * @return El usuario, o null si no está registrado
+     */
+    public User findByDisplayName(String displayName) {
+        load();
+        User user = byDisplayName.get(displayName);
+        return user != null ? user : readRegistered(ChatUtils.getSafeName(displayName));
+    }
+
+    /**
+     * Busca un usuario por su nombre seguro.
+     * @return El usuario, o null si no está registrado
+     */
+    public User findByUsername(String username) {
+        load();
+        User user = byUsername.get(username);
+        return user != null ? user : readRegistered(username);
+    }
+
+    /**
+     * Devuelve el usuario con ese nombre visible y, si no existe, lo crea en disco
+     * ({@link ChatUtils#ensureUserExists}) y lo agrega al índice.
+     */
+    public User register(String displayName) {
+        User user = findByDisplayName(displayName);
+        if (user != null) return user;
+        String safeName = ChatUtils.ensureUserExists(displayName, userdataDir);
+        user = new User(safeName, displayName);
+        index(user);
+        return user;
+    }
+
+    /** Usuarios en el índice. */
+    public int size() {
+        return byUsername.size();
+    }
+
+    private User readRegistered(String dirName) {
+        File userJson = new File(userdataDir, dirName + "/user.json");
+        if (!userJson.isFile()) return null;
+        User user = read(userJson);
+        if (user != null) index(user);
+        return user;
+    }
+
+    private void index(User user) {
+        byUsername.put(user.getUsername(), user);
+        String displayName = user.getDisplayName();
+        if (displayName == null) return;
+        // Si una carpeta antigua y una con hash comparten nombre visible, gana la de hash
+        User previous = byDisplayName.get(displayName);
+        if (previous == null || user.getUsername().equals(ChatUtils.getSafeName(displayName))) {
+            byDisplayName.put(displayName, user);
+        }
+    }
+
+    private static User read(File userJson) {
+        try {
+            return JSONUtil.readFromJsonFile(userJson.getPath(), User.class);
+        } catch (Exception e) {
+            System.err.println("[ERROR] No se pudo leer " + userJson + ": " + e.getMessage());
+            return null;
+        }
+    }
+}
@@ -0,0 +1,148 @@
+package chat.common.util;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Cabecera de los paquetes UDP de las llamadas de voz.
+ *
+ * Cada datagrama lleva una cabecera fija seguida de una trama de audio:
+ * <pre>
+ *   0      1         2..5     6..9        10..13
+ *   tipo   formato   token    secuencia   marca de tiempo (en muestras)
+ * </pre>
+ * Los enteros van en big-endian. La secuencia aumenta en uno por trama y la marca de
+ * tiempo en la cantidad de muestras de cada trama; con ellas el receptor reordena los
+ * paquetes, descarta los que llegan tarde y detecta los perdidos.
+ * <p>
+ * El token identifica el tramo de la llamada cuando el audio pasa por el relé del
+ * servidor (lo asigna el servidor en el ACCEPT); en llamadas directas vale 0.
+ * <p>
+ * La secuencia cuenta tramas, no paquetes: durante los silencios el emisor no envía
+ * audio sino, de vez en cuando, un paquete de ruido de confort cuya carga es el nivel
+ * RMS del ruido de fondo (2 bytes); el receptor genera ruido de ese nivel hasta que
+ * vuelve la voz.
+ * <p>
+ * El byte de formato describe la carga de los paquetes de audio: códec (PCM de 16 bits o
+ * μ-law), frecuencia (16 kHz o la mitad) y cuántas tramas consecutivas lleva el paquete.
+ * Vale 0 para una trama PCM a 16 kHz. El receptor devuelve cada segundo un paquete de
+ * informe con la pérdida y la fluctuación que mide, y el emisor ajusta con él el formato.
+ * <p>
+ * Todos los accesos usan posiciones absolutas para no alterar la posición ni el límite
+ * del buffer.
+ */
+public final class VoicePacket {
+    /** Tamaño de la cabecera, en bytes. */
+    public static final int HEADER_SIZE = 14;
+
+    /** Paquete con una trama de audio. */
+    public static final byte TYPE_AUDIO = 1;
+    /** Paquete de ruido de confort (silencio suprimido). */
+    public static final byte TYPE_COMFORT_NOISE = 2;
+    /** Carga de un paquete de ruido de confort: nivel RMS sin signo. */
+    public static final int COMFORT_NOISE_PAYLOAD = 2;
+    /** Informe del receptor: pérdida, fluctuación y tramas observadas. */
+    public static final byte TYPE_FEEDBACK = 3;
+    /** Carga de un informe: pérdida (1 byte, en 1/256), fluctuación en ms (2) y tramas (2). */
+    public static final int FEEDBACK_PAYLOAD = 5;
+
+    /** Bit de formato: carga en μ-law (8 bits por muestra) en lugar de PCM de 16 bits. */
+    public static final int FORMAT_MULAW = 0x01;
+    /** Bit de formato: audio a la mitad de la frecuencia de la llamada. */
+    public static final int FORMAT_HALF_RATE = 0x02;
+    /** Máximo de tramas por paquete que admite el byte de formato. */
+    public static final int MAX_FRAMES_PER_PACKET = 4;
+
+    private VoicePacket() {}
+
+    /**
+     * Escribe la cabecera al principio del buffer.
+     * @param buffer Datagrama de salida (la trama va a partir de {@link #HEADER_SIZE})
+     * @param type Tipo de paquete
+     * @param token Token del tramo en el relé (0 en llamadas directas)
+     * @param sequence Número de secuencia
+     * @param timestamp Marca de tiempo en muestras
+     */
+    public static void writeHeader(ByteBuffer buffer, byte type, int token, int sequence, int timestamp) {
+        buffer.put(0, type);
+        buffer.put(1, (byte) 0);
+        buffer.putInt(2, token);
+        buffer.putInt(6, sequence);
+        buffer.putInt(10, timestamp);
+    }
+
+    /** Escribe el formato de la carga (por defecto 0: una trama PCM a la frecuencia completa). */
+    public static void setFormat(ByteBuffer buffer, int format) {
+        buffer.put(1, (byte) format);
+    }
+
+    public static int getFormat(ByteBuffer buffer) {
+        return buffer.get(1) & 0xff;
+    }
+
+    /**
+     * Compone el byte de formato.
+     * @param frames Tramas en el paquete (1 a {@link #MAX_FRAMES_PER_PACKET})
+     */
+    public static int format(boolean muLaw, boolean halfRate, int frames) {
+        return (muLaw ? FORMAT_MULAW : 0) | (halfRate ? FORMAT_HALF_RATE : 0) | ((frames - 1) << 4);
+    }
+
+    /** Tramas que lleva un paquete con el formato dado. */
+    public static int framesOf(int format) {
+        return ((format >> 4) & 0x03) + 1;
+    }
+
+    /** Indica si el datagrama recibido (de 0 al límite) tiene una cabecera completa. */
+    public static boolean isValid(ByteBuffer buffer) {
+        return buffer.limit() >= HEADER_SIZE;
+    }
+
+    public static byte getType(ByteBuffer buffer) {
+        return buffer.get(0);
+    }
+
+    public static int getToken(ByteBuffer buffer) {
+        return buffer.getInt(2);
+    }
+
+    public static int getSequence(ByteBuffer buffer) {
+        return buffer.getInt(6);
+    }
+
+    public static int getTimestamp(ByteBuffer buffer) {
+        return buffer.getInt(10);
+    }
+
+    /** Escribe el nivel de ruido de confort después de la cabecera. */
+    public static void putComfortNoiseLevel(ByteBuffer buffer, int level) {
+        buffer.putShort(HEADER_SIZE, (short) level);
+    }
+
+    public static int getComfortNoiseLevel(ByteBuffer buffer) {
+        return buffer.getShort(HEADER_SIZE) & 0xffff;
+    }
+
+    /**
+     * Escribe la carga de un informe del receptor después de la cabecera.
+     * @param lossFraction Fracción de tramas perdidas, de 0 a 1
+     * @param jitterMillis Fluctuación estimada
+     * @param frames Tramas reproducidas u ocultadas en el intervalo
+     */
+    public static void putFeedback(ByteBuffer buffer, double lossFraction, int jitterMillis, int frames) {
+        buffer.put(HEADER_SIZE, (byte) Math.min(255, Math.round(lossFraction * 256)));
+        buffer.putShort(HEADER_SIZE + 1, (short) Math.min(0xffff, jitterMillis));
+        buffer.putShort(HEADER_SIZE + 3, (short) Math.min(0xffff, frames));
+    }
+
+    public static double getFeedbackLoss(ByteBuffer buffer) {
+        return (buffer.get(HEADER_SIZE) & 0xff) / 256.0;
+    }
+
+    public static int getFeedbackJitterMillis(ByteBuffer buffer) {
+        return buffer.getShort(HEADER_SIZE + 1) & 0xffff;
+    }
+
+    public static int getFeedbackFrames(ByteBuffer buffer) {
+        return buffer.getShort(HEADER_SIZE + 3) & 0xffff;
+    }
+}
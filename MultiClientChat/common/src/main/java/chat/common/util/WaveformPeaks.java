@@ -0,0 +1,110 @@
+package chat.common.util;
+
+/**
+ * Calcula la duración y la forma de onda resumida de una nota de voz mientras se graba.
+ *
+ * Recibe PCM de 16 bits mono little-endian y guarda el pico de cada tramo de
+ * {@value #BUCKET_MILLIS} ms. Si la nota pasa de {@value #MAX_BUCKETS} tramos se juntan de
+ * dos en dos y se duplica su duración, de modo que la memoria no crece con la longitud de
+ * la grabación. Al terminar, {@link #toPeaks(int)} reduce los tramos a unas pocas barras
+ * que viajan en el mensaje y se guardan en el historial, para que la conversación pueda
+ * dibujar la nota sin abrir el archivo.
+ */
+public class WaveformPeaks {
+    /** Barras que se guardan en el mensaje. */
+    public static final int DEFAULT_BARS = 48;
+    /** Valor máximo de una barra. */
+    public static final int MAX_LEVEL = 127;
+    private static final int BUCKET_MILLIS = 20;
+    private static final int MAX_BUCKETS = 4096;
+
+    private final float sampleRate;
+    private final int[] buckets = new int[MAX_BUCKETS];
+    private int bucketCount = 0;
+    private long bucketSamples;
+    private long samplesInBucket = 0;
+    private int bucketPeak = 0;
+    private long sampleCount = 0;
+    private int pendingByte = -1;
+
+    /**
+     * @param sampleRate Frecuencia de muestreo de la grabación
+     */
+    public WaveformPeaks(float sampleRate) {
+        this.sampleRate = sampleRate;
+        this.bucketSamples = Math.max(1, (long) (sampleRate * BUCKET_MILLIS / 1000));
+    }
+
+    /** Agrega muestras PCM de 16 bits little-endian. */
+    public void add(byte[] pcm, int offset, int length) {
+        int end = offset + length;
+        int i = offset;
+        if (pendingByte >= 0 && i < end) {
+            add((short) (pendingByte | (pcm[i++] << 8)));
+            pendingByte = -1;
+        }
+        for (; i + 1 < end; i += 2) {
+            add((short) ((pcm[i] & 0xff) | (pcm[i + 1] << 8)));
+        }
+        if (i < end) {
+            pendingByte = pcm[i] & 0xff;
+        }
+    }
+
+    /** Agrega una muestra. */
+    public void add(short sample) {
+        int level = Math.abs((int) sample);
+        if (level > bucketPeak) bucketPeak = level;
+        sampleCount++;
+        if (++samplesInBucket == bucketSamples) {
+            closeBucket();
+        }
+    }
+
+    /** Muestras recibidas. */
+    public long getSampleCount() {
+        return sampleCount;
+    }
+
+    /** Duración de lo grabado en milisegundos. */
+    public long getDurationMillis() {
+        return (long) (sampleCount * 1000 / sampleRate);
+    }
+
+    /**
+     * Reduce la grabación a una cantidad fija de barras, tomando el pico de cada parte.
+     * @param bars Barras a devolver
+     * @return Picos de 0 a {@value #MAX_LEVEL}; vacío si no hay audio
+     */
+    public byte[] toPeaks(int bars) {
+        int count = bucketCount + (samplesInBucket > 0 ? 1 : 0);
+        if (count == 0 || bars <= 0) return new byte[0];
+        byte[] peaks = new byte[bars];
+        for (int b = 0; b < bars; b++) {
+            // Cada barra cubre una parte proporcional de los tramos; con pocos tramos se repiten
+            int from = (int) ((long) b * count / bars);
+            int to = Math.max(from + 1, (int) ((long) (b + 1) * count / bars));
+            int peak = 0;
+            for (int k = from; k < to && k < count; k++) {
+                peak = Math.max(peak, k < bucketCount ? buckets[k] : bucketPeak);
+            }
+            peaks[b] = (byte) Math.min(MAX_LEVEL, peak >> 8);
+        }
+        return peaks;
+    }
+
+    private void closeBucket() {
+        if (bucketCount == MAX_BUCKETS) {
+            for (int k = 0; k < MAX_BUCKETS / 2; k++) {
+                buckets[k] = Math.max(buckets[2 * k], buckets[2 * k + 1]);
+            }
+            bucketCount = MAX_BUCKETS / 2;
+            bucketSamples *= 2;
+            // El tramo en curso pasa a medir el doble; se sigue llenando
+            if (samplesInBucket < bucketSamples) return;
+        }
+        buckets[bucketCount++] = bucketPeak;
+        bucketPeak = 0;
+        samplesInBucket = 0;
+    }
+}
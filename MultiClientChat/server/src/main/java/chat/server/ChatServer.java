@@ -2,15 +2,21 @@ package chat.server;
 
 import java.io.File;
 import java.io.FileOutputStream;
+import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
 import java.net.ServerSocket;
 import java.net.Socket;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 import java.time.LocalDateTime;
+import java.util.Collections;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Logger;
 import java.util.logging.Level;
 
@@ -18,6 +24,11 @@ import chat.common.model.Message;
 import chat.common.model.User;
 import chat.common.model.Group;
 import chat.common.model.CallSignal;
+import chat.common.model.MessageBatch;
+import chat.common.model.DeliveryAck;
+import chat.common.model.AudioChunk;
+import chat.common.model.ChatTarget;
+import chat.common.util.ChatUtils;
 import chat.common.util.MessageHistoryUtil;
 
 /**
@@ -41,8 +52,20 @@ public class ChatServer {
 
 
     private static Map<User, Socket> users = new ConcurrentHashMap<>();
-    private static Map<User, ObjectOutputStream> userOutputStreams = new ConcurrentHashMap<>();
+    private static Map<User, ClientWriter> writers = new ConcurrentHashMap<>();
     private static Map<String, Group> groups = new ConcurrentHashMap<>(); 
+    private static final OfflineMailbox mailbox = new OfflineMailbox();
+    private static final ConversationSequencer sequencer = new ConversationSequencer();
+    private static final VoiceNoteUploads uploads = new VoiceNoteUploads();
+    /** Relé UDP de llamadas; null si no está activado (propiedad {@code relay.port}). */
+    private static MediaRelay relay;
+    /** Mezclador de las llamadas de grupo; usa el puerto del relé y solo existe si este está activo. */
+    private static ConferenceMixer mixer;
+    /** Temporizadores del servidor: un solo hilo para todos los plazos. */
+    private static final HashedTimingWheel timers = new HashedTimingWheel(100, 512, "CallTimers");
+    /** Llamadas sonando; las no contestadas en {@code call.ringTimeoutSeconds} (30 s) vencen. */
+    private static final PendingCalls pendingCalls = new PendingCalls(timers,
+        TimeUnit.SECONDS.toMillis(Integer.getInteger("call.ringTimeoutSeconds", 30)), ChatServer::onCallTimeout);
 
  
     private static final String HISTORY_DIR = System.getProperty("userdata.dir", "userdata") + "/";
@@ -57,6 +80,17 @@ public class ChatServer {
     public static void main(String[] args) {
         System.out.println("Servidor de chat iniciado en puerto " + PORT);
         new File(HISTORY_DIR).mkdirs();
+        int relayPort = Integer.getInteger("relay.port", -1);
+        if (relayPort >= 0) {
+            try {
+                relay = new MediaRelay(relayPort);
+                relay.start();
+                mixer = new ConferenceMixer(relay);
+                mixer.start();
+            } catch (IOException e) {
+                System.out.println("[RELAY] No se pudo iniciar el relé en el puerto " + relayPort + ": " + e.getMessage());
+            }
+        }
         try (ServerSocket serverSocket = new ServerSocket(PORT)) {
             while (true) {
                 Socket clientSocket = serverSocket.accept();
@@ -91,10 +125,18 @@ public class ChatServer {
             System.out.println("[SERVER] Usuario recibido: " + user);
             System.out.println(user.getUsername() + " " + user.getDisplayName() + " " + (user.isConnected() ? "online" : "offline"));
         
-            users.put(user, clientSocket);
-            userOutputStreams.put(user, out);
-            out.writeObject("OK");
-            out.flush();
+            // Registrar la conexión y encolar el buzón bajo el mismo bloqueo que usa el envío,
+            // así ningún mensaje queda encolado ni se adelanta a los pendientes. La escritura
+            // la hace el hilo del cliente, fuera del bloqueo.
+            ClientWriter writer = new ClientWriter(user.getUsername(), clientSocket, out, ChatServer::voiceNoteFile);
+            synchronized (mailbox.lockFor(user.getUsername())) {
+                users.put(user, clientSocket);
+                ClientWriter previous = writers.put(user, writer);
+                if (previous != null) previous.close();
+                writer.send("OK");
+                replayOfflineMessages(user, writer);
+            }
+            writer.start();
             System.out.println("Usuario conectado: " + user.getUsername());
             Object obj;
             System.out.println("[SERVER] Esperando objetos del cliente " + user.getUsername() + "...");
@@ -103,50 +145,44 @@ public class ChatServer {
                 if (obj instanceof Message) {
                     Message msg = (Message) obj;
                     System.out.println("[SERVER] Mensaje recibido: " + msg);
-                    if (msg.getType() == Message.Type.TEXT || msg.getType() == Message.Type.AUDIO) {
+                    // El remitente decide la carpeta del historial y del audio: debe ser quien está conectado
+                    if (!isSessionUser(user, msg.getFrom())) {
+                        System.out.println("[WARN] Mensaje de " + user.getUsername() + " en nombre de " + msg.getFrom() + ", descartado");
+                    } else if (msg.isStreamedAudio()) {
+                        beginVoiceNoteUpload(msg);
+                    } else if (msg.getType() == Message.Type.TEXT || msg.getType() == Message.Type.AUDIO) {
                         processTextMessage(msg);
                     }
-                } else if (obj instanceof CallSignal) {
-                    CallSignal signal = (CallSignal) obj;
-                    System.out.println("[SERVER] Señal de llamada recibida: " + signal);
-                    // Buscar destinatario
-                    User toUser = null;
-                    for (User u : users.keySet()) {
-                        if (u.getUsername().equals(signal.getTo().getUsername())) {
-                            toUser = u;
-                            break;
-                        }
+                } else if (obj instanceof AudioChunk) {
+                    AudioChunk chunk = (AudioChunk) obj;
+                    if (!isSessionUser(user, chunk.getFrom())) {
+                        System.out.println("[WARN] Fragmento de audio de " + user.getUsername() + " en nombre de " + chunk.getFrom() + ", descartado");
+                        continue;
                     }
-                    if (toUser != null && userOutputStreams.containsKey(toUser)) {
-                        ObjectOutputStream oos = userOutputStreams.get(toUser);
-                        try {
-                            oos.writeObject(signal);
-                            oos.flush();
-                            System.out.println("[SERVER] Reenviada señal de llamada a " + toUser.getUsername() + ": " + signal.getType());
-                        } catch (Exception ex) {
-                            System.out.println("[SERVER] Error reenviando señal de llamada: " + ex.getMessage());
+                    try {
+                        Message completed = uploads.append(chunk);
+                        if (completed != null) {
+                            System.out.println("[AUDIO] Nota de voz recibida completa: " + completed.getAudioFilePath());
+                            processTextMessage(completed);
                         }
+                    } catch (IOException ex) {
+                        System.out.println("[AUDIO] Error recibiendo nota de voz: " + ex.getMessage());
+                    }
+                } else if (obj instanceof DeliveryAck) {
+                    DeliveryAck ack = (DeliveryAck) obj;
+                    int removed = mailbox.acknowledge(user.getUsername(), ack.getLastSeen());
+                    System.out.println("[MAILBOX] " + user.getUsername() + " confirmó " + ack.getLastSeen() + " (" + removed + " mensajes liberados)");
+                } else if (obj instanceof CallSignal) {
+                    CallSignal signal = (CallSignal) obj;
+                    // Las comprobaciones de las llamadas usan el remitente: debe ser quien está conectado
+                    if (user.getUsername().equals(signal.getFromUser())) {
+                        routeCallSignal(signal);
                     } else {
-                        
-                        if (signal.getType() == CallSignal.Type.REQUEST) {
-                            CallSignal cancelSignal = new CallSignal(
-                                CallSignal.Type.CANCEL,
-                                signal.getToUser(), 
-                                signal.getFromUser(),
-                                "El usuario no está disponible para la llamada.",
-                                LocalDateTime.now()
-                            );
-                            ObjectOutputStream oosFrom = userOutputStreams.get(new User(signal.getFromUser(), signal.getFromUser()));
-                            if (oosFrom != null) {
-                                try {
-                                    oosFrom.writeObject(cancelSignal);
-                                    oosFrom.flush();
-                                } catch (Exception ex) {
-                                    System.out.println("[SERVER] Error notificando cancelación al emisor: " + ex.getMessage());
-                                }
-                            }
-                        }
+                        System.out.println("[WARN] Señal de llamada de " + user.getUsername() + " en nombre de " + signal.getFromUser() + ", descartada");
                     }
+                } else if (obj instanceof Group) {
+                    // El cliente envía "CREATE_GROUP_OBJ" seguido del grupo completo
+                    registerGroup((Group) obj, user);
                 } else if (obj instanceof String) {
                     
                     String cmd = (String) obj;
@@ -169,9 +205,7 @@ public class ChatServer {
                                 members.add(found);
                             }
                         }
-                        Group group = new Group(groupName, displayName, members);
-                        groups.put(groupName, group);
-                        System.out.println("Grupo creado: " + groupName + " -> " + members);
+                        registerGroup(new Group(groupName, displayName, members), user);
                     }
                 }
             }
@@ -191,21 +225,238 @@ public class ChatServer {
                 }
             }
             if (userToRemove != null) {
-                users.remove(userToRemove);
-                userOutputStreams.remove(userToRemove);
-              
-                    for (Group group : groups.values()) {
-                        if (group.getMembers() != null) {
-                            group.getMembers().remove(userToRemove);
-                        }
+                uploads.abortAll(userToRemove.getUsername());
+                if (relay != null) {
+                    relay.closeSessionsOf(userToRemove.getUsername());
+                }
+                if (mixer != null) {
+                    for (String groupName : mixer.leaveAll(userToRemove.getUsername())) {
+                        endGroupCall(groupName, userToRemove.getUsername());
                     }
                 }
+                // Las llamadas que sonaban con este usuario se cancelan en el otro extremo
+                for (PendingCalls.Call call : pendingCalls.resolveAll(userToRemove.getUsername())) {
+                    if (call.isGroup()) continue;
+                    String other = call.getFrom().equals(userToRemove.getUsername()) ? call.getTo() : call.getFrom();
+                    sendSignal(other, new CallSignal(CallSignal.Type.CANCEL, userToRemove.getUsername(), other,
+                        "El usuario se desconectó.", LocalDateTime.now()));
+                }
+                // Se conserva la membresía en los grupos: los mensajes para el usuario
+                // desconectado se guardan en su buzón hasta que vuelva a conectarse.
+                ClientWriter writer;
+                synchronized (mailbox.lockFor(userToRemove.getUsername())) {
+                    users.remove(userToRemove);
+                    writer = writers.remove(userToRemove);
+                }
+                if (writer != null) writer.close();
+            }
             } catch (Exception ex) {
                 System.out.println("[WARN] Error limpiando recursos de usuario desconectado: " + ex.getMessage());
             }
         }
     }
 
+    /**
+     * Indica si el remitente de un objeto recibido es el usuario de la sesión.
+     * @param user Usuario que inició sesión en la conexión
+     * @param from Remitente indicado por el cliente
+     */
+    private static boolean isSessionUser(User user, ChatTarget from) {
+        return from instanceof User && user.getUsername().equals(from.getUsername());
+    }
+
+    /**
+     * Reenvía una señal de llamada a su destinatario.
+     *
+     * Si el relé está activo, al reenviar un ACCEPT se abre la sesión de la llamada y se
+     * sustituye la dirección UDP del otro extremo por la del relé, junto con el token que
+     * el destinatario debe usar. Las señales que terminan la llamada cierran la sesión.
+     * @param signal Señal recibida
+     */
+    private static void routeCallSignal(CallSignal signal) {
+        System.out.println("[SERVER] Señal de llamada recibida: " + signal.getType() + " " + signal.getFromUser() + " -> " + signal.getToUser());
+        if (signal.isGroupCall()) {
+            routeGroupCallSignal(signal);
+            return;
+        }
+        User toUser = null;
+        for (User u : users.keySet()) {
+            if (u.getUsername().equals(signal.getToUser())) {
+                toUser = u;
+                break;
+            }
+        }
+        if (signal.getType() != CallSignal.Type.REQUEST) {
+            pendingCalls.resolve(signal.getFromUser(), signal.getToUser(), false);
+        }
+        if (relay != null) {
+            if (signal.getType() == CallSignal.Type.ACCEPT && toUser != null) {
+                MediaRelay.Session session = relay.openSession(signal.getFromUser(), signal.getToUser());
+                signal.setUdpHost(relayHost(users.get(toUser)));
+                signal.setUdpPort(relay.getPort());
+                signal.setRelayToken(session.tokenFor(signal.getToUser()));
+            } else if (signal.getType() != CallSignal.Type.REQUEST && signal.getType() != CallSignal.Type.ACCEPT) {
+                relay.closeSession(signal.getFromUser(), signal.getToUser());
+            }
+        }
+        ClientWriter writer = toUser != null ? writers.get(toUser) : null;
+        if (writer != null && writer.send(signal)) {
+            System.out.println("[SERVER] Reenviada señal de llamada a " + toUser.getUsername() + ": " + signal.getType());
+            if (signal.getType() == CallSignal.Type.REQUEST) {
+                pendingCalls.ring(signal.getFromUser(), signal.getToUser(), false);
+            }
+        } else if (signal.getType() == CallSignal.Type.REQUEST) {
+            CallSignal cancelSignal = new CallSignal(
+                CallSignal.Type.CANCEL,
+                signal.getToUser(),
+                signal.getFromUser(),
+                "El usuario no está disponible para la llamada.",
+                LocalDateTime.now()
+            );
+            sendSignal(signal.getFromUser(), cancelSignal);
+        }
+    }
+
+    /**
+     * Registra un grupo creado por un cliente. Solo se acepta si el nombre no está en uso y
+     * quien lo crea es miembro, para que nadie pueda cambiar los miembros de un grupo ajeno
+     * y entrar así en sus llamadas.
+     * @param group Grupo recibido
+     * @param creator Usuario que lo envía
+     * @return true si se registró
+     */
+    private static boolean registerGroup(Group group, User creator) {
+        if (group.getUsername() == null || group.getMembers() == null || !group.getMembers().contains(creator)) {
+            System.out.println("[WARN] Grupo rechazado: " + creator.getUsername() + " no es miembro de " + group.getUsername());
+            return false;
+        }
+        if (groups.putIfAbsent(group.getUsername(), group) != null) {
+            System.out.println("[WARN] Grupo rechazado: el nombre " + group.getUsername() + " ya está en uso");
+            return false;
+        }
+        System.out.println("Grupo creado: " + group.getUsername() + " -> " + group.getMembers());
+        return true;
+    }
+
+    /**
+     * Gestiona la señalización de una llamada de grupo.
+     *
+     * El audio de cada participante va al mezclador del servidor, que le devuelve la mezcla
+     * de los demás. Quien inicia la llamada o acepta la invitación recibe un ACCEPT con la
+     * dirección del relé y su token; al abrirse la conferencia se invita al resto de
+     * miembros conectados. Cuando sale el último participante se avisa a los miembros que
+     * aún no habían contestado. Quien no es miembro del grupo recibe un CANCEL y no entra.
+     * @param signal Señal recibida (toUser es el nombre del grupo)
+     */
+    private static void routeGroupCallSignal(CallSignal signal) {
+        String groupName = signal.getToUser();
+        String from = signal.getFromUser();
+        Group group = groups.get(groupName);
+        boolean isMember = group != null && group.getMembers().contains(new User(from, from));
+        if (mixer == null || !isMember) {
+            if (signal.getType() == CallSignal.Type.REQUEST || signal.getType() == CallSignal.Type.ACCEPT) {
+                String reason = mixer == null || group == null
+                    ? "Las llamadas de grupo no están disponibles." : "No eres miembro del grupo.";
+                CallSignal cancelSignal = new CallSignal(CallSignal.Type.CANCEL, groupName, from,
+                    reason, LocalDateTime.now());
+                cancelSignal.setGroupCall(true);
+                sendSignal(from, cancelSignal);
+            }
+            return;
+        }
+        if (signal.getType() != CallSignal.Type.REQUEST) {
+            pendingCalls.resolve(groupName, from, true);
+        }
+        switch (signal.getType()) {
+            case REQUEST:
+            case ACCEPT:
+                boolean opening = !mixer.isActive(groupName);
+                Socket socket = users.get(new User(from, from));
+                if (socket == null) return;
+                CallSignal accept = new CallSignal(CallSignal.Type.ACCEPT, groupName, from, null,
+                    LocalDateTime.now(), relayHost(socket), relay.getPort());
+                accept.setGroupCall(true);
+                accept.setRelayToken(mixer.join(groupName, from));
+                accept.setFrameMillis(ConferenceMixer.FRAME_MILLIS);
+                sendSignal(from, accept);
+                if (signal.getType() == CallSignal.Type.REQUEST && opening) {
+                    for (User member : group.getMembers()) {
+                        if (!member.getUsername().equals(from)) {
+                            CallSignal invite = new CallSignal(CallSignal.Type.REQUEST, from, groupName, null, LocalDateTime.now());
+                            invite.setGroupCall(true);
+                            invite.setFrameMillis(ConferenceMixer.FRAME_MILLIS);
+                            if (sendSignal(member.getUsername(), invite)) {
+                                pendingCalls.ring(groupName, member.getUsername(), true);
+                            }
+                        }
+                    }
+                }
+                break;
+            case REJECT:
+                break;
+            default:
+                if (mixer.leave(groupName, from)) {
+                    endGroupCall(groupName, from);
+                }
+                break;
+        }
+    }
+
+    /**
+     * Aviso de una llamada que sonó sin respuesta: se envía TIMEOUT a ambos extremos para
+     * que cierren sus diálogos. En una invitación de grupo solo se avisa al invitado; quien
+     * llamó ya está en la conferencia.
+     * @param call Llamada vencida
+     */
+    private static void onCallTimeout(PendingCalls.Call call) {
+        System.out.println("[SERVER] Llamada sin respuesta: " + call + " (" + timers + ")");
+        String message = "La llamada no fue respondida a tiempo.";
+        if (call.isGroup()) {
+            CallSignal timeout = new CallSignal(CallSignal.Type.TIMEOUT, call.getFrom(), call.getTo(), message, LocalDateTime.now());
+            timeout.setGroupCall(true);
+            sendSignal(call.getTo(), timeout);
+            return;
+        }
+        sendSignal(call.getFrom(), new CallSignal(CallSignal.Type.TIMEOUT, call.getTo(), call.getFrom(), message, LocalDateTime.now()));
+        sendSignal(call.getTo(), new CallSignal(CallSignal.Type.TIMEOUT, call.getFrom(), call.getTo(), message, LocalDateTime.now()));
+    }
+
+    /**
+     * Avisa a los miembros de un grupo de que su llamada terminó.
+     * @param groupName Grupo de la llamada
+     * @param except Usuario al que no hace falta avisar
+     */
+    private static void endGroupCall(String groupName, String except) {
+        pendingCalls.resolveAll(groupName);
+        Group group = groups.get(groupName);
+        if (group == null) return;
+        for (User member : group.getMembers()) {
+            if (!member.getUsername().equals(except)) {
+                CallSignal cancelSignal = new CallSignal(CallSignal.Type.CANCEL, groupName, member.getUsername(),
+                    "La llamada de grupo terminó.", LocalDateTime.now());
+                cancelSignal.setGroupCall(true);
+                sendSignal(member.getUsername(), cancelSignal);
+            }
+        }
+    }
+
+    /**
+     * Envía una señal de llamada a un usuario, si está conectado.
+     * @return true si se encoló en su salida
+     */
+    private static boolean sendSignal(String username, CallSignal signal) {
+        ClientWriter writer = writers.get(new User(username, username));
+        return writer != null && writer.send(signal);
+    }
+
+    /**
+     * Dirección del relé que se anuncia a un cliente: la propiedad {@code relay.host} o,
+     * si no está, la dirección local de su conexión TCP.
+     */
+    private static String relayHost(Socket socket) {
+        return System.getProperty("relay.host", socket.getLocalAddress().getHostAddress());
+    }
+
     /**
      * Devuelve los grupos a los que pertenece un usuario.
      * @param user Usuario a consultar.
@@ -224,12 +475,52 @@ public class ChatServer {
     /**
      * Procesa un mensaje de texto recibido.
      * 
-     * Guarda el mensaje en el historial y lo reenvía a su destinatario (usuario o grupo).
+     * Descarta los duplicados por clave de idempotencia, asigna la secuencia de la
+     * conversación, guarda el mensaje en el historial y lo reenvía a su destinatario
+     * (usuario o grupo). Todo ocurre bajo el bloqueo de la conversación para que el
+     * orden de entrega coincida con la numeración.
      * @param msg Mensaje de texto a procesar.
      */
     private static void processTextMessage(Message msg) {
         System.out.println("[DEBUG] Procesando mensaje: " + msg);
+        if (msg.getFrom() == null || msg.getTo() == null || msg.getTo().getUsername() == null) {
+            System.out.println("[ERROR] Mensaje recibido con remitente o destinatario nulo: " + msg);
+            return;
+        }
 
+        String key = ChatUtils.conversationKey(msg.getFrom(), msg.getTo());
+        ConversationSequencer.Conversation conversation = sequencer.get(key, () -> loadConversationHistory(msg));
+        synchronized (conversation) {
+            if (conversation.isDuplicate(msg.getMessageId())) return;
+            msg.setSequence(conversation.next(msg.getMessageId()));
+            deliverInOrder(msg);
+        }
+    }
+
+    /**
+     * Lee el historial existente de la conversación de un mensaje, para continuar su numeración.
+     * @param msg Mensaje de la conversación
+     * @return Mensajes guardados (vacío si no hay historial)
+     */
+    private static List<Message> loadConversationHistory(Message msg) {
+        String filePath;
+        if (groups.containsKey(msg.getTo().getUsername())) {
+            filePath = "userdata/" + msg.getTo().getUsername() + "/history/" + msg.getTo().getUsername() + ".json";
+        } else {
+            filePath = HISTORY_DIR + msg.getFrom().getUsername() + "/history/" + msg.getTo().getUsername() + ".json";
+        }
+        try {
+            return MessageHistoryUtil.loadHistory(filePath);
+        } catch (Exception e) {
+            return Collections.emptyList();
+        }
+    }
+
+    /**
+     * Guarda y reenvía un mensaje ya numerado. Debe llamarse con la conversación bloqueada.
+     * @param msg Mensaje con secuencia asignada.
+     */
+    private static void deliverInOrder(Message msg) {
         saveHistory(msg);
         System.out.println(msg.getFrom() + " -> " + msg.getTo() + " : " + msg.getContent());
         System.out.println(users.toString());
@@ -239,48 +530,78 @@ public class ChatServer {
             Group group = groups.get(msg.getTo().getUsername());
             if (group != null && group.getMembers() != null) {
                 for (User member : group.getMembers()) {
-                    if (users.containsKey(member) && !member.getUsername().equals(msg.getFrom().getUsername())) {
+                    if (!member.getUsername().equals(msg.getFrom().getUsername())) {
                         System.out.println("[DEBUG] Reenviando a miembro de grupo: " + member.getUsername());
-                        sendMessage(users.get(member), msg);
+                        deliverOrEnqueue(member, msg);
                     }
                 }
             }
-        } else {
-    
-            if (users.containsKey(msg.getTo())) {
-                System.out.println("[DEBUG] Reenviando a usuario: " + msg.getTo());
-                sendMessage(users.get(msg.getTo()), msg);
+        } else if (msg.getTo() instanceof User) {
+            System.out.println("[DEBUG] Reenviando a usuario: " + msg.getTo());
+            deliverOrEnqueue((User) msg.getTo(), msg);
+        }
+    }
+
+    /**
+     * Guarda un mensaje en el buzón del destinatario y se lo entrega si está conectado.
+     * El mensaje permanece en el buzón hasta que el cliente confirme su entrega.
+     * @param recipient Usuario destinatario
+     * @param msg Mensaje a entregar
+     */
+    private static void deliverOrEnqueue(User recipient, Message msg) {
+        synchronized (mailbox.lockFor(recipient.getUsername())) {
+            mailbox.enqueue(recipient.getUsername(), msg);
+            // Solo se encola en su salida: la escritura en el socket no ocurre con los bloqueos tomados
+            ClientWriter writer = writers.get(recipient);
+            if (writer == null || !writer.send(msg)) {
+                System.out.println("[MAILBOX] " + recipient.getUsername() + " no está conectado, mensaje encolado");
             }
         }
     }
 
     /**
-     * Envía un mensaje a un usuario a través de su socket.
-     * @param socket Socket del usuario destinatario.
-     * @param msg Mensaje a enviar.
+     * Prepara la recepción por fragmentos de una nota de voz.
+     *
+     * El archivo se guarda en la carpeta de audio del remitente; solo se conserva el
+     * nombre de la ruta enviada por el cliente para no escribir fuera de ella.
+     * @param header Mensaje cabecera de la nota de voz
      */
-    private static void sendMessage(Socket socket, Message msg) {
+    private static void beginVoiceNoteUpload(Message header) {
+        String path = header.getAudioFilePath();
+        String fileName = path != null ? new File(path).getName() : "";
+        if (fileName.isEmpty()) {
+            fileName = header.getFrom().getUsername() + "_" + header.getMessageId() + ".wav";
+        }
+        header.setAudioFilePath("history/audio/" + fileName);
+        File target = voiceNoteFile(header);
         try {
-           
-            User user = null;
-            for (Map.Entry<User, Socket> entry : users.entrySet()) {
-                if (entry.getValue().equals(socket)) {
-                    user = entry.getKey();
-                    break;
-                }
-            }
-            System.out.println(user);
-            if (user != null && userOutputStreams.containsKey(user)) {
-                ObjectOutputStream out = userOutputStreams.get(user);
-                System.out.println("[DEBUG] Objeto enviado al usuario: " + msg.getClass().getName());
-                System.out.println("[DEBUG] Enviando mensaje a usuario " + user.getUsername() + " (" + socket.getRemoteSocketAddress() + "): " + msg);
-                out.writeObject(msg);
-                out.flush();
-            } else {
-                System.out.println("[ERROR] No se encontró OOS para el usuario del socket " + socket.getRemoteSocketAddress());
-            }
-        } catch (Exception e) {
-            System.out.println("No se pudo enviar mensaje: " + e.getMessage());
+            uploads.begin(header, target);
+            System.out.println("[AUDIO] Recibiendo nota de voz (" + header.getAudioSize() + " bytes) en " + target);
+        } catch (IOException ex) {
+            System.out.println("[AUDIO] No se pudo iniciar la recepción de la nota de voz: " + ex.getMessage());
+        }
+    }
+
+    /**
+     * Devuelve el archivo donde el servidor guarda una nota de voz transmitida por fragmentos.
+     */
+    private static File voiceNoteFile(Message msg) {
+        return new File(HISTORY_DIR + msg.getFrom().getUsername() + "/" + msg.getAudioFilePath());
+    }
+
+    /**
+     * Encola para el usuario recién conectado los mensajes no confirmados, en lotes acotados.
+     * Debe llamarse con el buzón del usuario bloqueado.
+     * @param user Usuario que inició sesión
+     * @param writer Salida del usuario
+     */
+    private static void replayOfflineMessages(User user, ClientWriter writer) {
+        List<MessageBatch> batches = mailbox.pendingBatches(user.getUsername());
+        if (batches.isEmpty()) return;
+        System.out.println("[MAILBOX] Reenviando " + mailbox.pendingCount(user.getUsername()) + " mensajes no confirmados a " + user.getUsername());
+        for (MessageBatch batch : batches) {
+            // Las notas de voz por fragmentos del lote las envía la salida tras el lote
+            if (!writer.send(batch)) return;
         }
     }
 
@@ -297,10 +618,10 @@ public class ChatServer {
         if (isAudio) {
            
             if (audioFilePath == null || audioFilePath.isEmpty()) {
-                audioFileName = String.format("%s_%s_%s.wav",
+                audioFileName = String.format("%s_%s_%d.wav",
                         msg.getFrom().getUsername(),
                         msg.getTo().getUsername(),
-                        msg.getTimestamp().toString().replaceAll("[:.T-]", ""));
+                        msg.getSequence());
                 audioFilePath = "history/audio/" + audioFileName;
                 msg.setAudioFilePath(audioFilePath);
             } else {
@@ -337,8 +658,11 @@ public class ChatServer {
 }
         }
         
+        if (msg.isStreamedAudio()) {
+            copyVoiceNote(msg, new File(groupDir));
+        }
         if (isAudio && msg.getAudioData() != null) {
-            String audioFileNameSafe = String.format("audio_%s_%s.dat", msg.getTimestamp().toString().replaceAll("[:.T-]", ""), msg.getFrom().getUsername());
+            String audioFileNameSafe = String.format("audio_%d_%s.dat", msg.getSequence(), msg.getFrom().getUsername());
             File groupAudioDir = new File(groupDir);
             groupAudioDir.mkdirs();
             try (FileOutputStream audioOut = new FileOutputStream(new File(groupAudioDir, audioFileNameSafe))) {
@@ -364,6 +688,9 @@ public class ChatServer {
         } catch (Exception e) {
             System.out.println("No se pudo guardar historial JSON privado: " + e.getMessage());
         }
+        if (msg.isStreamedAudio()) {
+            copyVoiceNote(msg, new File(toDir + "/audio/"));
+        }
         if (isAudio) {
             
             File audioDirFrom = new File(fromDir + "/audio/");
@@ -382,7 +709,21 @@ public class ChatServer {
             }
         }
     }
-}
-
-
 
+    /**
+     * Copia una nota de voz ya recibida en otra carpeta de audio, sin cargarla en memoria.
+     * @param msg Mensaje cabecera de la nota de voz
+     * @param audioDir Carpeta de destino
+     */
+    private static void copyVoiceNote(Message msg, File audioDir) {
+        File source = voiceNoteFile(msg);
+        File target = new File(audioDir, source.getName());
+        if (target.getAbsoluteFile().equals(source.getAbsoluteFile())) return;
+        try {
+            audioDir.mkdirs();
+            Files.copy(source.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        } catch (Exception e) {
+            System.out.println("No se pudo copiar la nota de voz a " + audioDir + ": " + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,141 @@
+package chat.server;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectOutputStream;
+import java.net.Socket;
+import java.util.Arrays;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.function.Function;
+
+import chat.common.model.AudioChunk;
+import chat.common.model.Message;
+import chat.common.model.MessageBatch;
+
+/**
+ * Cola de salida de un cliente conectado, con su propio hilo escritor.
+ *
+ * Quien entrega algo al cliente solo lo encola con {@link #send}, aunque tenga tomado el
+ * bloqueo de la conversación o del buzón (así el orden de la cola es el de la numeración),
+ * y el hilo lo escribe en el socket fuera de cualquier bloqueo: un cliente lento solo
+ * frena su propia cola. Tras un {@link Message} o un {@link MessageBatch} con notas de voz
+ * por fragmentos, el hilo lee cada nota del disco y la envía en {@link AudioChunk}s.
+ *
+ * La cola admite como mucho {@value #MAX_PENDING} objetos: si se llena, el cliente no está
+ * leyendo y se cierra su conexión, igual que si falla una escritura. Lo que no confirmó
+ * sigue en su buzón y se le reenvía al volver a conectarse.
+ */
+public class ClientWriter {
+
+    private static final int MAX_PENDING = 2000;
+
+    private final String username;
+    private final Socket socket;
+    private final ObjectOutputStream out;
+    private final Function<Message, File> voiceNoteFile;
+    private final BlockingQueue<Object> queue = new LinkedBlockingQueue<>(MAX_PENDING);
+    private final Thread thread;
+    private volatile boolean closed = false;
+
+    /**
+     * @param username Usuario del cliente
+     * @param socket Socket del cliente (se cierra si falla la escritura)
+     * @param out Flujo de salida del socket; solo lo usa el hilo escritor
+     * @param voiceNoteFile Archivo del servidor con el audio de una nota por fragmentos
+     */
+    public ClientWriter(String username, Socket socket, ObjectOutputStream out, Function<Message, File> voiceNoteFile) {
+        this.username = username;
+        this.socket = socket;
+        this.out = out;
+        this.voiceNoteFile = voiceNoteFile;
+        this.thread = new Thread(this::writeLoop, "ClientWriter-" + username);
+        this.thread.setDaemon(true);
+    }
+
+    public void start() {
+        thread.start();
+    }
+
+    /**
+     * Encola un objeto para el cliente sin esperar a que se escriba.
+     * @return false si la conexión ya está cerrada o se cerró por tener la cola llena
+     */
+    public boolean send(Object obj) {
+        if (closed) return false;
+        if (!queue.offer(obj)) {
+            System.out.println("[WARN] " + username + " no lee sus mensajes (" + MAX_PENDING + " en cola), se cierra la conexión");
+            close();
+            return false;
+        }
+        return true;
+    }
+
+    /** Detiene el hilo y cierra el socket; lo que quede en la cola se descarta. */
+    public void close() {
+        closed = true;
+        queue.clear();
+        thread.interrupt();
+        try {
+            socket.close();
+        } catch (IOException ignored) {
+        }
+    }
+
+    private void writeLoop() {
+        try {
+            while (!closed) {
+                Object obj = queue.take();
+                out.writeObject(obj);
+                // Evita que el flujo conserve referencias a lo ya enviado
+                out.reset();
+                if (obj instanceof Message) {
+                    streamIfVoiceNote((Message) obj);
+                } else if (obj instanceof MessageBatch) {
+                    for (Message msg : ((MessageBatch) obj).getMessages()) {
+                        streamIfVoiceNote(msg);
+                    }
+                }
+                if (queue.isEmpty()) out.flush();
+            }
+        } catch (InterruptedException e) {
+            // close()
+        } catch (IOException | RuntimeException e) {
+            if (!closed) {
+                System.out.println("[WARN] No se pudo escribir a " + username + ": " + e.getMessage());
+                close();
+            }
+        }
+    }
+
+    /**
+     * Envía el audio de una nota de voz por fragmentos leídos del disco, justo después de
+     * su cabecera.
+     */
+    private void streamIfVoiceNote(Message msg) throws IOException {
+        if (!msg.isStreamedAudio()) return;
+        File file = voiceNoteFile.apply(msg);
+        if (!file.isFile()) {
+            // Sin el último fragmento el cliente esperaría la nota para siempre
+            System.out.println("[WARN] No se encontró la nota de voz " + file + ", se envía vacía");
+            out.writeObject(new AudioChunk(msg.getMessageId(), msg.getFrom(), msg.getTo(), 0, new byte[0], true));
+            out.reset();
+            return;
+        }
+        try (InputStream in = new FileInputStream(file)) {
+            byte[] buffer = new byte[AudioChunk.CHUNK_SIZE];
+            long remaining = file.length();
+            int index = 0;
+            do {
+                int read = in.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+                if (read < 0) break;
+                remaining -= read;
+                out.writeObject(new AudioChunk(msg.getMessageId(), msg.getFrom(), msg.getTo(), index++, Arrays.copyOf(buffer, read), remaining <= 0));
+                // Sin reset el flujo retendría todos los fragmentos enviados
+                out.reset();
+            } while (remaining > 0);
+        }
+    }
+}
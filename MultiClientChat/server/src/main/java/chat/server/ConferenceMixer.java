@@ -0,0 +1,430 @@
+package chat.server;
+
+import java.io.IOException;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.LockSupport;
+
+import chat.common.util.VoicePacket;
+
+/**
+ * Mezclador de audio de las llamadas de grupo.
+ * <p>
+ * Cada participante envía un único flujo al puerto del {@link MediaRelay} con su token y
+ * recibe de vuelta un único flujo con la mezcla de los demás. Un solo hilo avanza a paso
+ * fijo de {@value #FRAME_MILLIS} ms: en cada paso toma como mucho una trama de cada
+ * participante, suma las de todos en un acumulador y a cada destinatario le envía la suma
+ * menos su propia voz. Así el coste por paso crece con el número de participantes
+ * (N sumas y N restas), no con su cuadrado, y quienes no hablan reciben todos la misma
+ * mezcla, que se codifica una sola vez.
+ * <p>
+ * El audio es PCM 16 bits mono little-endian a {@value #SAMPLE_RATE} Hz, el formato de
+ * las llamadas. Las tramas que llegan se guardan en una cola corta por participante; si
+ * se llena se descarta la más antigua para no acumular retardo. Cuando nadie más habla
+ * no se envía audio sino, cada {@value #COMFORT_NOISE_INTERVAL_MILLIS} ms, un paquete de
+ * ruido de confort de nivel 0, igual que hacen los clientes con sus silencios.
+ * <p>
+ * Los buffers se reservan al unirse cada participante; el paso de mezcla no reserva memoria
+ * para el audio.
+ */
+public class ConferenceMixer {
+    /** Duración de trama de las conferencias, en milisegundos. */
+    public static final int FRAME_MILLIS = 20;
+    public static final int SAMPLE_RATE = 16000;
+    private static final int SAMPLES_PER_FRAME = SAMPLE_RATE * FRAME_MILLIS / 1000;
+    private static final int FRAME_BYTES = SAMPLES_PER_FRAME * 2;
+    private static final long FRAME_NANOS = FRAME_MILLIS * 1_000_000L;
+    /** Tramas que se guardan por participante antes de descartar la más antigua. */
+    private static final int QUEUE_FRAMES = 3;
+    private static final int COMFORT_NOISE_INTERVAL_MILLIS = 200;
+    private static final int COMFORT_NOISE_TICKS = COMFORT_NOISE_INTERVAL_MILLIS / FRAME_MILLIS;
+    /** Si el hilo se retrasa más de estos pasos, se descartan en vez de recuperarlos. */
+    private static final int MAX_CATCH_UP_TICKS = 5;
+
+    private final MediaRelay relay;
+    private final Map<String, Conference> conferences = new ConcurrentHashMap<>();
+    private final Object wakeUp = new Object();
+    private volatile boolean running = false;
+    private Thread thread;
+
+    // Solo los usa el hilo del mezclador
+    private final int[] total = new int[SAMPLES_PER_FRAME];
+    private final byte[] sharedPayload = new byte[FRAME_BYTES];
+    private final ByteBuffer packet = ByteBuffer.allocateDirect(VoicePacket.HEADER_SIZE + FRAME_BYTES);
+    private final List<Conference> snapshot = new ArrayList<>();
+    private volatile long ticks = 0;
+    private volatile long overruns = 0;
+    private volatile long mixNanos = 0;
+
+    /**
+     * @param relay Relé por cuyo puerto llegan y salen los paquetes de las conferencias
+     */
+    public ConferenceMixer(MediaRelay relay) {
+        this.relay = relay;
+    }
+
+    /** Inicia el hilo de mezcla. */
+    public void start() {
+        running = true;
+        thread = new Thread(this::run, "ConferenceMixer");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /** Detiene el hilo de mezcla. */
+    public void stop() {
+        running = false;
+        synchronized (wakeUp) {
+            wakeUp.notifyAll();
+        }
+    }
+
+    /**
+     * Une a un usuario a la conferencia de un grupo, creándola si no existe.
+     * Si ya participaba, conserva su token.
+     * @return Token que el usuario debe poner en sus paquetes
+     */
+    public int join(String group, String username) {
+        Participant participant;
+        synchronized (conferences) {
+            Conference conference = conferences.get(group);
+            if (conference == null) {
+                conference = new Conference(group);
+                conferences.put(group, conference);
+                System.out.println("[MIXER] Conferencia abierta: " + group);
+            }
+            participant = conference.get(username);
+            if (participant == null) {
+                participant = new Participant(username);
+                participant.token = relay.register(participant);
+                conference.add(participant);
+                System.out.println("[MIXER] " + username + " se une a " + group + " (" + conference.size() + " participantes)");
+            }
+        }
+        synchronized (wakeUp) {
+            wakeUp.notifyAll();
+        }
+        return participant.token;
+    }
+
+    /**
+     * Saca a un usuario de la conferencia de un grupo. La conferencia se cierra al quedar vacía.
+     * @return true si la conferencia quedó cerrada
+     */
+    public boolean leave(String group, String username) {
+        Conference conference = conferences.get(group);
+        if (conference == null) return false;
+        Participant participant = conference.remove(username);
+        if (participant != null) {
+            relay.unregister(participant.token);
+            System.out.println("[MIXER] " + username + " sale de " + group + ": " + participant);
+        }
+        synchronized (conferences) {
+            if (conference.size() == 0 && conferences.remove(group, conference)) {
+                System.out.println("[MIXER] Conferencia cerrada: " + group);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Saca a un usuario de todas sus conferencias (por ejemplo, al desconectarse).
+     * @return Grupos cuya conferencia quedó cerrada
+     */
+    public List<String> leaveAll(String username) {
+        List<String> closed = new ArrayList<>();
+        for (Conference conference : conferences.values()) {
+            if (conference.get(username) != null && leave(conference.group, username)) {
+                closed.add(conference.group);
+            }
+        }
+        return closed;
+    }
+
+    /** Indica si el grupo tiene una conferencia en curso. */
+    public boolean isActive(String group) {
+        return conferences.containsKey(group);
+    }
+
+    private void run() {
+        System.out.println("[MIXER] Mezclador de conferencias iniciado (" + FRAME_MILLIS + " ms/trama)");
+        long nextTick = System.nanoTime();
+        while (running) {
+            if (conferences.isEmpty()) {
+                synchronized (wakeUp) {
+                    while (running && conferences.isEmpty()) {
+                        try {
+                            wakeUp.wait();
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                            return;
+                        }
+                    }
+                }
+                nextTick = System.nanoTime();
+            }
+            long start = System.nanoTime();
+            snapshot.clear();
+            snapshot.addAll(conferences.values());
+            for (int i = 0; i < snapshot.size(); i++) {
+                mix(snapshot.get(i));
+            }
+            long end = System.nanoTime();
+            mixNanos += end - start;
+            ticks++;
+
+            nextTick += FRAME_NANOS;
+            long wait = nextTick - end;
+            if (wait > 0) {
+                LockSupport.parkNanos(wait);
+            } else {
+                overruns++;
+                if (-wait > MAX_CATCH_UP_TICKS * FRAME_NANOS) {
+                    nextTick = end;
+                }
+            }
+        }
+        System.out.println("[MIXER] Mezclador detenido: " + statsString());
+    }
+
+    /** Un paso de mezcla de una conferencia. */
+    private void mix(Conference conference) {
+        Participant[] participants = conference.participants;
+        int count = participants.length;
+        int speakers = 0;
+        Arrays.fill(total, 0);
+        for (int i = 0; i < count; i++) {
+            Participant p = participants[i];
+            if (p.take()) {
+                short[] frame = p.current;
+                for (int s = 0; s < SAMPLES_PER_FRAME; s++) {
+                    total[s] += frame[s];
+                }
+                speakers++;
+            }
+        }
+        // La mezcla de quienes no hablan es la misma para todos: se codifica una vez
+        if (speakers > 0) {
+            for (int s = 0; s < SAMPLES_PER_FRAME; s++) {
+                int v = clamp(total[s]);
+                sharedPayload[s * 2] = (byte) v;
+                sharedPayload[s * 2 + 1] = (byte) (v >> 8);
+            }
+        }
+        for (int i = 0; i < count; i++) {
+            Participant p = participants[i];
+            int others = p.speaking ? speakers - 1 : speakers;
+            try {
+                if (others == 0) {
+                    sendComfortNoise(p);
+                } else {
+                    p.silentTicks = 0;
+                    if (p.speaking) {
+                        sendOwnMix(p);
+                    } else {
+                        sendSharedMix(p);
+                    }
+                }
+            } catch (IOException e) {
+                p.packetsDropped++;
+            }
+            p.sequence++;
+            p.timestamp += SAMPLES_PER_FRAME;
+        }
+    }
+
+    private void sendSharedMix(Participant p) throws IOException {
+        if (p.address == null) return;
+        packet.clear();
+        VoicePacket.writeHeader(packet, VoicePacket.TYPE_AUDIO, p.token, p.sequence, p.timestamp);
+        packet.position(VoicePacket.HEADER_SIZE);
+        packet.put(sharedPayload, 0, FRAME_BYTES);
+        send(p);
+    }
+
+    /** Envía la mezcla sin la voz del propio destinatario. */
+    private void sendOwnMix(Participant p) throws IOException {
+        if (p.address == null) return;
+        packet.clear();
+        VoicePacket.writeHeader(packet, VoicePacket.TYPE_AUDIO, p.token, p.sequence, p.timestamp);
+        short[] own = p.current;
+        int position = VoicePacket.HEADER_SIZE;
+        for (int s = 0; s < SAMPLES_PER_FRAME; s++) {
+            int v = clamp(total[s] - own[s]);
+            packet.put(position++, (byte) v);
+            packet.put(position++, (byte) (v >> 8));
+        }
+        packet.position(position);
+        send(p);
+    }
+
+    private void sendComfortNoise(Participant p) throws IOException {
+        if (p.address == null || p.silentTicks++ % COMFORT_NOISE_TICKS != 0) return;
+        packet.clear();
+        VoicePacket.writeHeader(packet, VoicePacket.TYPE_COMFORT_NOISE, p.token, p.sequence, p.timestamp);
+        VoicePacket.putComfortNoiseLevel(packet, 0);
+        packet.position(VoicePacket.HEADER_SIZE + VoicePacket.COMFORT_NOISE_PAYLOAD);
+        send(p);
+    }
+
+    private void send(Participant p) throws IOException {
+        packet.flip();
+        int length = packet.limit();
+        relay.send(packet, p.address);
+        p.packetsOut++;
+        p.bytesOut += length;
+    }
+
+    private static int clamp(int sample) {
+        return sample > Short.MAX_VALUE ? Short.MAX_VALUE : (sample < Short.MIN_VALUE ? Short.MIN_VALUE : sample);
+    }
+
+    /** Pasos ejecutados, pasos que no cupieron en su intervalo y tiempo medio de mezcla. */
+    public String statsString() {
+        long t = ticks;
+        return "pasos=" + t + ", retrasados=" + overruns
+            + ", mezcla media=" + (t > 0 ? (mixNanos / t / 1000) : 0) + " µs";
+    }
+
+    /**
+     * Conferencia de un grupo. La lista de participantes se reemplaza entera al cambiar
+     * (copia al escribir), así el hilo de mezcla la recorre sin bloquearla.
+     */
+    private static class Conference {
+        private final String group;
+        private volatile Participant[] participants = new Participant[0];
+
+        private Conference(String group) {
+            this.group = group;
+        }
+
+        private synchronized void add(Participant participant) {
+            Participant[] grown = Arrays.copyOf(participants, participants.length + 1);
+            grown[participants.length] = participant;
+            participants = grown;
+        }
+
+        private synchronized Participant remove(String username) {
+            Participant[] current = participants;
+            for (int i = 0; i < current.length; i++) {
+                if (current[i].username.equals(username)) {
+                    Participant[] shrunk = new Participant[current.length - 1];
+                    System.arraycopy(current, 0, shrunk, 0, i);
+                    System.arraycopy(current, i + 1, shrunk, i, current.length - i - 1);
+                    participants = shrunk;
+                    return current[i];
+                }
+            }
+            return null;
+        }
+
+        private Participant get(String username) {
+            for (Participant p : participants) {
+                if (p.username.equals(username)) return p;
+            }
+            return null;
+        }
+
+        private int size() {
+            return participants.length;
+        }
+    }
+
+    /**
+     * Participante de una conferencia. El hilo del relé deja sus tramas en una cola
+     * circular de tamaño fijo y el hilo del mezclador las consume, una por paso.
+     */
+    private static class Participant implements MediaRelay.Endpoint {
+        private int token;
+        private final String username;
+        private volatile SocketAddress address;
+        private final short[][] queue = new short[QUEUE_FRAMES][SAMPLES_PER_FRAME];
+        private int head = 0;
+        private int queued = 0;
+        private boolean started = false;
+        private int lastSequence;
+        /** Trama tomada en el paso actual (solo la usa el hilo del mezclador). */
+        private short[] current = new short[SAMPLES_PER_FRAME];
+        private boolean speaking;
+        // Estado de salida, solo lo usa el hilo del mezclador
+        private int sequence = 0;
+        private int timestamp = 0;
+        private int silentTicks = 0;
+        private volatile long packetsIn;
+        private volatile long packetsOut;
+        private volatile long bytesOut;
+        private volatile long packetsDropped;
+        private volatile long framesDiscarded;
+
+        private Participant(String username) {
+            this.username = username;
+        }
+
+        @Override
+        public void receive(ByteBuffer packet, SocketAddress from) {
+            if (!from.equals(address)) {
+                System.out.println("[MIXER] " + username + " en " + from);
+                address = from;
+            }
+            packetsIn++;
+            // El ruido de confort propio no se mezcla: para los demás es silencio
+            if (VoicePacket.getType(packet) != VoicePacket.TYPE_AUDIO) return;
+            // Solo se mezcla PCM a 16 kHz de una trama por paquete; el mezclador no envía
+            // informes de recepción, así que los clientes no bajan de ese formato
+            if (VoicePacket.getFormat(packet) != 0 || packet.limit() != VoicePacket.HEADER_SIZE + FRAME_BYTES) {
+                framesDiscarded++;
+                return;
+            }
+            int seq = VoicePacket.getSequence(packet);
+            synchronized (this) {
+                if (started && seq - lastSequence <= 0) {
+                    framesDiscarded++;
+                    return;
+                }
+                started = true;
+                lastSequence = seq;
+                if (queued == QUEUE_FRAMES) {
+                    head = (head + 1) % QUEUE_FRAMES;
+                    queued--;
+                    framesDiscarded++;
+                }
+                short[] frame = queue[(head + queued) % QUEUE_FRAMES];
+                int position = VoicePacket.HEADER_SIZE;
+                for (int s = 0; s < SAMPLES_PER_FRAME; s++, position += 2) {
+                    frame[s] = (short) ((packet.get(position) & 0xff) | (packet.get(position + 1) << 8));
+                }
+                queued++;
+            }
+        }
+
+        /**
+         * Toma la siguiente trama de la cola en {@link #current}.
+         * @return true si el participante aporta voz en este paso
+         */
+        private synchronized boolean take() {
+            if (queued == 0) {
+                speaking = false;
+                return false;
+            }
+            short[] frame = queue[head];
+            queue[head] = current;
+            current = frame;
+            head = (head + 1) % QUEUE_FRAMES;
+            queued--;
+            speaking = true;
+            return true;
+        }
+
+        @Override
+        public String toString() {
+            return "@" + address + " recibidos=" + packetsIn + ", enviados=" + packetsOut + " (" + bytesOut
+                + " B), tramas descartadas=" + framesDiscarded + ", errores=" + packetsDropped;
+        }
+    }
+}
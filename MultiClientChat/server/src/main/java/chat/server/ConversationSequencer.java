@@ -0,0 +1,133 @@
+package chat.server;
+
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+import chat.common.model.Message;
+
+/**
+ * Asigna números de secuencia monótonos por conversación y descarta duplicados.
+ *
+ * Cada conversación guarda su última secuencia y una ventana acotada con las claves de
+ * idempotencia ({@code messageId}) más recientes. Un reintento o reenvío tras reconexión
+ * con una clave ya vista se detecta sin consultar el historial.
+ *
+ * El estado de una conversación se inicializa la primera vez que se usa, a partir de su
+ * historial en disco, para que la numeración continúe después de reiniciar el servidor.
+ * El historial se lee fuera del mapa, así que leer una conversación no frena a las demás;
+ * si dos hilos la leen a la vez, se queda el estado del primero.
+ *
+ * Las conversaciones sin uso durante {@value #IDLE_MS} ms se quitan de memoria (se revisa
+ * como mucho cada {@value #SWEEP_INTERVAL_MS} ms, desde {@link #get}) y se vuelven a leer
+ * del historial si reaparecen. Solo se quitan con su bloqueo tomado: quien la esté usando
+ * ya guardó en el historial lo que numeró cuando la suelta.
+ */
+public class ConversationSequencer {
+
+    private static final int RECENT_KEYS_WINDOW = 256;
+    private static final long IDLE_MS = 10 * 60_000;
+    private static final long SWEEP_INTERVAL_MS = 60_000;
+
+    private final Map<String, Conversation> conversations = new ConcurrentHashMap<>();
+    private final AtomicLong lastSweep = new AtomicLong(System.currentTimeMillis());
+
+    /**
+     * Devuelve el estado de una conversación, creándolo si no existe.
+     *
+     * Quien procesa un mensaje debe sincronizar sobre el objeto devuelto mientras
+     * asigna la secuencia, guarda el historial y entrega el mensaje, para que el orden
+     * en disco y en la entrega coincida con la numeración.
+     * @param key Clave de la conversación
+     * @param history Proveedor del historial existente (solo se usa al crearla)
+     * @return Estado de la conversación
+     */
+    public Conversation get(String key, Supplier<List<Message>> history) {
+        long now = System.currentTimeMillis();
+        sweepIfDue(now);
+        while (true) {
+            Conversation conversation = conversations.get(key);
+            if (conversation == null) {
+                Conversation loaded = load(history.get());
+                conversation = conversations.putIfAbsent(key, loaded);
+                if (conversation == null) conversation = loaded;
+            }
+            synchronized (conversation) {
+                // Si se quitó entre get y el bloqueo, se vuelve a buscar
+                if (!conversation.evicted) {
+                    conversation.lastUsed = now;
+                    return conversation;
+                }
+            }
+        }
+    }
+
+    private static Conversation load(List<Message> history) {
+        Conversation conversation = new Conversation();
+        for (Message msg : history) {
+            if (msg.getSequence() > conversation.lastSequence) {
+                conversation.lastSequence = msg.getSequence();
+            }
+            conversation.remember(msg.getMessageId());
+        }
+        return conversation;
+    }
+
+    private void sweepIfDue(long now) {
+        long last = lastSweep.get();
+        if (now - last < SWEEP_INTERVAL_MS || !lastSweep.compareAndSet(last, now)) return;
+        for (Map.Entry<String, Conversation> entry : conversations.entrySet()) {
+            Conversation conversation = entry.getValue();
+            synchronized (conversation) {
+                if (now - conversation.lastUsed > IDLE_MS) {
+                    conversation.evicted = true;
+                    conversations.remove(entry.getKey(), conversation);
+                }
+            }
+        }
+    }
+
+    /**
+     * Estado de numeración de una conversación.
+     */
+    public static class Conversation {
+        private long lastSequence = 0;
+        private final LinkedHashSet<String> recentKeys = new LinkedHashSet<>();
+        private long lastUsed = System.currentTimeMillis();
+        private boolean evicted = false;
+
+        /**
+         * Indica si la clave ya fue procesada dentro de la ventana reciente.
+         */
+        public synchronized boolean isDuplicate(String messageId) {
+            return messageId != null && recentKeys.contains(messageId);
+        }
+
+        /**
+         * Registra la clave del mensaje y le asigna la siguiente secuencia.
+         * @return Secuencia asignada
+         */
+        public synchronized long next(String messageId) {
+            remember(messageId);
+            return ++lastSequence;
+        }
+
+        public synchronized long getLastSequence() {
+            return lastSequence;
+        }
+
+        private void remember(String messageId) {
+            if (messageId == null) return;
+            recentKeys.add(messageId);
+            if (recentKeys.size() > RECENT_KEYS_WINDOW) {
+                Iterator<String> oldest = recentKeys.iterator();
+                oldest.next();
+                oldest.remove();
+            }
+        }
+    }
+}
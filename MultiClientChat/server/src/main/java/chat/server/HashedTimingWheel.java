@@ -0,0 +1,209 @@
+package chat.server;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Temporizador de rueda con hash (hashed timing wheel) para muchos plazos poco precisos.
+ * <p>
+ * La rueda tiene un número fijo de casillas y un solo hilo que avanza una casilla por
+ * tic. Cada plazo se guarda en la casilla de su tic de vencimiento módulo el tamaño de la
+ * rueda, con el número de vueltas que le faltan. Programar y cancelar cuestan O(1) sin
+ * importar cuántos plazos haya pendientes, y en cada tic solo se recorre una casilla; la
+ * precisión es la de un tic, suficiente para plazos de segundos como el timbre de una
+ * llamada.
+ * <p>
+ * Los plazos nuevos llegan al hilo de la rueda por una cola sin bloqueos y se reparten en
+ * el siguiente tic. Cancelar solo marca el plazo; se retira de su casilla cuando el hilo
+ * pasa por ella. Las tareas se ejecutan en el hilo de la rueda, así que deben ser breves.
+ */
+public class HashedTimingWheel {
+    private static final int MAX_TRANSFERS_PER_TICK = 100_000;
+
+    private final long tickNanos;
+    private final Bucket[] wheel;
+    private final int mask;
+    private final Queue<Timeout> added = new ConcurrentLinkedQueue<>();
+    private final AtomicLong pending = new AtomicLong();
+    private final long startTime;
+    private final Thread worker;
+    private volatile boolean running = true;
+    private volatile long expired = 0;
+    private long tick = 0;
+
+    /**
+     * Crea la rueda e inicia su hilo.
+     * @param tickMillis Duración de un tic (precisión de los plazos)
+     * @param wheelSize Casillas de la rueda (se redondea a potencia de dos)
+     * @param name Nombre del hilo
+     */
+    public HashedTimingWheel(long tickMillis, int wheelSize, String name) {
+        this.tickNanos = TimeUnit.MILLISECONDS.toNanos(tickMillis);
+        int size = Integer.highestOneBit(Math.max(1, wheelSize - 1)) << 1;
+        this.wheel = new Bucket[size];
+        for (int i = 0; i < size; i++) wheel[i] = new Bucket();
+        this.mask = size - 1;
+        this.startTime = System.nanoTime();
+        this.worker = new Thread(this::run, name);
+        worker.setDaemon(true);
+        worker.start();
+    }
+
+    /**
+     * Programa una tarea.
+     * @param task Tarea a ejecutar en el hilo de la rueda al vencer el plazo
+     * @param delay Retardo
+     * @param unit Unidad del retardo
+     * @return Plazo, que se puede cancelar
+     */
+    public Timeout schedule(Runnable task, long delay, TimeUnit unit) {
+        if (!running) throw new IllegalStateException("La rueda está detenida");
+        Timeout timeout = new Timeout(this, task, System.nanoTime() - startTime + unit.toNanos(delay));
+        pending.incrementAndGet();
+        added.add(timeout);
+        return timeout;
+    }
+
+    /** Plazos programados que no han vencido ni se han cancelado. */
+    public long pending() {
+        return pending.get();
+    }
+
+    /** Detiene el hilo; los plazos pendientes no se ejecutan. */
+    public void stop() {
+        running = false;
+        worker.interrupt();
+    }
+
+    private void run() {
+        while (running) {
+            long deadline = (tick + 1) * tickNanos;
+            long wait;
+            while ((wait = deadline - (System.nanoTime() - startTime)) > 0 && running) {
+                LockSupport.parkNanos(this, wait);
+            }
+            if (!running) break;
+            transferAdded();
+            wheel[(int) (tick & mask)].expire();
+            tick++;
+        }
+    }
+
+    /** Reparte en sus casillas los plazos programados desde el último tic. */
+    private void transferAdded() {
+        for (int i = 0; i < MAX_TRANSFERS_PER_TICK; i++) {
+            Timeout timeout = added.poll();
+            if (timeout == null) return;
+            if (timeout.state != Timeout.ST_INIT) continue;
+            long due = timeout.deadline / tickNanos;
+            // Un plazo ya vencido va a la casilla actual
+            long target = Math.max(due, tick);
+            timeout.remainingRounds = (target - tick) / wheel.length;
+            wheel[(int) (target & mask)].add(timeout);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "HashedTimingWheel{casillas=" + wheel.length + ", tic=" + TimeUnit.NANOSECONDS.toMillis(tickNanos)
+            + " ms, pendientes=" + pending.get() + ", vencidos=" + expired + "}";
+    }
+
+    /** Plazo programado en la rueda. */
+    public static final class Timeout {
+        private static final int ST_INIT = 0;
+        private static final int ST_CANCELLED = 1;
+        private static final int ST_EXPIRED = 2;
+        private static final AtomicIntegerFieldUpdater<Timeout> STATE =
+            AtomicIntegerFieldUpdater.newUpdater(Timeout.class, "state");
+
+        private final HashedTimingWheel timer;
+        private final Runnable task;
+        private final long deadline;
+        private volatile int state = ST_INIT;
+        // Solo los usa el hilo de la rueda
+        private long remainingRounds;
+        private Timeout prev;
+        private Timeout next;
+
+        private Timeout(HashedTimingWheel timer, Runnable task, long deadline) {
+            this.timer = timer;
+            this.task = task;
+            this.deadline = deadline;
+        }
+
+        /**
+         * Cancela el plazo.
+         * @return true si estaba pendiente; false si ya venció o se había cancelado
+         */
+        public boolean cancel() {
+            if (!STATE.compareAndSet(this, ST_INIT, ST_CANCELLED)) return false;
+            timer.pending.decrementAndGet();
+            return true;
+        }
+
+        public boolean isCancelled() {
+            return state == ST_CANCELLED;
+        }
+
+        public boolean isExpired() {
+            return state == ST_EXPIRED;
+        }
+
+        private void expire() {
+            if (!STATE.compareAndSet(this, ST_INIT, ST_EXPIRED)) return;
+            timer.pending.decrementAndGet();
+            timer.expired++;
+            try {
+                task.run();
+            } catch (Throwable t) {
+                System.out.println("[TIMER] Error en una tarea programada: " + t);
+            }
+        }
+    }
+
+    /** Casilla de la rueda: lista doblemente enlazada que solo toca el hilo de la rueda. */
+    private static final class Bucket {
+        private Timeout head;
+        private Timeout tail;
+
+        private void add(Timeout timeout) {
+            timeout.prev = tail;
+            timeout.next = null;
+            if (tail == null) {
+                head = timeout;
+            } else {
+                tail.next = timeout;
+            }
+            tail = timeout;
+        }
+
+        private void remove(Timeout timeout) {
+            if (timeout.prev == null) head = timeout.next; else timeout.prev.next = timeout.next;
+            if (timeout.next == null) tail = timeout.prev; else timeout.next.prev = timeout.prev;
+            timeout.prev = null;
+            timeout.next = null;
+        }
+
+        /** Ejecuta los plazos de esta vuelta y descuenta una vuelta a los demás. */
+        private void expire() {
+            Timeout timeout = head;
+            while (timeout != null) {
+                Timeout next = timeout.next;
+                if (timeout.state != Timeout.ST_INIT) {
+                    remove(timeout);
+                } else if (timeout.remainingRounds <= 0) {
+                    remove(timeout);
+                    timeout.expire();
+                } else {
+                    timeout.remainingRounds--;
+                }
+                timeout = next;
+            }
+        }
+    }
+}
@@ -0,0 +1,236 @@
+package chat.server;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.DatagramChannel;
+import java.security.SecureRandom;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import chat.common.model.User;
+import chat.common.util.ChatUtils;
+import chat.common.util.VoicePacket;
+
+/**
+ * Relé UDP del audio de las llamadas.
+ * <p>
+ * Un solo {@link DatagramChannel} y un solo hilo reenvían los paquetes entre los dos
+ * tramos (legs) de cada llamada, así los clientes no necesitan alcanzarse entre sí.
+ * Al aceptarse una llamada el servidor abre una sesión y entrega a cada participante un
+ * token propio, que va en la cabecera de cada paquete ({@link VoicePacket}). La dirección
+ * de cada tramo se aprende del primer paquete que llega con su token (y se actualiza si
+ * cambia, por ejemplo tras un cambio de NAT). Cada tramo lleva contadores de paquetes y
+ * bytes, que se muestran al cerrar la sesión.
+ * <p>
+ * Cada token se asocia a un {@link Endpoint}: los tramos de las llamadas entre dos
+ * usuarios reenvían el paquete a su pareja, y los participantes de una conferencia de
+ * grupo lo entregan al {@link ConferenceMixer}, que comparte el mismo puerto.
+ */
+public class MediaRelay {
+    private static final int MAX_DATAGRAM = 2048;
+
+    private final DatagramChannel channel;
+    private final Map<Integer, Endpoint> endpoints = new ConcurrentHashMap<>();
+    private final Map<String, Session> sessions = new ConcurrentHashMap<>();
+    private final SecureRandom random = new SecureRandom();
+    private volatile long unknownPackets = 0;
+    private Thread thread;
+
+    /**
+     * @param port Puerto UDP del relé (0 para uno libre)
+     */
+    public MediaRelay(int port) throws IOException {
+        channel = DatagramChannel.open();
+        channel.bind(new InetSocketAddress(port));
+    }
+
+    public int getPort() {
+        return channel.socket().getLocalPort();
+    }
+
+    /** Inicia el hilo de reenvío. */
+    public void start() {
+        thread = new Thread(this::run, "MediaRelay");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /** Detiene el relé cerrando el canal. */
+    public void stop() {
+        try {
+            channel.close();
+        } catch (IOException e) {
+            System.out.println("[RELAY] Error cerrando el canal: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Abre (o devuelve, si ya existe) la sesión de una llamada entre dos usuarios.
+     */
+    public synchronized Session openSession(String userA, String userB) {
+        String key = key(userA, userB);
+        Session session = sessions.get(key);
+        if (session == null) {
+            Leg a = new Leg(userA);
+            a.token = register(a);
+            Leg b = new Leg(userB);
+            b.token = register(b);
+            a.peer = b;
+            b.peer = a;
+            session = new Session(key, a, b);
+            sessions.put(key, session);
+            System.out.println("[RELAY] Sesión abierta: " + key);
+        }
+        return session;
+    }
+
+    /**
+     * Cierra la sesión de una llamada, si existe, y muestra sus contadores.
+     */
+    public synchronized void closeSession(String userA, String userB) {
+        Session session = sessions.remove(key(userA, userB));
+        if (session != null) {
+            unregister(session.a.token);
+            unregister(session.b.token);
+            System.out.println("[RELAY] Sesión cerrada: " + session);
+        }
+    }
+
+    /** Cierra las sesiones en las que participa un usuario (por ejemplo, al desconectarse). */
+    public synchronized void closeSessionsOf(String username) {
+        for (Session session : sessions.values()) {
+            if (session.a.username.equals(username) || session.b.username.equals(username)) {
+                closeSession(session.a.username, session.b.username);
+            }
+        }
+    }
+
+    /**
+     * Asocia un destino a un token nuevo.
+     * @return Token que deben llevar los paquetes dirigidos a ese destino
+     */
+    synchronized int register(Endpoint endpoint) {
+        int token;
+        do {
+            token = random.nextInt();
+        } while (token == 0 || endpoints.containsKey(token));
+        endpoints.put(token, endpoint);
+        return token;
+    }
+
+    /** Libera un token; los paquetes que lleguen después con él se descartan. */
+    void unregister(int token) {
+        endpoints.remove(token);
+    }
+
+    /** Envía un datagrama (de la posición al límite) por el puerto del relé. */
+    void send(ByteBuffer packet, SocketAddress to) throws IOException {
+        channel.send(packet, to);
+    }
+
+    private void run() {
+        ByteBuffer packet = ByteBuffer.allocateDirect(MAX_DATAGRAM);
+        System.out.println("[RELAY] Relé de audio escuchando en UDP " + getPort());
+        while (channel.isOpen()) {
+            try {
+                packet.clear();
+                SocketAddress from = channel.receive(packet);
+                packet.flip();
+                if (!VoicePacket.isValid(packet)) continue;
+                Endpoint endpoint = endpoints.get(VoicePacket.getToken(packet));
+                if (endpoint == null) {
+                    unknownPackets++;
+                    continue;
+                }
+                endpoint.receive(packet, from);
+            } catch (ClosedChannelException e) {
+                break;
+            } catch (IOException e) {
+                System.out.println("[RELAY] Error reenviando paquete: " + e.getMessage());
+            }
+        }
+        System.out.println("[RELAY] Relé detenido (" + unknownPackets + " paquetes con token desconocido)");
+    }
+
+    private static String key(String userA, String userB) {
+        return ChatUtils.conversationKey(new User(userA, userA), new User(userB, userB));
+    }
+
+    /** Llamada entre dos usuarios a través del relé. */
+    public static class Session {
+        private final String key;
+        private final Leg a;
+        private final Leg b;
+
+        private Session(String key, Leg a, Leg b) {
+            this.key = key;
+            this.a = a;
+            this.b = b;
+        }
+
+        /** Token que debe usar el usuario dado al enviar su audio. */
+        public int tokenFor(String username) {
+            return a.username.equals(username) ? a.token : b.token;
+        }
+
+        @Override
+        public String toString() {
+            return key + " {" + a + "; " + b + "}";
+        }
+    }
+
+    /**
+     * Destino de los paquetes que llegan con un token. Se invoca desde el hilo del relé con
+     * el datagrama completo (de 0 al límite), que no debe conservarse tras la llamada.
+     */
+    interface Endpoint {
+        void receive(ByteBuffer packet, SocketAddress from) throws IOException;
+    }
+
+    /** Un participante de la llamada: su token, su dirección aprendida y sus contadores. */
+    private class Leg implements Endpoint {
+        private int token;
+        private final String username;
+        private volatile SocketAddress address;
+        private Leg peer;
+        // Solo los modifica el hilo del relé
+        private volatile long packetsIn;
+        private volatile long bytesIn;
+        private volatile long packetsOut;
+        private volatile long bytesOut;
+        private volatile long packetsDropped;
+
+        private Leg(String username) {
+            this.username = username;
+        }
+
+        @Override
+        public void receive(ByteBuffer packet, SocketAddress from) throws IOException {
+            if (!from.equals(address)) {
+                System.out.println("[RELAY] Tramo de " + username + " en " + from
+                    + (address != null ? " (antes " + address + ")" : ""));
+                address = from;
+            }
+            int length = packet.limit();
+            packetsIn++;
+            bytesIn += length;
+            SocketAddress to = peer.address;
+            if (to == null) {
+                packetsDropped++;
+                return;
+            }
+            channel.send(packet, to);
+            peer.packetsOut++;
+            peer.bytesOut += length;
+        }
+
+        @Override
+        public String toString() {
+            return username + " @" + address + " recibidos=" + packetsIn + " (" + bytesIn + " B), enviados="
+                + packetsOut + " (" + bytesOut + " B), descartados=" + packetsDropped;
+        }
+    }
+}
@@ -0,0 +1,151 @@
+package chat.server;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import chat.common.model.Message;
+import chat.common.model.MessageBatch;
+import chat.common.util.ChatUtils;
+
+/**
+ * Buzón de mensajes pendientes de confirmación por usuario (store-and-forward).
+ *
+ * Todo mensaje dirigido a un usuario se guarda aquí hasta que el cliente confirma su
+ * entrega con un {@link chat.common.model.DeliveryAck} acumulativo. Si el usuario está
+ * desconectado, o la conexión se cae antes de confirmar, al iniciar sesión se reenvían
+ * solo los mensajes no confirmados, en lotes ({@link MessageBatch}) acotados por
+ * cantidad y por bytes, para que una ausencia larga no sature al cliente.
+ *
+ * Cada buzón también está acotado: si supera el límite se descartan los mensajes
+ * más antiguos (siguen disponibles en el historial en disco).
+ */
+public class OfflineMailbox {
+
+    private static final int MAX_MESSAGES_PER_USER = 1000;
+    private static final long MAX_BYTES_PER_USER = 16L * 1024 * 1024;
+    private static final int MAX_BATCH_MESSAGES = 50;
+    private static final long MAX_BATCH_BYTES = 256L * 1024;
+
+    private final Map<String, Box> boxes = new ConcurrentHashMap<>();
+
+    /**
+     * Devuelve el objeto de bloqueo asociado a un usuario.
+     *
+     * El servidor sincroniza sobre él al encolar y entregar un mensaje y al registrar la
+     * conexión del usuario, para que ningún mensaje se pierda ni se adelante a los pendientes.
+     * @param username Usuario destinatario
+     * @return Objeto de bloqueo del buzón
+     */
+    public Object lockFor(String username) {
+        return boxFor(username);
+    }
+
+    /**
+     * Guarda un mensaje hasta que el usuario confirme su entrega.
+     * @param username Usuario destinatario
+     * @param msg Mensaje a guardar
+     */
+    public void enqueue(String username, Message msg) {
+        Box box = boxFor(username);
+        synchronized (box) {
+            box.messages.addLast(msg);
+            box.bytes += estimateSize(msg);
+            while (box.messages.size() > MAX_MESSAGES_PER_USER || box.bytes > MAX_BYTES_PER_USER) {
+                Message dropped = box.messages.pollFirst();
+                if (dropped == null) break;
+                box.bytes -= estimateSize(dropped);
+                System.out.println("[MAILBOX] Buzón lleno para " + username + ", se descarta el mensaje más antiguo");
+            }
+        }
+    }
+
+    /**
+     * Elimina los mensajes confirmados por el usuario.
+     * @param username Usuario que confirma
+     * @param lastSeen Última secuencia recibida por clave de conversación
+     * @return Cantidad de mensajes eliminados
+     */
+    public int acknowledge(String username, Map<String, Long> lastSeen) {
+        Box box = boxes.get(username);
+        if (box == null || lastSeen == null || lastSeen.isEmpty()) return 0;
+        int removed = 0;
+        synchronized (box) {
+            Iterator<Message> it = box.messages.iterator();
+            while (it.hasNext()) {
+                Message msg = it.next();
+                Long acked = lastSeen.get(ChatUtils.conversationKey(msg.getFrom(), msg.getTo()));
+                if (acked != null && msg.getSequence() <= acked) {
+                    it.remove();
+                    box.bytes -= estimateSize(msg);
+                    removed++;
+                }
+            }
+        }
+        return removed;
+    }
+
+    /**
+     * Agrupa los mensajes no confirmados de un usuario en lotes acotados por tamaño.
+     * Los mensajes permanecen en el buzón hasta que lleguen sus confirmaciones.
+     * @param username Usuario destinatario
+     * @return Lotes en orden de llegada (vacío si no hay pendientes)
+     */
+    public List<MessageBatch> pendingBatches(String username) {
+        List<MessageBatch> batches = new ArrayList<>();
+        Box box = boxes.get(username);
+        if (box == null) return batches;
+        synchronized (box) {
+            int remaining = box.messages.size();
+            List<Message> batch = new ArrayList<>();
+            long batchBytes = 0;
+            for (Message msg : box.messages) {
+                long size = estimateSize(msg);
+                // Un mensaje más grande que el límite viaja solo en su propio lote
+                if (!batch.isEmpty() && (batch.size() >= MAX_BATCH_MESSAGES || batchBytes + size > MAX_BATCH_BYTES)) {
+                    remaining -= batch.size();
+                    batches.add(new MessageBatch(batch, remaining));
+                    batch = new ArrayList<>();
+                    batchBytes = 0;
+                }
+                batch.add(msg);
+                batchBytes += size;
+            }
+            if (!batch.isEmpty()) {
+                batches.add(new MessageBatch(batch, 0));
+            }
+        }
+        return batches;
+    }
+
+    /**
+     * Devuelve la cantidad de mensajes pendientes de un usuario.
+     */
+    public int pendingCount(String username) {
+        Box box = boxes.get(username);
+        if (box == null) return 0;
+        synchronized (box) {
+            return box.messages.size();
+        }
+    }
+
+    private Box boxFor(String username) {
+        return boxes.computeIfAbsent(username, k -> new Box());
+    }
+
+    private static long estimateSize(Message msg) {
+        long size = 256;
+        if (msg.getContent() != null) size += msg.getContent().length() * 2L;
+        if (msg.getAudioData() != null) size += msg.getAudioData().length;
+        return size;
+    }
+
+    private static class Box {
+        private final Deque<Message> messages = new ArrayDeque<>();
+        private long bytes = 0;
+    }
+}
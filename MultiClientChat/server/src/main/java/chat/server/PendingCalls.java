@@ -0,0 +1,129 @@
+package chat.server;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import chat.common.model.User;
+import chat.common.util.ChatUtils;
+
+/**
+ * Llamadas que están sonando: se pidieron y aún no se contestaron.
+ * <p>
+ * Cada una lleva un plazo en la {@link HashedTimingWheel} del servidor; si nadie contesta
+ * antes de que venza se retira y se avisa con la tarea indicada al crear el registro.
+ * Contestar, rechazar o cancelar la retira y cancela su plazo. Como la rueda no crea un
+ * hilo por plazo, puede haber decenas de miles de llamadas sonando a la vez.
+ * <p>
+ * Las invitaciones a una llamada de grupo se registran por separado para cada miembro.
+ */
+public class PendingCalls {
+
+    /** Llamada que está sonando. */
+    public static final class Call {
+        private final String from;
+        private final String to;
+        private final boolean group;
+        private HashedTimingWheel.Timeout timeout;
+
+        private Call(String from, String to, boolean group) {
+            this.from = from;
+            this.to = to;
+            this.group = group;
+        }
+
+        /** Quien llama, o el grupo en una invitación de grupo. */
+        public String getFrom() { return from; }
+        /** Quien recibe la llamada. */
+        public String getTo() { return to; }
+        public boolean isGroup() { return group; }
+
+        @Override
+        public String toString() {
+            return (group ? "grupo " : "") + from + " -> " + to;
+        }
+    }
+
+    private final Map<String, Call> calls = new ConcurrentHashMap<>();
+    private final HashedTimingWheel wheel;
+    private final long ringMillis;
+    private final Consumer<Call> onTimeout;
+
+    /**
+     * @param wheel Rueda donde se programan los plazos
+     * @param ringMillis Tiempo que suena una llamada antes de darla por no contestada
+     * @param onTimeout Aviso de una llamada no contestada (se ejecuta en el hilo de la rueda)
+     */
+    public PendingCalls(HashedTimingWheel wheel, long ringMillis, Consumer<Call> onTimeout) {
+        this.wheel = wheel;
+        this.ringMillis = ringMillis;
+        this.onTimeout = onTimeout;
+    }
+
+    /**
+     * Registra una llamada que empieza a sonar. Si ya había una entre los mismos
+     * participantes, se reemplaza y su plazo se reinicia.
+     */
+    public void ring(String from, String to, boolean group) {
+        String key = key(from, to, group);
+        Call call = new Call(from, to, group);
+        synchronized (call) {
+            Call previous = calls.put(key, call);
+            if (previous != null) cancel(previous);
+            call.timeout = wheel.schedule(() -> expire(key, call), ringMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Retira la llamada entre dos participantes (contestada, rechazada o cancelada).
+     * @return La llamada retirada, o null si no estaba sonando
+     */
+    public Call resolve(String from, String to, boolean group) {
+        Call call = calls.remove(key(from, to, group));
+        if (call != null) cancel(call);
+        return call;
+    }
+
+    /**
+     * Retira las llamadas en las que participa un usuario o un grupo (por ejemplo, al
+     * desconectarse el usuario o terminar la llamada del grupo).
+     * @return Llamadas retiradas
+     */
+    public List<Call> resolveAll(String name) {
+        List<Call> removed = new ArrayList<>();
+        for (Map.Entry<String, Call> entry : calls.entrySet()) {
+            Call call = entry.getValue();
+            if ((call.from.equals(name) || call.to.equals(name)) && calls.remove(entry.getKey(), call)) {
+                cancel(call);
+                removed.add(call);
+            }
+        }
+        return removed;
+    }
+
+    /** Llamadas sonando en este momento. */
+    public int size() {
+        return calls.size();
+    }
+
+    private void expire(String key, Call call) {
+        // Si se contestó a la vez que vencía el plazo, gana la respuesta
+        if (calls.remove(key, call)) {
+            onTimeout.accept(call);
+        }
+    }
+
+    private static void cancel(Call call) {
+        synchronized (call) {
+            if (call.timeout != null) call.timeout.cancel();
+        }
+    }
+
+    private static String key(String from, String to, boolean group) {
+        if (group) return from + "#" + to;
+        return ChatUtils.conversationKey(new User(from, from), new User(to, to));
+    }
+}
@@ -0,0 +1,156 @@
+package chat.server;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import chat.common.model.AudioChunk;
+import chat.common.model.Message;
+
+/**
+ * Recibe notas de voz transmitidas por fragmentos y las escribe directamente en disco.
+ *
+ * La cabecera ({@link Message} de audio sin datos) abre un archivo {@code .part} junto al
+ * de destino; cada {@link AudioChunk} se escribe en cuanto llega, sin acumular la nota en
+ * memoria. Con el último fragmento se cierra y se renombra al destino, y se devuelve la
+ * cabecera para que el servidor la procese como un mensaje normal.
+ * <p>
+ * Una nota reenviada (por ejemplo, tras una reconexión del cliente) no toca la copia ya
+ * recibida: si el destino existe, el {@code .part} se borra al terminar, y una subida
+ * cortada solo borra su {@code .part}.
+ */
+public class VoiceNoteUploads {
+
+    private static final long MAX_NOTE_BYTES = 64L * 1024 * 1024;
+    private static final int MAX_UPLOADS_PER_USER = 4;
+
+    private final Map<String, Upload> uploads = new ConcurrentHashMap<>();
+
+    /**
+     * Inicia la recepción de una nota de voz.
+     * @param header Mensaje cabecera (audio sin datos, con tamaño y ruta)
+     * @param target Archivo donde se guardará la nota
+     * @throws IOException si no se puede crear el archivo o se excede algún límite
+     */
+    public void begin(Message header, File target) throws IOException {
+        if (header.getAudioSize() > MAX_NOTE_BYTES) {
+            throw new IOException("Nota de voz demasiado grande: " + header.getAudioSize() + " bytes");
+        }
+        String sender = header.getFrom().getUsername();
+        Upload previous = uploads.get(header.getMessageId());
+        if (previous != null && !previous.sender.equals(sender)) {
+            throw new IOException("La nota de voz " + header.getMessageId() + " ya la está enviando otro usuario");
+        }
+        // Una subida anterior del mismo mensaje usa el mismo .part: se descarta antes de abrirlo
+        if (previous != null && uploads.remove(header.getMessageId(), previous)) previous.discard();
+        int active = 0;
+        for (Upload upload : uploads.values()) {
+            if (upload.sender.equals(sender)) active++;
+        }
+        if (active >= MAX_UPLOADS_PER_USER) {
+            throw new IOException("Demasiadas notas de voz en curso para " + sender);
+        }
+        target.getParentFile().mkdirs();
+        File part = new File(target.getPath() + ".part");
+        Upload upload = new Upload(header, target, part, new BufferedOutputStream(new FileOutputStream(part)));
+        uploads.put(header.getMessageId(), upload);
+    }
+
+    /**
+     * Escribe un fragmento en el archivo de su nota de voz.
+     * @param chunk Fragmento recibido
+     * @return La cabecera del mensaje si este era el último fragmento; null en otro caso
+     * @throws IOException si el fragmento no corresponde a ninguna nota o falla la escritura
+     */
+    public Message append(AudioChunk chunk) throws IOException {
+        Upload upload = uploads.get(chunk.getMessageId());
+        if (upload == null) {
+            throw new IOException("Fragmento sin cabecera: " + chunk);
+        }
+        if (chunk.getFrom() == null || !upload.sender.equals(chunk.getFrom().getUsername())) {
+            // No se descarta la subida: el fragmento no es de quien la envía
+            throw new IOException("Fragmento de otro remitente: " + chunk);
+        }
+        try {
+            if (chunk.getIndex() != upload.nextIndex) {
+                throw new IOException("Fragmento fuera de orden: se esperaba #" + upload.nextIndex + ", llegó " + chunk);
+            }
+            upload.nextIndex++;
+            if (chunk.getData() != null) {
+                upload.received += chunk.getData().length;
+                if (upload.received > upload.header.getAudioSize()) {
+                    throw new IOException("La nota de voz supera el tamaño anunciado: " + chunk.getMessageId());
+                }
+                upload.out.write(chunk.getData());
+            }
+            if (!chunk.isLast()) {
+                return null;
+            }
+            uploads.remove(chunk.getMessageId());
+            upload.out.close();
+            if (upload.received != upload.header.getAudioSize()) {
+                upload.part.delete();
+                throw new IOException("Nota de voz incompleta: " + upload.received + "/" + upload.header.getAudioSize() + " bytes");
+            }
+            if (upload.target.exists()) {
+                // Reenvío de una nota ya recibida: se conserva la copia que ya se entregó
+                upload.part.delete();
+            } else if (!upload.part.renameTo(upload.target)) {
+                upload.part.delete();
+                throw new IOException("No se pudo renombrar " + upload.part);
+            }
+            return upload.header;
+        } catch (IOException e) {
+            uploads.remove(chunk.getMessageId());
+            upload.discard();
+            throw e;
+        }
+    }
+
+    /**
+     * Descarta las notas de voz en curso de un usuario (por ejemplo, al desconectarse).
+     * @param username Usuario remitente
+     */
+    public void abortAll(String username) {
+        Iterator<Upload> it = uploads.values().iterator();
+        while (it.hasNext()) {
+            Upload upload = it.next();
+            if (upload.sender.equals(username)) {
+                it.remove();
+                upload.discard();
+                System.out.println("[AUDIO] Nota de voz incompleta descartada: " + upload.part);
+            }
+        }
+    }
+
+    private static class Upload {
+        private final Message header;
+        private final String sender;
+        private final File target;
+        private final File part;
+        private final OutputStream out;
+        private long received = 0;
+        private int nextIndex = 0;
+
+        private Upload(Message header, File target, File part, OutputStream out) {
+            this.header = header;
+            this.sender = header.getFrom().getUsername();
+            this.target = target;
+            this.part = part;
+            this.out = out;
+        }
+
+        private void discard() {
+            try {
+                out.close();
+            } catch (IOException ignored) {
+            }
+            part.delete();
+        }
+    }
+}